@@ -16,24 +16,70 @@
 
 package au.csiro.spiatofhir;
 
+import au.csiro.spiatofhir.fhir.NdjsonResourceWriter;
+import au.csiro.spiatofhir.fhir.ResourceValidator;
+import au.csiro.spiatofhir.fhir.ResourceWriter;
+import au.csiro.spiatofhir.fhir.StreamingBundleWriter;
 import au.csiro.spiatofhir.fhir.TerminologyClient;
-import au.csiro.spiatofhir.fhir.r4.R4Bundle;
+import au.csiro.spiatofhir.fhir.model.ResourceEmitter;
+import au.csiro.spiatofhir.fhir.model.ResourceNode;
+import au.csiro.spiatofhir.fhir.model.TerminologyModelBuilder;
+import au.csiro.spiatofhir.fhir.r4.R4ResourceEmitter;
+import au.csiro.spiatofhir.fhir.r4.R4ResourcePublisher;
 import au.csiro.spiatofhir.fhir.r4.R4ResourceValidator;
-import au.csiro.spiatofhir.fhir.stu3.Stu3Bundle;
+import au.csiro.spiatofhir.fhir.r5.R5ResourceEmitter;
+import au.csiro.spiatofhir.fhir.stu3.Stu3ResourceEmitter;
 import au.csiro.spiatofhir.fhir.stu3.Stu3ResourceValidator;
+import au.csiro.spiatofhir.loinc.Loinc;
+import au.csiro.spiatofhir.loinc.LoincTableIndex;
+import au.csiro.spiatofhir.snomed.SnomedConceptIndex;
+import au.csiro.spiatofhir.snomed.SnomedCt;
+import au.csiro.spiatofhir.spia.RefsetSnapshotStore;
 import au.csiro.spiatofhir.spia.SpiaDistribution;
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.spia.SpiaDistributionFile;
+import au.csiro.spiatofhir.spia.ValidationException;
+import au.csiro.spiatofhir.terminology.AsyncLookupEngine;
+import au.csiro.spiatofhir.terminology.CodeStatusIndex;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
+import au.csiro.spiatofhir.terminology.CodeStatusProviderChain;
+import au.csiro.spiatofhir.terminology.HedgingCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.IndexedCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.MemoizingCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.PersistentCodeStatusCache;
+import au.csiro.spiatofhir.terminology.RemoteCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.RemoteCodeStatusProvider.BatchMode;
+import au.csiro.spiatofhir.terminology.ResilientCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.StreamingLookup;
+import au.csiro.spiatofhir.utils.BinaryFiles;
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
 import org.fhir.ucum.UcumService;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,8 +87,12 @@ import org.slf4j.LoggerFactory;
  * Takes the SPIA distribution located at the `inputPath`, transforms it into a set of FHIR
  * resources, then outputs a FHIR JSON Bundle to the `outputDirectory`.
  * <p>
- * Requires the help of a FHIR terminology server, accessible at `terminologyServerUrl`, for
- * populating native display terms within ValueSets and ConceptMaps.
+ * The parsed distribution can be saved to `parsedDistributionOutput`. This file can then be used
+ * as the `parsedDistributionInput` of a later run, which skips parsing and validation altogether.
+ * <p>
+ * Code status is checked using a chain of sources, configured using `terminologyChain`. This can
+ * include a FHIR terminology server, accessible at `terminologyServerUrl`. Multiple replicas of the
+ * terminology server can be supplied as a comma-separated list of URLs.
  *
  * @author John Grimes
  */
@@ -51,69 +101,614 @@ public class SpiaToFhirMavenPlugin extends AbstractMojo {
 
   private static final Logger logger = LoggerFactory.getLogger(SpiaToFhirMavenPlugin.class);
   private static final String PUBLICATION_DATE_PATTERN = "yyyy-MM-dd";
+  private static final Duration INITIAL_RETRY_BACKOFF = Duration.ofMillis(500);
+  private static final Duration MAX_RETRY_BACKOFF = Duration.ofSeconds(10);
+  // The name of the output for each version of FHIR, which is either a Bundle file with this name
+  // or a directory of NDJSON files.
+  private static final String STU3_OUTPUT_NAME = "spia-stu3";
+  private static final String R4_OUTPUT_NAME = "spia-r4";
+  private static final String R5_OUTPUT_NAME = "spia-r5";
+  private static final String BUNDLE_EXTENSION = ".Bundle.json";
+  // The number of versions of FHIR that are output, each of which is written concurrently.
+  private static final int OUTPUT_VERSIONS = 3;
 
-  @Parameter(property = "inputPath", required = true)
+  @Parameter(property = "inputPath")
   private String inputPath;
 
   @Parameter(property = "outputDirectory", required = true)
   private String outputDirectory;
 
-  @Parameter(property = "terminologyServerUrl", required = true)
+  @Parameter(property = "terminologyServerUrl")
   private String terminologyServerUrl;
 
   @Parameter(property = "publicationDate", required = true)
   private String publicationDate;
 
+  @Parameter(property = "snomedVersion")
+  private String snomedVersion;
+
+  @Parameter(property = "loincVersion")
+  private String loincVersion;
+
+  @Parameter(property = "terminologyConcurrency", defaultValue = "4")
+  private int terminologyConcurrency;
+
+  @Parameter(property = "terminologyCache", defaultValue = "true")
+  private boolean terminologyCache;
+
+  @Parameter(property = "terminologyCacheFile",
+      defaultValue = "${project.build.directory}/spia-to-fhir/terminology-cache.bin")
+  private File terminologyCacheFile;
+
+  @Parameter(property = "terminologyCacheTtl", defaultValue = "P7D")
+  private String terminologyCacheTtl;
+
+  @Parameter(property = "terminologyHedgePercentile", defaultValue = "95")
+  private double terminologyHedgePercentile;
+
+  @Parameter(property = "terminologyBatchMode", defaultValue = "lookup")
+  private String terminologyBatchMode;
+
+  @Parameter(property = "terminologyCacheFallback", defaultValue = "false")
+  private boolean terminologyCacheFallback;
+
+  @Parameter(property = "terminologyMaxAttempts", defaultValue = "4")
+  private int terminologyMaxAttempts;
+
+  @Parameter(property = "terminologyTimeBudget", defaultValue = "PT30M")
+  private String terminologyTimeBudget;
+
+  @Parameter(property = "terminologyFailureThreshold", defaultValue = "5")
+  private int terminologyFailureThreshold;
+
+  @Parameter(property = "terminologyCircuitOpenDuration", defaultValue = "PT30S")
+  private String terminologyCircuitOpenDuration;
+
+  @Parameter(property = "terminologyChain", defaultValue = "memory,disk,index,remote")
+  private String terminologyChain;
+
+  @Parameter(property = "snomedRf2ConceptFile")
+  private File snomedRf2ConceptFile;
+
+  @Parameter(property = "snomedIndexFile",
+      defaultValue = "${project.build.directory}/spia-to-fhir/snomed-concepts.idx")
+  private File snomedIndexFile;
+
+  @Parameter(property = "loincTableFile")
+  private File loincTableFile;
+
+  @Parameter(property = "loincIndexFile",
+      defaultValue = "${project.build.directory}/spia-to-fhir/loinc-codes.idx")
+  private File loincIndexFile;
+
+  @Parameter(property = "streamingIngestion", defaultValue = "false")
+  private boolean streamingIngestion;
+
+  @Parameter(property = "parsingConcurrency", defaultValue = "7")
+  private int parsingConcurrency;
+
+  @Parameter(property = "refsetSnapshot", defaultValue = "false")
+  private boolean refsetSnapshot;
+
+  @Parameter(property = "refsetSnapshotDirectory",
+      defaultValue = "${project.build.directory}/spia-to-fhir/snapshots")
+  private File refsetSnapshotDirectory;
+
+  @Parameter(property = "parsedDistributionOutput")
+  private File parsedDistributionOutput;
+
+  @Parameter(property = "parsedDistributionInput")
+  private File parsedDistributionInput;
+
+  @Parameter(property = "streamingOutput", defaultValue = "false")
+  private boolean streamingOutput;
+
+  @Parameter(property = "outputFormat", defaultValue = "bundle")
+  private String outputFormat;
+
+  @Parameter(property = "ndjsonGzip", defaultValue = "false")
+  private boolean ndjsonGzip;
+
+  @Parameter(property = "publishServerUrl")
+  private String publishServerUrl;
+
+  @Parameter(property = "publishConcurrency", defaultValue = "4")
+  private int publishConcurrency;
+
+  @Parameter(property = "publishBatchSize", defaultValue = "100")
+  private int publishBatchSize;
+
+  @Parameter(property = "publishMaxRequestSize", defaultValue = "5242880")
+  private long publishMaxRequestSize;
+
+  @Parameter(defaultValue = "${plugin.version}", readonly = true)
+  private String pluginVersion;
+
+  // Parsed from the corresponding parameters at the start of execution.
+  private BatchMode batchMode;
+  private OutputFormat format;
+
   @Override
   public void execute() throws MojoExecutionException {
+    if (inputPath == null && parsedDistributionInput == null) {
+      throw new MojoExecutionException(
+          "Either inputPath or parsedDistributionInput must be supplied");
+    }
+    batchMode = parseEnum(BatchMode.class, "terminologyBatchMode", terminologyBatchMode);
+    format = parseEnum(OutputFormat.class, "outputFormat", outputFormat);
+    requirePositive("parsingConcurrency", parsingConcurrency);
+    if (publishServerUrl != null) {
+      requirePositive("publishConcurrency", publishConcurrency);
+      requirePositive("publishBatchSize", publishBatchSize);
+      requirePositive("publishMaxRequestSize", publishMaxRequestSize);
+    }
+    if (streamingOutput && parsedDistributionOutput != null) {
+      // Saving the distribution requires every reference set to be parsed and held at once.
+      throw new MojoExecutionException(
+          "streamingOutput cannot be combined with parsedDistributionOutput");
+    }
     try {
       FhirContext r4Context = FhirContext.forR4();
-      TerminologyClient terminologyClient = r4Context
-          .newRestfulClient(TerminologyClient.class, terminologyServerUrl);
-      UcumService ucumService = new UcumEssenceService(Thread.currentThread()
-          .getContextClassLoader()
-          .getResourceAsStream("ucum-essence.xml"));
-      File inputFile = new File(inputPath);
       SimpleDateFormat publicationDateFormat = new SimpleDateFormat(PUBLICATION_DATE_PATTERN);
+      Date publication = publicationDateFormat.parse(publicationDate);
 
-      // Parse RCPA distribution.
-      SpiaDistribution spiaDistribution = new SpiaDistribution(inputFile, terminologyClient,
-          ucumService);
-
-      // Convert distribution into a STU3 Bundle.
-      Stu3Bundle stu3BundleBuilder = new Stu3Bundle(
-          spiaDistribution,
-          publicationDateFormat.parse(publicationDate)
-      );
-      org.hl7.fhir.dstu3.model.Bundle stu3Bundle = stu3BundleBuilder.getBundle();
-      FhirContext stu3Context = FhirContext.forDstu3();
-      new Stu3ResourceValidator(stu3Context).validate(stu3Bundle);
-      IParser stu3Parser = stu3Context.newJsonParser();
-      String stu3Json = stu3Parser.encodeResourceToString(stu3Bundle);
-      String stu3OutputPath = Paths.get(outputDirectory, "/spia-stu3.Bundle.json").toAbsolutePath()
-          .toString();
-      try (FileWriter fileWriter = new FileWriter(stu3OutputPath)) {
-        fileWriter.write(stu3Json);
-      }
-
-      // Convert distribution into a R4 Bundle.
-      R4Bundle r4BundleBuilder = new R4Bundle(
-          spiaDistribution,
-          publicationDateFormat.parse(publicationDate)
-      );
-      org.hl7.fhir.r4.model.Bundle r4Bundle = r4BundleBuilder.getBundle();
-      new R4ResourceValidator(r4Context).validate(r4Bundle);
-      IParser r4JsonParser = r4Context.newJsonParser();
-      String r4Json = r4JsonParser.encodeResourceToString(r4Bundle);
-      String r4OutputPath = Paths.get(outputDirectory, "/spia-r4.Bundle.json").toAbsolutePath()
-          .toString();
-      try (FileWriter fileWriter = new FileWriter(r4OutputPath)) {
-        fileWriter.write(r4Json);
+      // Parse RCPA distribution, or read a distribution that was parsed previously, then convert
+      // it into FHIR Bundles.
+      if (parsedDistributionInput != null) {
+        SpiaDistribution spiaDistribution = SpiaDistributionFile
+            .read(parsedDistributionInput.toPath());
+        checkCodeSystemVersions(spiaDistribution.getCodeSystemVersions());
+        writeOutput(spiaDistribution, r4Context, publication);
+      } else {
+        parseDistribution(r4Context, spiaDistribution -> {
+          if (parsedDistributionOutput != null) {
+            SpiaDistributionFile.write(spiaDistribution, parsedDistributionOutput.toPath(),
+                getCodeSystemVersions());
+          }
+          writeOutput(spiaDistribution, r4Context, publication);
+        });
       }
+    } catch (MojoExecutionException e) {
+      throw e;
     } catch (Exception e) {
       logger.error("Error occurred during execution: ", e);
       throw new MojoExecutionException("Error occurred during execution: ", e);
     }
   }
 
+  /**
+   * Throws an exception if the value of a numeric parameter is not at least 1.
+   */
+  private static void requirePositive(String parameter, long value)
+      throws MojoExecutionException {
+    if (value < 1) {
+      throw new MojoExecutionException(
+          "Invalid value for " + parameter + ": " + value + " (must be at least 1)");
+    }
+  }
+
+  /**
+   * Parses the value of a parameter that names a constant within an enum, ignoring case.
+   */
+  private static <E extends Enum<E>> E parseEnum(Class<E> type, String parameter, String value)
+      throws MojoExecutionException {
+    try {
+      return Enum.valueOf(type, value.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      String allowed = Arrays.stream(type.getEnumConstants())
+          .map(constant -> constant.name().toLowerCase())
+          .collect(Collectors.joining(", "));
+      throw new MojoExecutionException(
+          "Invalid value for " + parameter + ": \"" + value + "\" (expected one of: " + allowed
+              + ")");
+    }
+  }
+
+  /**
+   * Parses and validates the distribution at the `inputPath`, using the configured chain of
+   * terminology sources, and passes it to the handler.
+   * <p>
+   * The terminology sources remain open until the handler returns, as in streaming mode the
+   * reference sets are not parsed until they are transformed.
+   */
+  private void parseDistribution(FhirContext r4Context, DistributionHandler handler)
+      throws IOException, UcumException, ValidationException {
+    UcumService ucumService = new UcumEssenceService(Thread.currentThread()
+        .getContextClassLoader()
+        .getResourceAsStream("ucum-essence.xml"));
+    File inputFile = new File(inputPath);
+    Map<String, String> codeSystemVersions = getCodeSystemVersions();
+    List<String> stageNames = Arrays.stream(terminologyChain.split(","))
+        .map(String::trim)
+        .collect(Collectors.toList());
+
+    try (CodeStatusProviderChain chain = CodeStatusProviderChain.build(stageNames,
+        (name, next) -> createTerminologyStage(name, next, r4Context, codeSystemVersions))) {
+      // The snapshots record the result of validating codes, so they are expired along with the
+      // terminology cache.
+      RefsetSnapshotStore snapshotStore = null;
+      if (refsetSnapshot) {
+        snapshotStore = new RefsetSnapshotStore(refsetSnapshotDirectory.toPath(),
+            Duration.parse(terminologyCacheTtl), getSnapshotContext(codeSystemVersions));
+      }
+      ExecutorService parsingExecutor = Executors.newFixedThreadPool(parsingConcurrency);
+      try (AsyncLookupEngine lookupEngine = new AsyncLookupEngine(chain,
+          terminologyConcurrency)) {
+        handler.handle(new SpiaDistribution(inputFile, lookupEngine, ucumService,
+            streamingIngestion, parsingExecutor, snapshotStore, streamingOutput));
+      } finally {
+        parsingExecutor.shutdownNow();
+      }
+      for (CodeStatusProvider stage : chain.getStages()) {
+        if (stage instanceof MemoizingCodeStatusProvider) {
+          ((MemoizingCodeStatusProvider) stage).logStatistics();
+        }
+      }
+    }
+  }
+
+  /**
+   * Transforms one reference set at a time, writing its resources to each of the outputs and then
+   * releasing it before moving on to the next. The resources for each version of FHIR are emitted
+   * from the same model concurrently, using an executor that is shared by all of the versions.
+   * <p>
+   * Each resource is encoded directly to its output file as soon as it is emitted, so neither the
+   * Bundles nor their JSON are ever held in memory in their entirety. Each resource is also
+   * validated individually, rather than as part of a Bundle.
+   * <p>
+   * The output for each version is either a single Bundle, or a set of NDJSON files, depending on
+   * the `outputFormat`. If a `publishServerUrl` is configured, the R4 resources are also published
+   * to that server as they are written. In that case, an R4 resource that fails validation fails
+   * the run, so that it is not published.
+   * <p>
+   * The outputs are only completed once all of the resources have been written. If anything fails
+   * before then, each of the outputs is aborted, so that no partial output is left in place.
+   */
+  private void writeOutput(SpiaDistribution spiaDistribution, FhirContext r4Context,
+      Date publication) throws IOException, ValidationException {
+    FhirContext stu3Context = FhirContext.forDstu3();
+    FhirContext r5Context = FhirContext.forR5();
+    TerminologyModelBuilder modelBuilder = new TerminologyModelBuilder(publication);
+    Stu3ResourceEmitter stu3Emitter = new Stu3ResourceEmitter();
+    R4ResourceEmitter r4Emitter = new R4ResourceEmitter();
+    R5ResourceEmitter r5Emitter = new R5ResourceEmitter();
+    Stu3ResourceValidator stu3Validator = new Stu3ResourceValidator(stu3Context);
+    R4ResourceValidator r4Validator = new R4ResourceValidator(r4Context);
+    ExecutorService outputExecutor = Executors.newFixedThreadPool(OUTPUT_VERSIONS);
+    List<ResourceWriter> outputs = new ArrayList<>();
+    try {
+      ResourceWriter stu3Writer = createWriter(format, stu3Context, STU3_OUTPUT_NAME);
+      outputs.add(stu3Writer);
+      ResourceWriter r4Writer = createWriter(format, r4Context, R4_OUTPUT_NAME);
+      outputs.add(r4Writer);
+      ResourceWriter r5Writer = createWriter(format, r5Context, R5_OUTPUT_NAME);
+      outputs.add(r5Writer);
+      ResourceWriter publisher = createPublisher();
+      if (publisher != null) {
+        outputs.add(publisher);
+      }
+      boolean publishing = publisher != null;
+      List<ResourceWriter> r4Writers = publisher == null
+          ? Collections.singletonList(r4Writer)
+          : Arrays.asList(r4Writer, publisher);
+      List<DistributionEntry> entries = new ArrayList<>(spiaDistribution.getRefsets().keySet());
+      for (DistributionEntry entry : entries) {
+        List<ResourceNode> nodes = modelBuilder.build(entry, spiaDistribution.getRefset(entry));
+        // There are no NCTS profiles for R5, so the R5 resources are not validated.
+        invokeAll(outputExecutor, Arrays.asList(
+            () -> writeResources(nodes, stu3Emitter, stu3Validator, stu3Writer),
+            () -> writeResources(nodes, r4Emitter, r4Validator, r4Writers, publishing),
+            () -> writeResources(nodes, r5Emitter, null, r5Writer)));
+        spiaDistribution.release(entry);
+      }
+      List<ResourceNode> codeSystem = Collections
+          .singletonList(modelBuilder.buildCombiningResultsCodeSystem());
+      invokeAll(outputExecutor, Arrays.asList(
+          () -> writeResources(codeSystem, stu3Emitter, stu3Validator, stu3Writer),
+          () -> writeResources(codeSystem, r4Emitter, r4Validator, r4Writers, publishing),
+          () -> writeResources(codeSystem, r5Emitter, null, r5Writer)));
+    } catch (Exception e) {
+      abortAll(outputs, e);
+      throw e;
+    } finally {
+      outputExecutor.shutdownNow();
+    }
+    closeAll(outputs);
+  }
+
+  /**
+   * Closes each of the outputs in turn. If one of them cannot be closed, the rest are aborted.
+   */
+  private static void closeAll(List<ResourceWriter> outputs) throws IOException {
+    for (int i = 0; i < outputs.size(); i++) {
+      try {
+        outputs.get(i).close();
+      } catch (IOException | RuntimeException e) {
+        abortAll(outputs.subList(i + 1, outputs.size()), e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Aborts each of the outputs, adding any errors that occur to the error that caused the abort.
+   */
+  private static void abortAll(List<ResourceWriter> outputs, Exception cause) {
+    for (ResourceWriter output : outputs) {
+      try {
+        output.abort();
+      } catch (IOException | RuntimeException e) {
+        cause.addSuppressed(e);
+      }
+    }
+  }
+
+  private ResourceWriter createWriter(OutputFormat format, FhirContext fhirContext, String name)
+      throws IOException {
+    switch (format) {
+      case BUNDLE:
+        return new StreamingBundleWriter(fhirContext,
+            Paths.get(outputDirectory, name + BUNDLE_EXTENSION));
+      case NDJSON:
+        return new NdjsonResourceWriter(fhirContext, Paths.get(outputDirectory, name),
+            ndjsonGzip);
+      default:
+        throw new IllegalArgumentException("Unknown output format: " + outputFormat);
+    }
+  }
+
+  /**
+   * Creates a publisher for the R4 resources, or returns null if there is no `publishServerUrl`.
+   * A new context is used, as HAPI caches the base URL of each server against its context.
+   */
+  private ResourceWriter createPublisher() throws IOException {
+    if (publishServerUrl == null) {
+      return null;
+    }
+    return new R4ResourcePublisher(FhirContext.forR4(), publishServerUrl, publishConcurrency,
+        publishBatchSize, publishMaxRequestSize);
+  }
+
+  private static <T extends IBaseResource> Void writeResources(List<ResourceNode> nodes,
+      ResourceEmitter<T> emitter, ResourceValidator validator, ResourceWriter writer)
+      throws IOException, ValidationException {
+    return writeResources(nodes, emitter, validator, Collections.singletonList(writer), false);
+  }
+
+  /**
+   * Emits, validates and writes each of the resources to each of the writers. The validator may be
+   * null, if there is none for the version of FHIR.
+   *
+   * @param requireValid if true, a resource that fails validation fails the run rather than being
+   * written
+   */
+  private static <T extends IBaseResource> Void writeResources(List<ResourceNode> nodes,
+      ResourceEmitter<T> emitter, ResourceValidator validator, List<ResourceWriter> writers,
+      boolean requireValid) throws IOException, ValidationException {
+    for (ResourceNode node : nodes) {
+      T resource = emitter.emit(node);
+      if (validator != null && !validator.validate(resource) && requireValid) {
+        throw new ValidationException("Resource failed validation and cannot be published: "
+            + resource.fhirType() + "/" + resource.getIdElement().getIdPart());
+      }
+      for (ResourceWriter writer : writers) {
+        writer.addResource(resource);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs each of the tasks on the executor and waits for all of them to complete, rethrowing the
+   * first failure.
+   */
+  private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+      throws IOException, ValidationException {
+    try {
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ValidationException) {
+        throw (ValidationException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Error writing output", cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing output", e);
+    }
+  }
+
+  private Map<String, String> getCodeSystemVersions() {
+    Map<String, String> versions = new HashMap<>();
+    if (snomedVersion != null) {
+      versions.put(SnomedCt.SYSTEM_URI, snomedVersion);
+    }
+    if (loincVersion != null) {
+      versions.put(Loinc.SYSTEM_URI, loincVersion);
+    }
+    return versions;
+  }
+
+  /**
+   * Throws an exception if a code system version has been configured that differs from the one that
+   * a parsed distribution was validated against.
+   */
+  private void checkCodeSystemVersions(Map<String, String> recordedVersions)
+      throws MojoExecutionException {
+    for (Map.Entry<String, String> configured : getCodeSystemVersions().entrySet()) {
+      String recorded = recordedVersions.get(configured.getKey());
+      if (!configured.getValue().equals(recorded)) {
+        throw new MojoExecutionException("Parsed distribution was validated against "
+            + configured.getKey() + " version " + (recorded == null ? "(unspecified)" : recorded)
+            + ", but version " + configured.getValue() + " is configured");
+      }
+    }
+  }
+
+  /**
+   * Returns the settings that the entries within a reference set snapshot depend upon. A snapshot
+   * is not reused if the plugin or any of the sources of code status have changed.
+   */
+  private Map<String, String> getSnapshotContext(Map<String, String> codeSystemVersions)
+      throws IOException {
+    Map<String, String> context = new HashMap<>(codeSystemVersions);
+    context.put("pluginVersion", String.valueOf(pluginVersion));
+    context.put("terminologyChain", terminologyChain);
+    context.put("terminologyServerUrl", String.valueOf(terminologyServerUrl));
+    context.put("snomedRf2ConceptFile", describeFile(snomedRf2ConceptFile));
+    context.put("loincTableFile", describeFile(loincTableFile));
+    return context;
+  }
+
+  /**
+   * Describes a file by its path, size and modification time, so that a change to its content can
+   * be detected without reading it.
+   */
+  private static String describeFile(File file) throws IOException {
+    if (file == null) {
+      return "none";
+    }
+    return BinaryFiles.describeFile(file.toPath());
+  }
+
+  /**
+   * Creates a stage within the chain of code status providers. The available stages are:
+   * <ul>
+   * <li>`memory` - an in-memory cache, shared by all of the reference sets within the run;</li>
+   * <li>`disk` - a persistent cache, retained between runs;</li>
+   * <li>`index` - offline indexes built from SNOMED CT and LOINC release files, and;</li>
+   * <li>`remote` - the FHIR terminology server.</li>
+   * </ul>
+   */
+  private CodeStatusProvider createTerminologyStage(String name, CodeStatusProvider next,
+      FhirContext fhirContext, Map<String, String> codeSystemVersions) throws IOException {
+    switch (name) {
+      case "memory":
+        return new MemoizingCodeStatusProvider(requireNext(name, next));
+      case "disk":
+        if (!terminologyCache) {
+          return next;
+        }
+        return new PersistentCodeStatusCache(requireNext(name, next),
+            terminologyCacheFile.toPath(), Duration.parse(terminologyCacheTtl),
+            codeSystemVersions, terminologyCacheFallback);
+      case "index":
+        return addOfflineIndexes(next);
+      case "remote":
+        if (next != null) {
+          throw new IllegalArgumentException(
+              "Terminology server must be the last stage in the terminology chain");
+        }
+        if (terminologyServerUrl == null) {
+          throw new IllegalArgumentException(
+              "terminologyServerUrl is required when the terminology chain includes remote");
+        }
+        List<CodeStatusProvider> replicas = new ArrayList<>();
+        for (String url : terminologyServerUrl.split(",")) {
+          // The client factory remembers the server base used for each client interface, so each
+          // replica needs a context of its own.
+          FhirContext replicaContext = replicas.isEmpty() ? fhirContext : FhirContext.forR4();
+          configureConnectionPool(replicaContext);
+          TerminologyClient client = replicaContext
+              .newRestfulClient(TerminologyClient.class, url.trim());
+          CodeStatusProvider remoteProvider = new RemoteCodeStatusProvider(client,
+              codeSystemVersions, batchMode, StreamingLookup.forClient(replicaContext, client));
+          replicas.add(remoteProvider);
+        }
+        if (replicas.size() == 1) {
+          return createResilientProvider(replicas.get(0), terminologyMaxAttempts);
+        }
+        // Each replica has its own circuit breaker, so that the failure of one replica does not
+        // prevent the use of the others. A failed request is retried against the other replicas
+        // straight away, and only retried after a backoff once all of them have failed.
+        List<CodeStatusProvider> resilientReplicas = replicas.stream()
+            .map(replica -> createResilientProvider(replica, 1))
+            .collect(Collectors.toList());
+        return createResilientProvider(new HedgingCodeStatusProvider(resilientReplicas,
+            terminologyHedgePercentile, terminologyConcurrency), terminologyMaxAttempts);
+      default:
+        throw new IllegalArgumentException("Unknown terminology chain stage: " + name);
+    }
+  }
+
+  private CodeStatusProvider createResilientProvider(CodeStatusProvider delegate,
+      int maxAttempts) {
+    return new ResilientCodeStatusProvider(delegate, maxAttempts, INITIAL_RETRY_BACKOFF,
+        MAX_RETRY_BACKOFF, Duration.parse(terminologyTimeBudget), terminologyFailureThreshold,
+        Duration.parse(terminologyCircuitOpenDuration));
+  }
+
+  private static CodeStatusProvider requireNext(String name, CodeStatusProvider next) {
+    if (next == null) {
+      throw new IllegalArgumentException(
+          "Terminology chain stage cannot be the last in the chain: " + name);
+    }
+    return next;
+  }
+
+  /**
+   * Allows a pooled connection for each concurrent lookup, so that connections are reused rather
+   * than opened for each request.
+   */
+  private void configureConnectionPool(FhirContext fhirContext) {
+    IRestfulClientFactory clientFactory = fhirContext.getRestfulClientFactory();
+    clientFactory.setPoolMaxPerRoute(
+        Math.max(clientFactory.getPoolMaxPerRoute(), terminologyConcurrency));
+    clientFactory.setPoolMaxTotal(
+        Math.max(clientFactory.getPoolMaxTotal(), terminologyConcurrency));
+  }
+
+  /**
+   * Puts any configured offline indexes in front of the supplied provider, so that the provider is
+   * only consulted for codes that the indexes do not contain. If there are no indexes configured,
+   * the supplied provider is returned unchanged.
+   */
+  private CodeStatusProvider addOfflineIndexes(CodeStatusProvider delegate) throws IOException {
+    CodeStatusProvider provider = delegate;
+    if (snomedRf2ConceptFile != null) {
+      CodeStatusIndex snomedIndex = CodeStatusIndex
+          .loadOrBuild(snomedIndexFile.toPath(), snomedRf2ConceptFile.toPath(),
+              SnomedConceptIndex::read);
+      logger.info("Loaded " + snomedIndex.size() + " SNOMED CT concepts from offline index");
+      provider = new IndexedCodeStatusProvider(SnomedCt.SYSTEM_URI, snomedIndex,
+          SnomedConceptIndex::toKey, provider);
+    }
+    if (loincTableFile != null) {
+      CodeStatusIndex loincIndex = CodeStatusIndex
+          .loadOrBuild(loincIndexFile.toPath(), loincTableFile.toPath(), LoincTableIndex::read);
+      logger.info("Loaded " + loincIndex.size() + " LOINC codes from offline index");
+      provider = new IndexedCodeStatusProvider(Loinc.SYSTEM_URI, loincIndex,
+          LoincTableIndex::toKey, provider);
+    }
+    return provider;
+  }
+
+  /**
+   * The format in which the resources for each version of FHIR are written.
+   */
+  private enum OutputFormat {
+    /**
+     * A single `collection` Bundle, see {@link StreamingBundleWriter}.
+     */
+    BUNDLE,
+    /**
+     * An NDJSON file for each type of resource, see {@link NdjsonResourceWriter}.
+     */
+    NDJSON
+  }
+
+  private interface DistributionHandler {
+
+    void handle(SpiaDistribution spiaDistribution) throws IOException, ValidationException;
+
+  }
+
 }
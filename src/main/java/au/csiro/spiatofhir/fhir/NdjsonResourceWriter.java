@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir;
+
+import au.csiro.spiatofhir.utils.PendingFile;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Writes FHIR resources as newline delimited JSON (NDJSON), with one file for each type of
+ * resource, e.g. `ValueSet.ndjson`. Each resource is encoded onto a single line.
+ * <p>
+ * This is the format used by the FHIR Bulk Data specification, so the files can be loaded using
+ * `$import`, and each of them can be loaded in parallel. The files can optionally be compressed
+ * using gzip, in which case they are named with a `.ndjson.gz` extension.
+ * <p>
+ * Each file is written under a temporary name, and the files are only moved into place once they
+ * have all been written in full.
+ *
+ * @author John Grimes
+ */
+public class NdjsonResourceWriter implements ResourceWriter {
+
+  public static final String EXTENSION = ".ndjson";
+  public static final String GZIP_EXTENSION = ".gz";
+  private final FhirContext fhirContext;
+  private final IParser parser;
+  private final Path directory;
+  private final boolean gzip;
+  private final Map<String, Writer> writers = new TreeMap<>();
+  private final Map<String, PendingFile> pendingFiles = new TreeMap<>();
+  private final Map<String, Integer> resourceCounts = new TreeMap<>();
+  private boolean closed = false;
+
+  public NdjsonResourceWriter(FhirContext fhirContext, Path directory, boolean gzip)
+      throws IOException {
+    this.fhirContext = fhirContext;
+    this.parser = fhirContext.newJsonParser();
+    this.directory = directory;
+    this.gzip = gzip;
+    Files.createDirectories(directory);
+  }
+
+  @Override
+  public void addResource(IBaseResource resource) throws IOException {
+    String resourceType = fhirContext.getResourceDefinition(resource).getName();
+    Writer writer = writers.get(resourceType);
+    if (writer == null) {
+      writer = openWriter(resourceType);
+      writers.put(resourceType, writer);
+    }
+    // The compact JSON encoding never contains a line break, as any within strings are escaped.
+    parser.encodeResourceToWriter(resource, writer);
+    writer.write('\n');
+    resourceCounts.merge(resourceType, 1, Integer::sum);
+  }
+
+  /**
+   * Returns the path of the file that resources of the given type are written to.
+   */
+  public Path getFile(String resourceType) {
+    return directory.resolve(resourceType + EXTENSION + (gzip ? GZIP_EXTENSION : ""));
+  }
+
+  /**
+   * Returns the number of resources written, for each type of resource.
+   */
+  public Map<String, Integer> getResourceCounts() {
+    return Collections.unmodifiableMap(resourceCounts);
+  }
+
+  private Writer openWriter(String resourceType) throws IOException {
+    PendingFile pendingFile = new PendingFile(getFile(resourceType));
+    pendingFiles.put(resourceType, pendingFile);
+    OutputStream outputStream = pendingFile.newOutputStream();
+    if (gzip) {
+      outputStream = new GZIPOutputStream(outputStream);
+    }
+    return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Closes each of the files, including any that could not be written to, and then moves them all
+   * into place if they were all written successfully.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      closeWriters();
+      for (PendingFile pendingFile : pendingFiles.values()) {
+        pendingFile.commit();
+      }
+    } finally {
+      discardPendingFiles();
+    }
+  }
+
+  /**
+   * Closes each of the files and deletes them, leaving any existing files as they were.
+   */
+  @Override
+  public void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      closeWriters();
+    } finally {
+      discardPendingFiles();
+    }
+  }
+
+  private void closeWriters() throws IOException {
+    IOException error = null;
+    for (Writer writer : writers.values()) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        } else {
+          error.addSuppressed(e);
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private void discardPendingFiles() throws IOException {
+    for (PendingFile pendingFile : pendingFiles.values()) {
+      pendingFile.discard();
+    }
+  }
+
+}
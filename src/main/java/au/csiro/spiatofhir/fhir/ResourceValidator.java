@@ -74,7 +74,10 @@ public abstract class ResourceValidator {
     }
   }
 
-  public void validate(IBaseResource resource) {
+  /**
+   * Validates the resource and logs the result, returning false if any errors were found.
+   */
+  public boolean validate(IBaseResource resource) {
     ValidationResult validationResult = validator.validateWithResult(resource);
     if (validationResult.isSuccessful()) {
       logger.info("Resource is valid, no errors found");
@@ -82,6 +85,7 @@ public abstract class ResourceValidator {
       logger.error("Validation errors encountered");
       logResult(validationResult);
     }
+    return validationResult.isSuccessful();
   }
 
   public void logResult(ValidationResult result) {
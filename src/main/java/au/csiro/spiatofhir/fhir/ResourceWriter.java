@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Writes FHIR resources to an output one at a time, as they are produced.
+ * <p>
+ * The output is only completed when the writer is closed. If the run fails before then, the writer
+ * is aborted instead, so that incomplete output is not left behind.
+ *
+ * @author John Grimes
+ */
+public interface ResourceWriter extends Closeable {
+
+  void addResource(IBaseResource resource) throws IOException;
+
+  /**
+   * Discards the output written so far, and releases any resources held by the writer. Closing the
+   * writer afterwards has no effect.
+   */
+  default void abort() throws IOException {
+    close();
+  }
+
+}
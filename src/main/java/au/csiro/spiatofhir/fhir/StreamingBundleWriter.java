@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir;
+
+import au.csiro.spiatofhir.utils.PendingFile;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Writes a FHIR JSON collection Bundle to a stream one resource at a time, so that the Bundle does
+ * not need to be held in memory in its entirety. The output is the same as encoding a Bundle
+ * containing the same resources.
+ * <p>
+ * When writing to a file, the Bundle is written to a temporary file which is only moved into place
+ * once the Bundle is complete.
+ *
+ * @author John Grimes
+ */
+public class StreamingBundleWriter implements ResourceWriter {
+
+  private final IParser parser;
+  private final Writer writer;
+  // The file being written, or null if writing to a stream.
+  private final PendingFile pendingFile;
+  private int resourceCount = 0;
+  private boolean closed = false;
+
+  public StreamingBundleWriter(FhirContext fhirContext, OutputStream outputStream)
+      throws IOException {
+    this(fhirContext, outputStream, null);
+  }
+
+  public StreamingBundleWriter(FhirContext fhirContext, Path path) throws IOException {
+    this(fhirContext, new PendingFile(path));
+  }
+
+  private StreamingBundleWriter(FhirContext fhirContext, PendingFile pendingFile)
+      throws IOException {
+    this(fhirContext, pendingFile.newOutputStream(), pendingFile);
+  }
+
+  private StreamingBundleWriter(FhirContext fhirContext, OutputStream outputStream,
+      PendingFile pendingFile) throws IOException {
+    this.pendingFile = pendingFile;
+    parser = fhirContext.newJsonParser();
+    writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    writer.write("{\"resourceType\":\"Bundle\",\"type\":\"collection\"");
+  }
+
+  @Override
+  public void addResource(IBaseResource resource) throws IOException {
+    // The entry element is omitted altogether from a Bundle with no entries.
+    writer.write(resourceCount == 0 ? ",\"entry\":[" : ",");
+    writer.write("{\"resource\":");
+    parser.encodeResourceToWriter(resource, writer);
+    writer.write("}");
+    resourceCount++;
+  }
+
+  public int getResourceCount() {
+    return resourceCount;
+  }
+
+  /**
+   * Completes the Bundle, and closes the underlying stream. When writing to a file, the file is
+   * then moved into place.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      try {
+        writer.write(resourceCount == 0 ? "}" : "]}");
+      } finally {
+        writer.close();
+      }
+      if (pendingFile != null) {
+        pendingFile.commit();
+      }
+    } finally {
+      if (pendingFile != null) {
+        pendingFile.discard();
+      }
+    }
+  }
+
+  /**
+   * Closes the underlying stream without completing the Bundle. When writing to a file, the file is
+   * deleted, and any existing file at the path is left as it was.
+   */
+  @Override
+  public void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writer.close();
+    } finally {
+      if (pendingFile != null) {
+        pendingFile.discard();
+      }
+    }
+  }
+
+}
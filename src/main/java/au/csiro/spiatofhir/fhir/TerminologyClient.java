@@ -18,12 +18,19 @@ package au.csiro.spiatofhir.fhir;
 
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
 import ca.uhn.fhir.rest.client.api.IBasicClient;
 import java.util.List;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CodeSystem;
 import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.IntegerType;
 import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.UriType;
+import org.hl7.fhir.r4.model.ValueSet;
 
 /**
  * Client for interacting with a FHIR terminology server.
@@ -35,6 +42,22 @@ public interface TerminologyClient extends IBasicClient {
   @Operation(name = "$lookup", type = CodeSystem.class)
   Parameters lookup(@OperationParam(name = "system") UriType system,
       @OperationParam(name = "code") CodeType code,
+      @OperationParam(name = "version") StringType version,
       @OperationParam(name = "property") List<CodeType> property);
 
+  /**
+   * Expands a ValueSet that is supplied inline, rather than referenced by URL.
+   */
+  @Operation(name = "$expand", type = ValueSet.class)
+  ValueSet expand(@OperationParam(name = "valueSet") ValueSet valueSet,
+      @OperationParam(name = "activeOnly") BooleanType activeOnly,
+      @OperationParam(name = "count") IntegerType count);
+
+  /**
+   * Submits a `batch` or `transaction` Bundle to the base endpoint of the server, and returns the
+   * response Bundle.
+   */
+  @Transaction
+  Bundle batch(@TransactionParam Bundle bundle);
+
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A CodeSystem that is defined in its entirety, along with the ValueSet that includes all of its
+ * concepts.
+ *
+ * @author John Grimes
+ */
+public class CodeSystemNode extends ResourceNode {
+
+  private final String valueSet;
+  private final List<ConceptDefinitionNode> concepts;
+
+  public CodeSystemNode(String id, String url, String oid, String name, String title,
+      String description, Date date, String valueSet, List<ConceptDefinitionNode> concepts) {
+    super(id, url, oid, name, title, description, date);
+    this.valueSet = valueSet;
+    this.concepts = concepts;
+  }
+
+  public String getValueSet() {
+    return valueSet;
+  }
+
+  public List<ConceptDefinitionNode> getConcepts() {
+    return concepts;
+  }
+
+}
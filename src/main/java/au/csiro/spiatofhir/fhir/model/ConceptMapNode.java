@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A ConceptMap with a single group, which maps codes from one code system to those of another.
+ * Each of the mappings indicates that the target is related to the source, which is expressed
+ * differently by each version of FHIR.
+ *
+ * @author John Grimes
+ */
+public class ConceptMapNode extends ResourceNode {
+
+  private final String purpose;
+  private final String sourceValueSet;
+  private final String targetValueSet;
+  private final String sourceSystem;
+  private final String targetSystem;
+  private final List<MappingNode> mappings;
+
+  public ConceptMapNode(String id, String url, String oid, String name, String title,
+      String description, Date date, String purpose, String sourceValueSet, String targetValueSet,
+      String sourceSystem, String targetSystem, List<MappingNode> mappings) {
+    super(id, url, oid, name, title, description, date);
+    this.purpose = purpose;
+    this.sourceValueSet = sourceValueSet;
+    this.targetValueSet = targetValueSet;
+    this.sourceSystem = sourceSystem;
+    this.targetSystem = targetSystem;
+    this.mappings = mappings;
+  }
+
+  public String getPurpose() {
+    return purpose;
+  }
+
+  public String getSourceValueSet() {
+    return sourceValueSet;
+  }
+
+  public String getTargetValueSet() {
+    return targetValueSet;
+  }
+
+  public String getSourceSystem() {
+    return sourceSystem;
+  }
+
+  public String getTargetSystem() {
+    return targetSystem;
+  }
+
+  public List<MappingNode> getMappings() {
+    return mappings;
+  }
+
+}
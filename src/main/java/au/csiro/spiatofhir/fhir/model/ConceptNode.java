@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import java.util.List;
+
+/**
+ * A concept included within a ValueSet, along with its display term and designations.
+ *
+ * @author John Grimes
+ */
+public class ConceptNode {
+
+  private final String code;
+  private final String display;
+  private final List<DesignationNode> designations;
+
+  public ConceptNode(String code, String display, List<DesignationNode> designations) {
+    this.code = code;
+    this.display = display;
+    this.designations = designations;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getDisplay() {
+    return display;
+  }
+
+  public List<DesignationNode> getDesignations() {
+    return designations;
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+/**
+ * An additional representation of a concept, such as a synonym, along with a coding that describes
+ * how it is to be used.
+ *
+ * @author John Grimes
+ */
+public class DesignationNode {
+
+  private final String value;
+  private final String useSystem;
+  private final String useCode;
+  private final String useDisplay;
+
+  public DesignationNode(String value, String useSystem, String useCode, String useDisplay) {
+    this.value = value;
+    this.useSystem = useSystem;
+    this.useCode = useCode;
+    this.useDisplay = useDisplay;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public String getUseSystem() {
+    return useSystem;
+  }
+
+  public String getUseCode() {
+    return useCode;
+  }
+
+  public String getUseDisplay() {
+    return useDisplay;
+  }
+
+}
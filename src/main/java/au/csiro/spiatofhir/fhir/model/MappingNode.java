@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 Australian e-Health Research Centre, CSIRO
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -14,28 +14,31 @@
  * limitations under the License.
  */
 
-package au.csiro.spiatofhir.fhir.stu3;
+package au.csiro.spiatofhir.fhir.model;
 
-import au.csiro.spiatofhir.fhir.FhirResource;
-import au.csiro.spiatofhir.spia.Refset;
-import java.util.Date;
-import org.hl7.fhir.dstu3.model.Resource;
+import java.util.List;
 
 /**
+ * A source code within a ConceptMap, along with the target codes that it is related to.
+ *
  * @author John Grimes
  */
-public abstract class Stu3Resource extends FhirResource {
+public class MappingNode {
 
-  private final Date publicationDate;
+  private final String code;
+  private final List<String> targetCodes;
 
-  public Stu3Resource(Date publicationDate) {
-    this.publicationDate = publicationDate;
+  public MappingNode(String code, List<String> targetCodes) {
+    this.code = code;
+    this.targetCodes = targetCodes;
   }
 
-  public abstract Resource transform(Refset refset);
+  public String getCode() {
+    return code;
+  }
 
-  public Date getPublicationDate() {
-    return publicationDate;
+  public List<String> getTargetCodes() {
+    return targetCodes;
   }
- 
+
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Turns the version-neutral description of a terminology resource into a resource of a specific
+ * version of FHIR.
+ *
+ * @author John Grimes
+ */
+public interface ResourceEmitter<T extends IBaseResource> {
+
+  T emit(ResourceNode node);
+
+}
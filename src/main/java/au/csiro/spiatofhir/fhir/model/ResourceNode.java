@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import au.csiro.spiatofhir.fhir.FhirResource;
+import au.csiro.spiatofhir.utils.Markdown;
+import java.util.Date;
+
+/**
+ * A terminology resource, described independently of any version of FHIR. Each FHIR version has an
+ * emitter that turns these descriptions into resources of that version.
+ * <p>
+ * The elements that are common to all of the resources (such as the publisher, copyright and
+ * jurisdiction) are not held within the model, and are added by the emitters.
+ *
+ * @author John Grimes
+ */
+public abstract class ResourceNode {
+
+  private final String id;
+  private final String url;
+  private final String oid;
+  private final String name;
+  private final String title;
+  private final String description;
+  private final Date date;
+
+  ResourceNode(String id, String url, String oid, String name, String title, String description,
+      Date date) {
+    this.id = id;
+    this.url = url;
+    this.oid = oid;
+    this.name = name;
+    this.title = title;
+    this.description = description;
+    this.date = date;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getVersion() {
+    return FhirResource.VERSION;
+  }
+
+  /**
+   * Returns the OID of the resource, in the form of a URI.
+   */
+  public String getOidUri() {
+    return "urn:oid:" + oid;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public Date getDate() {
+    return date;
+  }
+
+  /**
+   * Returns the XHTML used for the narrative of the resource, made up of the title and the
+   * description.
+   */
+  public String getNarrative() {
+    return "<div><h1>" + title + "</h1>" + Markdown.toHtml(description) + "</div>";
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import au.csiro.spiatofhir.fhir.ChemicalCombiningResultsMap;
+import au.csiro.spiatofhir.fhir.ChemicalPathologyUnitMap;
+import au.csiro.spiatofhir.fhir.ChemicalPathologyValueSet;
+import au.csiro.spiatofhir.fhir.CombiningResultsCodeSystem;
+import au.csiro.spiatofhir.fhir.HaematologyUnitMap;
+import au.csiro.spiatofhir.fhir.HaematologyValueSet;
+import au.csiro.spiatofhir.fhir.ImmunopathologyUnitMap;
+import au.csiro.spiatofhir.fhir.ImmunopathologyValueSet;
+import au.csiro.spiatofhir.fhir.MicrobiologySerologyMolecularUnitMap;
+import au.csiro.spiatofhir.fhir.MicrobiologySerologyMolecularValueSet;
+import au.csiro.spiatofhir.fhir.MicrobiologySubsetOfOrganismsValueSet;
+import au.csiro.spiatofhir.fhir.PreferredUnitsValueSet;
+import au.csiro.spiatofhir.fhir.RequestingValueSet;
+import au.csiro.spiatofhir.fhir.SpiaValueSet;
+import au.csiro.spiatofhir.loinc.Loinc;
+import au.csiro.spiatofhir.snomed.SnomedCt;
+import au.csiro.spiatofhir.spia.Refset;
+import au.csiro.spiatofhir.spia.RefsetEntry;
+import au.csiro.spiatofhir.spia.SpiaDistribution;
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.ucum.Ucum;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the version-neutral description of the terminology resources within the SPIA
+ * distribution, which can then be emitted as resources of any of the supported versions of FHIR.
+ *
+ * @author John Grimes
+ */
+public class TerminologyModelBuilder {
+
+  private final Date publicationDate;
+
+  public TerminologyModelBuilder(Date publicationDate) {
+    this.publicationDate = publicationDate;
+  }
+
+  /**
+   * Builds all of the resources within the distribution, in the order in which they appear within
+   * the Bundle: the ValueSets and ConceptMaps for each reference set, followed by the combining
+   * results flag CodeSystem.
+   */
+  public List<ResourceNode> build(SpiaDistribution spiaDistribution) {
+    Map<DistributionEntry, Refset> refsets = spiaDistribution.getRefsets();
+    List<ResourceNode> nodes = new ArrayList<>();
+    for (DistributionEntry entry : refsets.keySet()) {
+      nodes.addAll(build(entry, refsets.get(entry)));
+    }
+    nodes.add(buildCombiningResultsCodeSystem());
+    return nodes;
+  }
+
+  /**
+   * Builds the ValueSets and ConceptMaps that are generated from a single reference set.
+   */
+  public List<ResourceNode> build(DistributionEntry entry, Refset refset) {
+    List<RefsetEntry> entries = refset.getRefsetEntries();
+    List<ResourceNode> nodes = new ArrayList<>();
+    switch (entry) {
+      case REQUESTING:
+        nodes.add(new ValueSetNode(RequestingValueSet.ID, RequestingValueSet.URL,
+            RequestingValueSet.OID, RequestingValueSet.NAME, RequestingValueSet.TITLE,
+            RequestingValueSet.DESCRIPTION, publicationDate, SnomedCt.SYSTEM_URI,
+            buildConcepts(entries)));
+        break;
+      case CHEMICAL:
+        nodes.add(new ValueSetNode(ChemicalPathologyValueSet.ID, ChemicalPathologyValueSet.URL,
+            ChemicalPathologyValueSet.OID, ChemicalPathologyValueSet.NAME,
+            ChemicalPathologyValueSet.TITLE, ChemicalPathologyValueSet.DESCRIPTION,
+            publicationDate, Loinc.SYSTEM_URI, buildConcepts(entries)));
+        nodes.add(new ConceptMapNode(ChemicalPathologyUnitMap.ID, ChemicalPathologyUnitMap.URL,
+            ChemicalPathologyUnitMap.OID, ChemicalPathologyUnitMap.NAME,
+            ChemicalPathologyUnitMap.TITLE, ChemicalPathologyUnitMap.DESCRIPTION,
+            publicationDate, ChemicalPathologyUnitMap.PURPOSE, ChemicalPathologyValueSet.URL,
+            PreferredUnitsValueSet.URL, Loinc.SYSTEM_URI, Ucum.SYSTEM_URI,
+            buildUnitMappings(entries)));
+        nodes.add(new ConceptMapNode(ChemicalCombiningResultsMap.ID,
+            ChemicalCombiningResultsMap.URL, ChemicalCombiningResultsMap.OID,
+            ChemicalCombiningResultsMap.NAME, ChemicalCombiningResultsMap.TITLE,
+            ChemicalCombiningResultsMap.DESCRIPTION, publicationDate,
+            ChemicalCombiningResultsMap.PURPOSE, ChemicalPathologyValueSet.URL,
+            CombiningResultsCodeSystem.VALUESET_URL, Loinc.SYSTEM_URI,
+            CombiningResultsCodeSystem.URL, buildCombiningResultsFlagMappings(entries)));
+        break;
+      case HAEMATOLOGY:
+        nodes.add(new ValueSetNode(HaematologyValueSet.ID, HaematologyValueSet.URL,
+            HaematologyValueSet.OID, HaematologyValueSet.NAME, HaematologyValueSet.TITLE,
+            HaematologyValueSet.DESCRIPTION, publicationDate, Loinc.SYSTEM_URI,
+            buildConcepts(entries)));
+        nodes.add(new ConceptMapNode(HaematologyUnitMap.ID, HaematologyUnitMap.URL,
+            HaematologyUnitMap.OID, HaematologyUnitMap.NAME, HaematologyUnitMap.TITLE,
+            HaematologyUnitMap.DESCRIPTION, publicationDate, HaematologyUnitMap.PURPOSE,
+            HaematologyValueSet.URL, PreferredUnitsValueSet.URL, Loinc.SYSTEM_URI,
+            Ucum.SYSTEM_URI, buildUnitMappings(entries)));
+        break;
+      case IMMUNOPATHOLOGY:
+        nodes.add(new ValueSetNode(ImmunopathologyValueSet.ID, ImmunopathologyValueSet.URL,
+            ImmunopathologyValueSet.OID, ImmunopathologyValueSet.NAME,
+            ImmunopathologyValueSet.TITLE, ImmunopathologyValueSet.DESCRIPTION, publicationDate,
+            Loinc.SYSTEM_URI, buildConcepts(entries)));
+        nodes.add(new ConceptMapNode(ImmunopathologyUnitMap.ID, ImmunopathologyUnitMap.URL,
+            ImmunopathologyUnitMap.OID, ImmunopathologyUnitMap.NAME, ImmunopathologyUnitMap.TITLE,
+            ImmunopathologyUnitMap.DESCRIPTION, publicationDate, ImmunopathologyUnitMap.PURPOSE,
+            ImmunopathologyValueSet.URL, PreferredUnitsValueSet.URL, Loinc.SYSTEM_URI,
+            Ucum.SYSTEM_URI, buildUnitMappings(entries)));
+        break;
+      case MICROBIOLOGY_SEROLOGY_MOLECULAR:
+        nodes.add(new ValueSetNode(MicrobiologySerologyMolecularValueSet.ID,
+            MicrobiologySerologyMolecularValueSet.URL, MicrobiologySerologyMolecularValueSet.OID,
+            MicrobiologySerologyMolecularValueSet.NAME,
+            MicrobiologySerologyMolecularValueSet.TITLE,
+            MicrobiologySerologyMolecularValueSet.DESCRIPTION, publicationDate, Loinc.SYSTEM_URI,
+            buildConcepts(entries)));
+        nodes.add(new ConceptMapNode(MicrobiologySerologyMolecularUnitMap.ID,
+            MicrobiologySerologyMolecularUnitMap.URL, MicrobiologySerologyMolecularUnitMap.OID,
+            MicrobiologySerologyMolecularUnitMap.NAME, MicrobiologySerologyMolecularUnitMap.TITLE,
+            MicrobiologySerologyMolecularUnitMap.DESCRIPTION, publicationDate,
+            MicrobiologySerologyMolecularUnitMap.PURPOSE,
+            MicrobiologySerologyMolecularValueSet.URL, PreferredUnitsValueSet.URL,
+            Loinc.SYSTEM_URI, Ucum.SYSTEM_URI, buildUnitMappings(entries)));
+        break;
+      case MICROBIOLOGY_ORGANISMS:
+        nodes.add(new ValueSetNode(MicrobiologySubsetOfOrganismsValueSet.ID,
+            MicrobiologySubsetOfOrganismsValueSet.URL, MicrobiologySubsetOfOrganismsValueSet.OID,
+            MicrobiologySubsetOfOrganismsValueSet.NAME,
+            MicrobiologySubsetOfOrganismsValueSet.TITLE,
+            MicrobiologySubsetOfOrganismsValueSet.DESCRIPTION, publicationDate,
+            SnomedCt.SYSTEM_URI, buildConcepts(entries)));
+        break;
+      case PREFERRED_UNITS:
+        nodes.add(new ValueSetNode(PreferredUnitsValueSet.ID, PreferredUnitsValueSet.URL,
+            PreferredUnitsValueSet.OID, PreferredUnitsValueSet.NAME, PreferredUnitsValueSet.TITLE,
+            PreferredUnitsValueSet.DESCRIPTION, publicationDate, Ucum.SYSTEM_URI,
+            buildConcepts(entries)));
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported distribution entry: " + entry);
+    }
+    return nodes;
+  }
+
+  /**
+   * Builds the combining results flag CodeSystem, which does not depend on any reference set.
+   */
+  public CodeSystemNode buildCombiningResultsCodeSystem() {
+    List<ConceptDefinitionNode> concepts = new ArrayList<>();
+    concepts.add(new ConceptDefinitionNode("red", "Red",
+        "This test is known to be unsafe to make comparisons"));
+    concepts.add(new ConceptDefinitionNode("orange", "Orange",
+        "This test has either not yet been considered or there is uncertainty around comparisons"));
+    concepts.add(new ConceptDefinitionNode("green", "Green",
+        "This test is considered safe to combine if harmonised"));
+    return new CodeSystemNode(CombiningResultsCodeSystem.ID, CombiningResultsCodeSystem.URL,
+        CombiningResultsCodeSystem.OID, CombiningResultsCodeSystem.NAME,
+        CombiningResultsCodeSystem.TITLE, CombiningResultsCodeSystem.DESCRIPTION,
+        publicationDate, CombiningResultsCodeSystem.VALUESET_URL, concepts);
+  }
+
+  /**
+   * Builds the concepts included within a ValueSet. Entries without a code are omitted.
+   */
+  private static List<ConceptNode> buildConcepts(List<RefsetEntry> refsetEntries) {
+    List<ConceptNode> concepts = new ArrayList<>();
+    for (RefsetEntry entry : refsetEntries) {
+      if (entry.getCode() == null) {
+        continue;
+      }
+      // RCPA preferred term is used as the display term within the ValueSet definition, and the
+      // RCPA synonyms are added as designations, coded with the SNOMED code
+      // 900000000000013009|Synonym.
+      List<DesignationNode> designations = new ArrayList<>();
+      for (String rcpaSynonym : entry.getRcpaSynonyms()) {
+        designations.add(new DesignationNode(rcpaSynonym, SnomedCt.SYSTEM_URI,
+            SpiaValueSet.SYNONYM_CODE, SpiaValueSet.SYNONYM_DISPLAY));
+      }
+      concepts.add(new ConceptNode(entry.getCode(), entry.getRcpaPreferredTerm(), designations));
+    }
+    return concepts;
+  }
+
+  /**
+   * Builds the mappings from each code to its preferred units. Entries without units are omitted.
+   */
+  private static List<MappingNode> buildUnitMappings(List<RefsetEntry> refsetEntries) {
+    List<MappingNode> mappings = new ArrayList<>();
+    for (RefsetEntry entry : refsetEntries) {
+      assert entry.getCode() != null;
+      if (entry.getUnitCodes().isEmpty()) {
+        continue;
+      }
+      mappings.add(new MappingNode(entry.getCode(), new ArrayList<>(entry.getUnitCodes())));
+    }
+    return mappings;
+  }
+
+  /**
+   * Builds the mappings from each code to its combining results flag. Entries without a flag are
+   * omitted.
+   */
+  private static List<MappingNode> buildCombiningResultsFlagMappings(
+      List<RefsetEntry> refsetEntries) {
+    List<MappingNode> mappings = new ArrayList<>();
+    for (RefsetEntry entry : refsetEntries) {
+      assert entry.getCode() != null;
+      if (entry.getCombiningResultsFlag() == null) {
+        continue;
+      }
+      mappings.add(new MappingNode(entry.getCode(),
+          Collections.singletonList(entry.getCombiningResultsFlag().getCode())));
+    }
+    return mappings;
+  }
+
+}
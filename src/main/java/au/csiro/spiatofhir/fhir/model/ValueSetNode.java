@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A ValueSet that includes an enumerated list of concepts from a single code system.
+ *
+ * @author John Grimes
+ */
+public class ValueSetNode extends ResourceNode {
+
+  private final String system;
+  private final List<ConceptNode> concepts;
+
+  public ValueSetNode(String id, String url, String oid, String name, String title,
+      String description, Date date, String system, List<ConceptNode> concepts) {
+    super(id, url, oid, name, title, description, date);
+    this.system = system;
+    this.concepts = concepts;
+  }
+
+  public String getSystem() {
+    return system;
+  }
+
+  public List<ConceptNode> getConcepts() {
+    return concepts;
+  }
+
+}
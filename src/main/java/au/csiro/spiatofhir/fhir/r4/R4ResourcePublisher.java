@@ -0,0 +1,373 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.r4;
+
+import au.csiro.spiatofhir.fhir.ResourceWriter;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes FHIR R4 resources to a FHIR server, using a PUT of each resource to its stable id.
+ * <p>
+ * Nothing is sent to the server until the publisher is closed, so that the resources are only
+ * published once the whole run has succeeded. Until then, the resources are spooled to a temporary
+ * file rather than held in memory. If the publisher is aborted instead, the spooled resources are
+ * discarded.
+ * <p>
+ * Resources are grouped into transaction Bundles, each of which is limited in both the number of
+ * entries and the size of the request, and a bounded number of these are sent concurrently.
+ * <p>
+ * Each resource is tagged with a hash of its content. Before a transaction is sent, the current
+ * versions of its resources are retrieved from the server, and any resources with the same hash
+ * are left out. The remaining updates are made conditional on the version that was retrieved, so
+ * that a resource that is changed by someone else in the meantime is not overwritten.
+ *
+ * @author John Grimes
+ */
+public class R4ResourcePublisher implements ResourceWriter {
+
+  public static final String CONTENT_HASH_SYSTEM =
+      "https://github.com/aehrc/spia-to-fhir/content-hash";
+  private static final Logger logger = LoggerFactory.getLogger(R4ResourcePublisher.class);
+  private final FhirContext fhirContext;
+  private final IGenericClient client;
+  private final String serverUrl;
+  private final int maxEntries;
+  private final long maxRequestBytes;
+  private final ExecutorService executor;
+  // Limits the number of transactions that are in flight or waiting to be sent, so that the
+  // resources read back from the spool do not accumulate in memory.
+  private final Semaphore inFlight;
+  private final Path spoolFile;
+  private final Writer spool;
+  private final List<Future<?>> results = new ArrayList<>();
+  private final AtomicInteger updated = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private List<Resource> pending = new ArrayList<>();
+  private long pendingBytes = 0;
+  private boolean closed = false;
+
+  /**
+   * @param concurrency the maximum number of transactions sent to the server at the same time
+   * @param maxEntries the maximum number of resources within each transaction
+   * @param maxRequestBytes the maximum size of each transaction request, which is only exceeded by
+   * a transaction containing a single resource that is too large to fit within it
+   */
+  public R4ResourcePublisher(FhirContext fhirContext, String serverUrl, int concurrency,
+      int maxEntries, long maxRequestBytes) throws IOException {
+    if (concurrency < 1 || maxEntries < 1 || maxRequestBytes < 1) {
+      throw new IllegalArgumentException(
+          "Concurrency, maximum entries and maximum request size must be at least 1");
+    }
+    this.fhirContext = fhirContext;
+    this.serverUrl = serverUrl;
+    this.maxEntries = maxEntries;
+    this.maxRequestBytes = maxRequestBytes;
+    IRestfulClientFactory clientFactory = fhirContext.getRestfulClientFactory();
+    clientFactory.setPoolMaxPerRoute(Math.max(clientFactory.getPoolMaxPerRoute(), concurrency));
+    client = fhirContext.newRestfulGenericClient(serverUrl);
+    spoolFile = Files.createTempFile("spia-publish", ".ndjson");
+    spool = Files.newBufferedWriter(spoolFile, StandardCharsets.UTF_8);
+    executor = Executors.newFixedThreadPool(concurrency);
+    inFlight = new Semaphore(concurrency);
+  }
+
+  /**
+   * Tags the resource with a hash of its content, and adds it to the spool.
+   */
+  @Override
+  public void addResource(IBaseResource resource) throws IOException {
+    Resource tagged = ((Resource) resource).copy();
+    tagged.getMeta().addTag(CONTENT_HASH_SYSTEM, hash(encodeContent(tagged)), null);
+    // The compact JSON encoding never contains a line break, as any within strings are escaped.
+    spool.write(fhirContext.newJsonParser().encodeResourceToString(tagged));
+    spool.write('\n');
+  }
+
+  public int getUpdatedCount() {
+    return updated.get();
+  }
+
+  public int getUnchangedCount() {
+    return unchanged.get();
+  }
+
+  /**
+   * Publishes the spooled resources, and waits for all of the transactions to complete.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      spool.close();
+      IParser parser = fhirContext.newJsonParser();
+      try (BufferedReader reader = Files.newBufferedReader(spoolFile, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          Resource resource = (Resource) parser.parseResource(line);
+          long size = measureEntry(resource, line);
+          if (!pending.isEmpty() && (pending.size() >= maxEntries
+              || pendingBytes + size > maxRequestBytes)) {
+            flush();
+          }
+          pending.add(resource);
+          pendingBytes += size;
+        }
+      }
+      if (!pending.isEmpty()) {
+        flush();
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+      logger.info("Published " + updated.get() + " resources to " + serverUrl + ", "
+          + unchanged.get() + " were unchanged");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Error publishing resources to " + serverUrl, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while publishing resources to " + serverUrl, e);
+    } finally {
+      executor.shutdownNow();
+      Files.deleteIfExists(spoolFile);
+    }
+  }
+
+  /**
+   * Discards the spooled resources without publishing any of them.
+   */
+  @Override
+  public void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdownNow();
+    try {
+      spool.close();
+    } finally {
+      Files.deleteIfExists(spoolFile);
+    }
+  }
+
+  private void flush() throws IOException {
+    List<Resource> chunk = pending;
+    pending = new ArrayList<>();
+    pendingBytes = 0;
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while publishing resources to " + serverUrl, e);
+    }
+    try {
+      results.add(executor.submit(() -> {
+        try {
+          publish(chunk);
+        } finally {
+          inFlight.release();
+        }
+      }));
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  private void publish(List<Resource> chunk) {
+    Map<String, Resource> current = getCurrentVersions(chunk);
+    List<BundleEntryComponent> entries = new ArrayList<>();
+    for (Resource resource : chunk) {
+      String reference = reference(resource);
+      Resource existing = current.get(reference);
+      if (existing != null && contentHash(existing) != null
+          && contentHash(existing).equals(contentHash(resource))) {
+        unchanged.incrementAndGet();
+        continue;
+      }
+      BundleEntryComponent entry = newEntry(resource);
+      if (existing != null && existing.getMeta().hasVersionId()) {
+        entry.getRequest().setIfMatch("W/\"" + existing.getMeta().getVersionId() + "\"");
+      }
+      entries.add(entry);
+    }
+    send(entries);
+  }
+
+  /**
+   * Sends the entries as a transaction. If the encoded transaction turns out to be larger than the
+   * maximum request size, e.g. due to the If-Match preconditions that were added to it, it is split
+   * in two.
+   */
+  private void send(List<BundleEntryComponent> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    String transaction = fhirContext.newJsonParser()
+        .encodeResourceToString(newTransaction(entries));
+    if (entries.size() > 1
+        && transaction.getBytes(StandardCharsets.UTF_8).length > maxRequestBytes) {
+      int half = entries.size() / 2;
+      send(entries.subList(0, half));
+      send(entries.subList(half, entries.size()));
+      return;
+    }
+    client.transaction().withBundle(transaction).execute();
+    updated.addAndGet(entries.size());
+  }
+
+  /**
+   * Returns the number of bytes that the resource adds to a transaction, along with the entry that
+   * contains it. This leaves out any If-Match precondition, which is not known until the
+   * transaction is sent, but includes the envelope of the Bundle, so that it errs on the side of
+   * overestimating.
+   */
+  private long measureEntry(Resource resource, String json) {
+    BundleEntryComponent entry = newEntry(resource).setResource(null);
+    String envelope = fhirContext.newJsonParser()
+        .encodeResourceToString(newTransaction(Collections.singletonList(entry)));
+    return envelope.getBytes(StandardCharsets.UTF_8).length
+        + json.getBytes(StandardCharsets.UTF_8).length + ",\"resource\":".length();
+  }
+
+  private BundleEntryComponent newEntry(Resource resource) {
+    String reference = reference(resource);
+    BundleEntryComponent entry = new BundleEntryComponent();
+    entry.setFullUrl(serverUrl + "/" + reference);
+    entry.setResource(resource);
+    entry.getRequest().setMethod(HTTPVerb.PUT).setUrl(reference);
+    return entry;
+  }
+
+  private static Bundle newTransaction(List<BundleEntryComponent> entries) {
+    Bundle transaction = new Bundle();
+    transaction.setType(BundleType.TRANSACTION);
+    entries.forEach(transaction::addEntry);
+    return transaction;
+  }
+
+  /**
+   * Retrieves the current version of each of the resources from the server, keyed by reference.
+   * Only the metadata of the resources is requested, and any further pages of results are
+   * followed.
+   */
+  private Map<String, Resource> getCurrentVersions(List<Resource> resources) {
+    Map<String, List<String>> idsByType = new LinkedHashMap<>();
+    for (Resource resource : resources) {
+      idsByType.computeIfAbsent(resource.fhirType(), type -> new ArrayList<>())
+          .add(resource.getIdElement().getIdPart());
+    }
+    Map<String, Resource> current = new HashMap<>();
+    for (String type : idsByType.keySet()) {
+      List<String> ids = idsByType.get(type);
+      Bundle page = client.search()
+          .forResource(type)
+          .where(Resource.RES_ID.exactly().codes(ids))
+          .elementsSubset("meta")
+          .count(ids.size())
+          .returnBundle(Bundle.class)
+          .execute();
+      while (true) {
+        for (BundleEntryComponent entry : page.getEntry()) {
+          current.put(reference(entry.getResource()), entry.getResource());
+        }
+        if (page.getLink(Bundle.LINK_NEXT) == null) {
+          break;
+        }
+        page = client.loadPage().next(page).execute();
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Encodes the resource without its metadata, so that the hash is not affected by the version
+   * information that the server adds.
+   */
+  private String encodeContent(Resource resource) {
+    Resource content = resource.copy();
+    content.setMeta(null);
+    IParser parser = fhirContext.newJsonParser();
+    return parser.encodeResourceToString(content);
+  }
+
+  private static String contentHash(Resource resource) {
+    for (Coding coding : resource.getMeta().getTag()) {
+      if (CONTENT_HASH_SYSTEM.equals(coding.getSystem())) {
+        return coding.getCode();
+      }
+    }
+    return null;
+  }
+
+  private static String reference(Resource resource) {
+    return resource.fhirType() + "/" + resource.getIdElement().getIdPart();
+  }
+
+  private static String hash(String json) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(json.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+}
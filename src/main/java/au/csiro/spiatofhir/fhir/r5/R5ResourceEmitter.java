@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.r5;
+
+import au.csiro.spiatofhir.fhir.CombiningResultsCodeSystem;
+import au.csiro.spiatofhir.fhir.FhirResource;
+import au.csiro.spiatofhir.fhir.SpiaValueSet;
+import au.csiro.spiatofhir.fhir.model.CodeSystemNode;
+import au.csiro.spiatofhir.fhir.model.ConceptDefinitionNode;
+import au.csiro.spiatofhir.fhir.model.ConceptMapNode;
+import au.csiro.spiatofhir.fhir.model.ConceptNode;
+import au.csiro.spiatofhir.fhir.model.DesignationNode;
+import au.csiro.spiatofhir.fhir.model.MappingNode;
+import au.csiro.spiatofhir.fhir.model.ResourceEmitter;
+import au.csiro.spiatofhir.fhir.model.ResourceNode;
+import au.csiro.spiatofhir.fhir.model.ValueSetNode;
+import java.util.List;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.CanonicalType;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ConceptMap;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r5.model.ConceptMap.SourceElementComponent;
+import org.hl7.fhir.r5.model.ConceptMap.TargetElementComponent;
+import org.hl7.fhir.r5.model.ContactDetail;
+import org.hl7.fhir.r5.model.ContactPoint;
+import org.hl7.fhir.r5.model.ContactPoint.ContactPointSystem;
+import org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.Identifier;
+import org.hl7.fhir.r5.model.Meta;
+import org.hl7.fhir.r5.model.Narrative;
+import org.hl7.fhir.r5.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.UriType;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.r5.model.ValueSet.ConceptReferenceDesignationComponent;
+import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.utilities.xhtml.NodeType;
+import org.hl7.fhir.utilities.xhtml.XhtmlNode;
+
+/**
+ * Emits the terminology resources within the SPIA distribution as FHIR R5 resources.
+ * <p>
+ * The NCTS profiles are only published for STU3 and R4, so the resources only declare
+ * conformance to the shareable profiles within the core specification.
+ *
+ * @author John Grimes
+ */
+public class R5ResourceEmitter implements ResourceEmitter<Resource> {
+
+  @Override
+  public Resource emit(ResourceNode node) {
+    if (node instanceof ValueSetNode) {
+      return emitValueSet((ValueSetNode) node);
+    } else if (node instanceof ConceptMapNode) {
+      return emitConceptMap((ConceptMapNode) node);
+    } else if (node instanceof CodeSystemNode) {
+      return emitCodeSystem((CodeSystemNode) node);
+    } else {
+      throw new IllegalArgumentException("Unsupported resource: " + node.getClass().getName());
+    }
+  }
+
+  private ValueSet emitValueSet(ValueSetNode node) {
+    ValueSet valueSet = new ValueSet();
+    addCommonElements(valueSet, node, SpiaValueSet.SHAREABLE_PROFILE_URL);
+
+    ConceptSetComponent include = new ConceptSetComponent();
+    if (!node.getConcepts().isEmpty()) {
+      include.setSystem(node.getSystem());
+    }
+    for (ConceptNode concept : node.getConcepts()) {
+      ConceptReferenceComponent conceptEntry = include.addConcept();
+      conceptEntry.setCode(concept.getCode());
+      conceptEntry.setDisplay(concept.getDisplay());
+      for (DesignationNode designation : concept.getDesignations()) {
+        ConceptReferenceDesignationComponent designationEntry = conceptEntry.addDesignation();
+        designationEntry.setValue(designation.getValue());
+        designationEntry.setUse(new Coding(designation.getUseSystem(), designation.getUseCode(),
+            designation.getUseDisplay()));
+      }
+    }
+    valueSet.getCompose().addInclude(include);
+
+    return valueSet;
+  }
+
+  private ConceptMap emitConceptMap(ConceptMapNode node) {
+    ConceptMap conceptMap = new ConceptMap();
+    addCommonElements(conceptMap, node);
+    conceptMap.setPurpose(node.getPurpose());
+    conceptMap.setSource(new UriType(node.getSourceValueSet()));
+    conceptMap.setTarget(new UriType(node.getTargetValueSet()));
+
+    ConceptMapGroupComponent group = conceptMap.addGroup();
+    group.setSource(node.getSourceSystem());
+    group.setTarget(node.getTargetSystem());
+    for (MappingNode mapping : node.getMappings()) {
+      SourceElementComponent element = group.addElement();
+      element.setCode(mapping.getCode());
+      for (String targetCode : mapping.getTargetCodes()) {
+        TargetElementComponent target = element.addTarget();
+        target.setCode(targetCode);
+        target.setRelationship(ConceptMapRelationship.RELATEDTO);
+      }
+    }
+
+    return conceptMap;
+  }
+
+  private CodeSystem emitCodeSystem(CodeSystemNode node) {
+    CodeSystem codeSystem = new CodeSystem();
+    addCommonElements(codeSystem, node, CombiningResultsCodeSystem.SHAREABLE_PROFILE_URL);
+    codeSystem.setValueSet(node.getValueSet());
+    codeSystem.setContent(CodeSystemContentMode.COMPLETE);
+    codeSystem.setVersionNeeded(false);
+    codeSystem.setCompositional(false);
+    codeSystem.setCaseSensitive(false);
+
+    List<ConceptDefinitionNode> concepts = node.getConcepts();
+    for (ConceptDefinitionNode concept : concepts) {
+      ConceptDefinitionComponent conceptEntry = codeSystem.addConcept();
+      conceptEntry.setCode(concept.getCode());
+      conceptEntry.setDisplay(concept.getDisplay());
+      conceptEntry.setDefinition(concept.getDefinition());
+    }
+    codeSystem.setCount(concepts.size());
+
+    return codeSystem;
+  }
+
+  /**
+   * Populates the elements that are common to all of the resources.
+   */
+  private static void addCommonElements(CanonicalResource resource, ResourceNode node,
+      String... profiles) {
+    resource.setId(node.getId());
+    resource.setUrl(node.getUrl());
+    resource.setVersion(node.getVersion());
+    resource.setName(node.getName());
+    resource.setTitle(node.getTitle());
+    resource.setDescription(node.getDescription());
+    resource.setDate(node.getDate());
+    resource.addIdentifier(buildOidIdentifier(node));
+
+    if (profiles.length > 0) {
+      Meta meta = new Meta();
+      for (String profile : profiles) {
+        meta.getProfile().add(new CanonicalType(profile));
+      }
+      resource.setMeta(meta);
+    }
+    Narrative text = new Narrative();
+    text.setStatus(NarrativeStatus.GENERATED);
+    XhtmlNode div = new XhtmlNode(NodeType.Element, "div");
+    div.setValueAsString(node.getNarrative());
+    text.setDiv(div);
+    resource.setText(text);
+
+    resource.setStatus(PublicationStatus.DRAFT);
+    resource.setExperimental(true);
+    resource.setPublisher(FhirResource.PUBLISHER);
+    resource.setCopyright(FhirResource.COPYRIGHT);
+    ContactPoint contactPoint = new ContactPoint();
+    contactPoint.setSystem(ContactPointSystem.EMAIL);
+    contactPoint.setValue(FhirResource.EMAIL);
+    ContactDetail contactDetail = new ContactDetail();
+    contactDetail.addTelecom(contactPoint);
+    resource.getContact().add(contactDetail);
+    Coding jurisdictionCoding = new Coding(FhirResource.JURISDICTION_SYSTEM,
+        FhirResource.JURISDICTION_CODE, FhirResource.JURISDICTION_DISPLAY);
+    resource.getJurisdiction().add(new CodeableConcept().addCoding(jurisdictionCoding));
+  }
+
+  private static Identifier buildOidIdentifier(ResourceNode node) {
+    Identifier oid = new Identifier();
+    oid.setSystem(FhirResource.OID_SYSTEM);
+    oid.setValue(node.getOidUri());
+    return oid;
+  }
+
+}
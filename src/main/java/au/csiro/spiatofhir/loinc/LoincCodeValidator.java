@@ -16,32 +16,25 @@
 
 package au.csiro.spiatofhir.loinc;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import au.csiro.spiatofhir.utils.Strings;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.hl7.fhir.r4.model.BooleanType;
-import org.hl7.fhir.r4.model.CodeType;
-import org.hl7.fhir.r4.model.Parameters;
-import org.hl7.fhir.r4.model.UriType;
 
 /**
- * Used for validating LOINC codes using a terminology service.
+ * Used for validating LOINC codes, with the help of a source of code status information.
  *
  * @author John Grimes
  */
 public class LoincCodeValidator {
 
-  private TerminologyClient terminologyClient;
+  private CodeStatusProvider codeStatusProvider;
 
   public LoincCodeValidator() {
   }
 
-  public LoincCodeValidator(TerminologyClient terminologyClient) {
-    this.terminologyClient = terminologyClient;
+  public LoincCodeValidator(CodeStatusProvider codeStatusProvider) {
+    this.codeStatusProvider = codeStatusProvider;
   }
 
   /**
@@ -94,29 +87,7 @@ public class LoincCodeValidator {
 
 
   public boolean checkActive(String code) {
-    UriType systemParam = new UriType(Loinc.SYSTEM_URI);
-    CodeType codeParam = new CodeType(code);
-    List<CodeType> propertyParam = Collections.singletonList(new CodeType("inactive"));
-    Parameters result = terminologyClient.lookup(systemParam, codeParam, propertyParam);
-    if (result.getParameter() == null) {
-      return true;
-    }
-    Optional<Parameters.ParametersParameterComponent> parameter = result.getParameter().stream()
-        .filter(p -> {
-          boolean isProperty = p.getName().equals("property");
-          Optional<Parameters.ParametersParameterComponent> codePart = p.getPart().stream()
-              .filter(
-                  pp -> pp.getName().equals("code") && ((CodeType) pp.getValue()).asStringValue()
-                      .equals("inactive"))
-              .findFirst();
-          Optional<Parameters.ParametersParameterComponent> valuePart = p.getPart().stream()
-              .filter(pp -> pp.getName().equals("valueBoolean") && ((BooleanType) pp.getValue())
-                  .booleanValue())
-              .findFirst();
-          return isProperty && codePart.isPresent() && valuePart.isPresent();
-        })
-        .findFirst();
-    return !parameter.isPresent();
+    return codeStatusProvider.checkActive(Loinc.SYSTEM_URI, code);
   }
 
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.loinc;
+
+import au.csiro.spiatofhir.terminology.CodeStatusIndex;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds an index of code status from the LOINC table distributed with a LOINC release, either
+ * `LoincTableCore.csv` or the full `Loinc.csv`.
+ * <p>
+ * Codes with a status of `DEPRECATED` are considered inactive, all other statuses (`ACTIVE`,
+ * `TRIAL` and `DISCOURAGED`) are considered active.
+ *
+ * @author John Grimes
+ */
+public abstract class LoincTableIndex {
+
+  private static final String CODE_COLUMN = "LOINC_NUM";
+  private static final String STATUS_COLUMN = "STATUS";
+  private static final String INACTIVE_STATUS = "DEPRECATED";
+
+  /**
+   * Streams the rows of a LOINC table file into an index, one record at a time.
+   */
+  public static CodeStatusIndex read(Path tableFile) throws IOException {
+    CodeStatusIndex.Builder builder = new CodeStatusIndex.Builder();
+    try (BufferedReader reader = Files.newBufferedReader(tableFile, StandardCharsets.UTF_8)) {
+      List<String> header = readRecord(reader);
+      if (header != null && header.get(0).startsWith("\uFEFF")) {
+        // Remove any byte order mark from the first column name.
+        header.set(0, header.get(0).substring(1));
+      }
+      int codeColumn = header == null ? -1 : header.indexOf(CODE_COLUMN);
+      int statusColumn = header == null ? -1 : header.indexOf(STATUS_COLUMN);
+      if (codeColumn == -1 || statusColumn == -1) {
+        throw new IOException("File is not a LOINC table: " + tableFile);
+      }
+      List<String> record;
+      while ((record = readRecord(reader)) != null) {
+        if (record.size() <= Math.max(codeColumn, statusColumn)) {
+          continue;
+        }
+        Long key = toKey(record.get(codeColumn));
+        if (key == null) {
+          throw new IOException("Invalid LOINC number in LOINC table: " + record.get(codeColumn));
+        }
+        builder.add(key, !record.get(statusColumn).equals(INACTIVE_STATUS));
+      }
+    }
+    try {
+      return builder.build();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("LOINC table contains duplicate codes: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the index key for a LOINC number, or null if it is not of the form `12345-6`. The key
+   * is the numeric part of the code followed by its check digit.
+   */
+  public static Long toKey(String code) {
+    int separator = code.indexOf('-');
+    if (separator < 1 || separator != code.length() - 2 || separator > 15) {
+      return null;
+    }
+    long key = 0;
+    for (int i = 0; i < code.length(); i++) {
+      if (i == separator) {
+        continue;
+      }
+      char ch = code.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return null;
+      }
+      key = key * 10 + (ch - '0');
+    }
+    return key;
+  }
+
+  /**
+   * Reads a single comma-separated record, honouring quoted fields that contain commas, escaped
+   * quotes or line breaks. Returns null at the end of the input.
+   */
+  private static List<String> readRecord(BufferedReader reader) throws IOException {
+    String line = reader.readLine();
+    if (line == null) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    int i = 0;
+    while (true) {
+      if (i == line.length()) {
+        if (!quoted) {
+          break;
+        }
+        // A line break within a quoted field, carry on with the next line.
+        line = reader.readLine();
+        if (line == null) {
+          throw new IOException("Unterminated quoted field in LOINC table");
+        }
+        field.append('\n');
+        i = 0;
+        continue;
+      }
+      char ch = line.charAt(i++);
+      if (quoted) {
+        if (ch == '"') {
+          if (i < line.length() && line.charAt(i) == '"') {
+            field.append('"');
+            i++;
+          } else {
+            quoted = false;
+          }
+        } else {
+          field.append(ch);
+        }
+      } else if (ch == '"') {
+        quoted = true;
+      } else if (ch == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(ch);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+}
@@ -16,33 +16,26 @@
 
 package au.csiro.spiatofhir.snomed;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import au.csiro.spiatofhir.utils.Verhoeff;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.hl7.fhir.r4.model.BooleanType;
-import org.hl7.fhir.r4.model.CodeType;
-import org.hl7.fhir.r4.model.Parameters;
-import org.hl7.fhir.r4.model.UriType;
 
 /**
- * Used for validating SNOMED codes using a terminology service.
+ * Used for validating SNOMED codes, with the help of a source of code status information.
  *
  * @author John Grimes
  */
 public class SnomedCodeValidator {
 
-  private TerminologyClient terminologyClient;
+  private CodeStatusProvider codeStatusProvider;
 
   public SnomedCodeValidator() {
   }
 
-  public SnomedCodeValidator(TerminologyClient terminologyClient) {
-    this.terminologyClient = terminologyClient;
+  public SnomedCodeValidator(CodeStatusProvider codeStatusProvider) {
+    this.codeStatusProvider = codeStatusProvider;
   }
 
   /**
@@ -76,28 +69,6 @@ public class SnomedCodeValidator {
   }
 
   public boolean checkActive(String code) {
-    UriType systemParam = new UriType(SnomedCt.SYSTEM_URI);
-    CodeType codeParam = new CodeType(code);
-    List<CodeType> propertyParam = Collections.singletonList(new CodeType("inactive"));
-    Parameters result = terminologyClient.lookup(systemParam, codeParam, propertyParam);
-    if (result.getParameter() == null) {
-      return true;
-    }
-    Optional<Parameters.ParametersParameterComponent> parameter = result.getParameter().stream()
-        .filter(p -> {
-          boolean isProperty = p.getName().equals("property");
-          Optional<Parameters.ParametersParameterComponent> codePart = p.getPart().stream()
-              .filter(
-                  pp -> pp.getName().equals("code") && ((CodeType) pp.getValue()).asStringValue()
-                      .equals("inactive"))
-              .findFirst();
-          Optional<Parameters.ParametersParameterComponent> valuePart = p.getPart().stream()
-              .filter(pp -> pp.getName().equals("valueBoolean") && ((BooleanType) pp.getValue())
-                  .booleanValue())
-              .findFirst();
-          return isProperty && codePart.isPresent() && valuePart.isPresent();
-        })
-        .findFirst();
-    return !parameter.isPresent();
+    return codeStatusProvider.checkActive(SnomedCt.SYSTEM_URI, code);
   }
 }
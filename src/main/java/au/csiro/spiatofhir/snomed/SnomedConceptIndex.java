@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.snomed;
+
+import au.csiro.spiatofhir.terminology.CodeStatusIndex;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds an index of concept active status from the concept file within a SNOMED CT RF2 Snapshot
+ * release, e.g. `sct2_Concept_Snapshot_AU1000036_20200531.txt`.
+ *
+ * @author John Grimes
+ */
+public abstract class SnomedConceptIndex {
+
+  private static final String EXPECTED_HEADER = "id\teffectiveTime\tactive\tmoduleId\t"
+      + "definitionStatusId";
+
+  /**
+   * Streams the rows of an RF2 Snapshot concept file into an index. Each concept is expected to
+   * appear only once, as it would within a Snapshot (rather than Full) release.
+   */
+  public static CodeStatusIndex read(Path conceptFile) throws IOException {
+    CodeStatusIndex.Builder builder = new CodeStatusIndex.Builder();
+    try (BufferedReader reader = Files.newBufferedReader(conceptFile, StandardCharsets.UTF_8)) {
+      String header = reader.readLine();
+      if (header == null || !header.startsWith(EXPECTED_HEADER)) {
+        throw new IOException("File is not an RF2 concept file: " + conceptFile);
+      }
+      String line;
+      int lineNumber = 1;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] fields = line.split("\t", 4);
+        if (fields.length < 3) {
+          throw new IOException("Malformed row in RF2 concept file at line " + lineNumber);
+        }
+        try {
+          builder.add(Long.parseLong(fields[0]), fields[2].equals("1"));
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid concept id in RF2 concept file at line " + lineNumber, e);
+        }
+      }
+    }
+    try {
+      return builder.build();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("RF2 concept file is not a Snapshot: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the index key for a SNOMED CT concept id, or null if it is not numeric.
+   */
+  public static Long toKey(String code) {
+    try {
+      return Long.parseLong(code);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+}
@@ -16,13 +16,11 @@
 
 package au.csiro.spiatofhir.spia;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.loinc.Loinc;
 import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
-import java.util.ArrayList;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import java.util.Set;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
+import java.util.function.IntPredicate;
 import org.fhir.ucum.UcumService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,66 +35,66 @@ public class ChemicalPathologyRefset extends Refset {
       {"RCPA Preferred term", "RCPA Synonyms", "Usage guidance", "Subgroup_1", "Subgroup_2",
           "Length", "Specimen", "Unit", "UCUM", "LOINC", "Component", "Property", "Timing",
           "System", "Scale", "Method", "LongName", "Combining Results Flag", "Version", "History"};
-  private static final String SHEET_NAME = "Chemical Pathology Terms v3.1";
+  static final String SHEET_NAME = "Chemical Pathology Terms v3.1";
+  static final int CODE_COLUMN = 9;
+  // Skips the "Therapeutic Drugs" header row.
+  static final IntPredicate SKIPPED_ROWS = rowNum -> rowNum == 203;
 
-  public ChemicalPathologyRefset(Workbook workbook,
-      TerminologyClient terminologyClient, UcumService ucumService) throws ValidationException {
-    super(workbook, terminologyClient, ucumService);
+  public ChemicalPathologyRefset(SheetSource sheetSource,
+      CodeStatusProvider codeStatusProvider, UcumService ucumService) throws ValidationException {
+    super(sheetSource, codeStatusProvider, ucumService);
   }
 
   @Override
   protected void parse() throws ValidationException {
-    Sheet sheet = workbook.getSheet(SHEET_NAME);
-    if (sheet == null) {
-      throw new ValidationException("Sheet not found: " + SHEET_NAME);
-    }
-    refsetEntries = new ArrayList<>();
-    for (Row row : sheet) {
-      // Check that header row matches expectations.
-      if (row.getRowNum() == 0) {
-        validateHeaderRow(row, expectedHeaders);
-        continue;
-      }
-      // Skip "Therapeutic Drugs" header row.
-      if (row.getRowNum() == 203) {
-        continue;
-      }
+    Iterable<SheetRow> sheet = getSheet(SHEET_NAME);
+    refsetEntries = parseRows(sheet, Loinc.SYSTEM_URI, CODE_COLUMN, SKIPPED_ROWS, this::parseRow);
+  }
 
-      RefsetEntry refsetEntry = new RefsetEntry();
+  private RefsetEntry parseRow(SheetRow row) throws ValidationException {
+    // Check that header row matches expectations.
+    if (row.getRowNum() == 0) {
+      validateHeaderRow(row, expectedHeaders);
+      return null;
+    }
+    // Skip "Therapeutic Drugs" header row.
+    if (SKIPPED_ROWS.test(row.getRowNum())) {
+      return null;
+    }
 
-      String rcpaPreferredTerm = getStringValueFromCell(row, 0);
-      Set<String> rcpaSynonyms = getDelimitedStringsFromCell(row, 1);
-      CombiningResultsFlag combiningResultsFlag = getCombiningResultsFlagFromCell(row, 17);
-      String loincCode;
-      Set<String> ucumCodes = null;
+    RefsetEntry refsetEntry = new RefsetEntry();
 
-      // Skip entire row if code is missing or invalid.
-      try {
-        loincCode = getLoincCodeFromCell(row, 9, terminologyClient);
-      } catch (BlankCodeException | InvalidCodeException e) {
-        logger.warn(e.getMessage());
-        continue;
-      }
+    String rcpaPreferredTerm = getStringValueFromCell(row, 0);
+    Set<String> rcpaSynonyms = getDelimitedStringsFromCell(row, 1);
+    CombiningResultsFlag combiningResultsFlag = getCombiningResultsFlagFromCell(row, 17);
+    String loincCode;
+    Set<String> ucumCodes = null;
 
-      // Warn if unit is missing or invalid.
-      try {
-        ucumCodes = getUcumCodesFromCell(ucumService, row, 8);
-      } catch (BlankCodeException | InvalidCodeException e) {
-        logger.warn(e.getMessage());
-      }
+    // Skip entire row if code is missing or invalid.
+    try {
+      loincCode = getLoincCodeFromCell(row, CODE_COLUMN);
+    } catch (BlankCodeException | InvalidCodeException e) {
+      logger.warn(e.getMessage());
+      return null;
+    }
 
-      // Populate information into RefsetEntry object.
-      refsetEntry.setRcpaPreferredTerm(rcpaPreferredTerm);
-      refsetEntry.getRcpaSynonyms().addAll(rcpaSynonyms);
-      refsetEntry.setCode(loincCode);
-      refsetEntry.setCombiningResultsFlag(combiningResultsFlag);
-      if (ucumCodes != null) {
-        refsetEntry.getUnitCodes().addAll(ucumCodes);
-      }
+    // Warn if unit is missing or invalid.
+    try {
+      ucumCodes = getUcumCodesFromCell(ucumService, row, 8);
+    } catch (BlankCodeException | InvalidCodeException e) {
+      logger.warn(e.getMessage());
+    }
 
-      // Add RefsetEntry object to list.
-      refsetEntries.add(refsetEntry);
+    // Populate information into RefsetEntry object.
+    refsetEntry.setRcpaPreferredTerm(rcpaPreferredTerm);
+    refsetEntry.getRcpaSynonyms().addAll(rcpaSynonyms);
+    refsetEntry.setCode(loincCode);
+    refsetEntry.setCombiningResultsFlag(combiningResultsFlag);
+    if (ucumCodes != null) {
+      refsetEntry.getUnitCodes().addAll(ucumCodes);
     }
+
+    return refsetEntry;
   }
 
 
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A compact, read-only store of reference set entries.
+ * <p>
+ * Each field of the entries is held in its own array, and each distinct string is held only once
+ * within a pool and referred to by its index. The synonyms and unit codes of all of the entries are
+ * held end to end in a single array, along with the position at which the values for each entry
+ * start. This avoids holding two hash sets for every entry, when most entries have no more than one
+ * synonym and one unit.
+ * <p>
+ * Entries are presented as a list of {@link RefsetEntry} objects that are created on access, with
+ * read-only sets of synonyms and unit codes. The values within these sets are iterated in the same
+ * order as within the entries that the store was created from.
+ *
+ * @author John Grimes
+ */
+final class ColumnarRefsetEntries extends AbstractList<RefsetEntry> implements RandomAccess {
+
+  private static final CombiningResultsFlag[] combiningResultsFlags = CombiningResultsFlag
+      .values();
+  private final String[] strings;
+  // An index of -1 is used to represent a null value.
+  private final int[] rcpaPreferredTerms;
+  private final int[] codes;
+  private final byte[] flags;
+  private final int[] synonymStarts;
+  private final int[] synonyms;
+  private final int[] unitStarts;
+  private final int[] units;
+
+  ColumnarRefsetEntries(List<RefsetEntry> refsetEntries) {
+    int size = refsetEntries.size();
+    Map<String, Integer> pool = new HashMap<>();
+    List<String> poolStrings = new ArrayList<>();
+    rcpaPreferredTerms = new int[size];
+    codes = new int[size];
+    flags = new byte[size];
+    synonymStarts = new int[size + 1];
+    unitStarts = new int[size + 1];
+    int synonymCount = 0;
+    int unitCount = 0;
+    for (RefsetEntry entry : refsetEntries) {
+      synonymCount += entry.getRcpaSynonyms().size();
+      unitCount += entry.getUnitCodes().size();
+    }
+    synonyms = new int[synonymCount];
+    units = new int[unitCount];
+    for (int i = 0; i < size; i++) {
+      RefsetEntry entry = refsetEntries.get(i);
+      rcpaPreferredTerms[i] = intern(entry.getRcpaPreferredTerm(), pool, poolStrings);
+      codes[i] = intern(entry.getCode(), pool, poolStrings);
+      CombiningResultsFlag flag = entry.getCombiningResultsFlag();
+      flags[i] = (byte) (flag == null ? -1 : flag.ordinal());
+      synonymStarts[i + 1] = intern(entry.getRcpaSynonyms(), synonyms, synonymStarts[i], pool,
+          poolStrings);
+      unitStarts[i + 1] = intern(entry.getUnitCodes(), units, unitStarts[i], pool, poolStrings);
+    }
+    strings = poolStrings.toArray(new String[0]);
+  }
+
+  @Override
+  public RefsetEntry get(int index) {
+    if (index < 0 || index >= codes.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + codes.length);
+    }
+    CombiningResultsFlag flag = flags[index] < 0 ? null : combiningResultsFlags[flags[index]];
+    return new RefsetEntry(getString(rcpaPreferredTerms[index]),
+        new PooledStringSet(synonyms, synonymStarts[index], synonymStarts[index + 1]),
+        new PooledStringSet(units, unitStarts[index], unitStarts[index + 1]),
+        getString(codes[index]), flag);
+  }
+
+  @Override
+  public int size() {
+    return codes.length;
+  }
+
+  private String getString(int index) {
+    return index < 0 ? null : strings[index];
+  }
+
+  private static int intern(String value, Map<String, Integer> pool, List<String> poolStrings) {
+    if (value == null) {
+      return -1;
+    }
+    return pool.computeIfAbsent(value, v -> {
+      poolStrings.add(v);
+      return poolStrings.size() - 1;
+    });
+  }
+
+  /**
+   * Adds the indexes of a collection of strings to an array, starting at the supplied position,
+   * and returns the position after the last index added.
+   */
+  private static int intern(Collection<String> values, int[] indexes, int start,
+      Map<String, Integer> pool, List<String> poolStrings) {
+    int position = start;
+    for (String value : values) {
+      indexes[position++] = intern(value, pool, poolStrings);
+    }
+    return position;
+  }
+
+  /**
+   * A read-only set of the strings referred to by a range of indexes.
+   */
+  private class PooledStringSet extends AbstractSet<String> {
+
+    private final int[] indexes;
+    private final int start;
+    private final int end;
+
+    private PooledStringSet(int[] indexes, int start, int end) {
+      this.indexes = indexes;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int position = start;
+
+        @Override
+        public boolean hasNext() {
+          return position < end;
+        }
+
+        @Override
+        public String next() {
+          if (position >= end) {
+            throw new NoSuchElementException();
+          }
+          return strings[indexes[position++]];
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+
+  }
+
+}
@@ -16,12 +16,9 @@
 
 package au.csiro.spiatofhir.spia;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
-import java.util.ArrayList;
+import au.csiro.spiatofhir.snomed.SnomedCt;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import java.util.Set;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.fhir.ucum.UcumService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,51 +32,49 @@ public class MicrobiologySubsetOfOrganismsRefset extends Refset {
       .getLogger(MicrobiologySubsetOfOrganismsRefset.class);
   protected static final String[] expectedHeaders = {"RCPA Preferred Organism name",
       "RCPA Synonyms", "Length", "Terminology binding (SNOMED CT-AU)", "Version", "History"};
-  private static final String SHEET_NAME = "Organisms v3.1";
+  static final String SHEET_NAME = "Organisms v3.1";
+  static final int CODE_COLUMN = 3;
 
-  public MicrobiologySubsetOfOrganismsRefset(Workbook workbook,
-      TerminologyClient terminologyClient, UcumService ucumService)
+  public MicrobiologySubsetOfOrganismsRefset(SheetSource sheetSource,
+      CodeStatusProvider codeStatusProvider, UcumService ucumService)
       throws ValidationException {
-    super(workbook, terminologyClient, ucumService);
+    super(sheetSource, codeStatusProvider, ucumService);
   }
 
   @Override
   protected void parse() throws ValidationException {
-    Sheet sheet = workbook.getSheet(SHEET_NAME);
-    if (sheet == null) {
-      throw new ValidationException("Sheet not found: " + SHEET_NAME);
+    Iterable<SheetRow> sheet = getSheet(SHEET_NAME);
+    refsetEntries = parseRows(sheet, SnomedCt.SYSTEM_URI, CODE_COLUMN, NO_SKIPPED_ROWS, this::parseRow);
+  }
+
+  private RefsetEntry parseRow(SheetRow row) throws ValidationException {
+    // Check that header row matches expectations.
+    if (row.getRowNum() == 0) {
+      validateHeaderRow(row, expectedHeaders);
+      return null;
     }
-    refsetEntries = new ArrayList<>();
-    for (Row row : sheet) {
-      // Check that header row matches expectations.
-      if (row.getRowNum() == 0) {
-        validateHeaderRow(row, expectedHeaders);
-        continue;
-      }
 
-      RefsetEntry refsetEntry = new RefsetEntry();
+    RefsetEntry refsetEntry = new RefsetEntry();
 
-      // Extract information from row.
-      String rcpaPreferredTerm = getStringValueFromCell(row, 0);
-      Set<String> rcpaSynonyms = getDelimitedStringsFromCell(row, 1);
-      String snomedCode;
+    // Extract information from row.
+    String rcpaPreferredTerm = getStringValueFromCell(row, 0);
+    Set<String> rcpaSynonyms = getDelimitedStringsFromCell(row, 1);
+    String snomedCode;
 
-      // Skip entire row if code is missing or invalid.
-      try {
-        snomedCode = getSnomedCodeFromCell(row, 3, terminologyClient);
-      } catch (BlankCodeException | InvalidCodeException e) {
-        logger.warn(e.getMessage());
-        continue;
-      }
+    // Skip entire row if code is missing or invalid.
+    try {
+      snomedCode = getSnomedCodeFromCell(row, CODE_COLUMN);
+    } catch (BlankCodeException | InvalidCodeException e) {
+      logger.warn(e.getMessage());
+      return null;
+    }
 
-      // Populate information into RefsetEntry object.
-      refsetEntry.setRcpaPreferredTerm(rcpaPreferredTerm);
-      refsetEntry.getRcpaSynonyms().addAll(rcpaSynonyms);
-      refsetEntry.setCode(snomedCode);
+    // Populate information into RefsetEntry object.
+    refsetEntry.setRcpaPreferredTerm(rcpaPreferredTerm);
+    refsetEntry.getRcpaSynonyms().addAll(rcpaSynonyms);
+    refsetEntry.setCode(snomedCode);
 
-      // Add RefsetEntry object to list.
-      refsetEntries.add(refsetEntry);
-    }
+    return refsetEntry;
   }
 
 }
@@ -18,12 +18,9 @@ package au.csiro.spiatofhir.spia;
 
 import static au.csiro.spiatofhir.spia.ValidationException.messageWithCoords;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import java.util.ArrayList;
 import java.util.Set;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.fhir.ucum.UcumService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,22 +33,19 @@ public class PreferredUnitsRefset extends Refset {
   protected static final Logger logger = LoggerFactory.getLogger(PreferredUnitsRefset.class);
   protected static final String[] expectedHeaders = {"Description", "Preferred Display ",
       "UCUM Unit", "Version", "History"};
-  private static final String SHEET_NAME = "Preferred units v1.1";
+  static final String SHEET_NAME = "Preferred units v1.1";
 
-  public PreferredUnitsRefset(Workbook workbook,
-      TerminologyClient terminologyClient,
+  public PreferredUnitsRefset(SheetSource sheetSource,
+      CodeStatusProvider codeStatusProvider,
       UcumService ucumService) throws ValidationException {
-    super(workbook, terminologyClient, ucumService);
+    super(sheetSource, codeStatusProvider, ucumService);
   }
 
   @Override
   protected void parse() throws ValidationException {
-    Sheet sheet = workbook.getSheet(SHEET_NAME);
-    if (sheet == null) {
-      throw new ValidationException("Sheet not found: " + SHEET_NAME);
-    }
+    Iterable<SheetRow> sheet = getSheet(SHEET_NAME);
     refsetEntries = new ArrayList<>();
-    for (Row row : sheet) {
+    for (SheetRow row : sheet) {
       // Check that header row matches expectations.
       if (row.getRowNum() == 0) {
         validateHeaderRow(row, expectedHeaders);
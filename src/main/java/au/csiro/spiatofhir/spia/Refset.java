@@ -18,23 +18,27 @@ package au.csiro.spiatofhir.spia;
 
 import static au.csiro.spiatofhir.spia.ValidationException.messageWithCoords;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.loinc.Loinc;
 import au.csiro.spiatofhir.loinc.LoincCodeValidator;
 import au.csiro.spiatofhir.snomed.SnomedCodeValidator;
+import au.csiro.spiatofhir.snomed.SnomedCt;
 import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
+import au.csiro.spiatofhir.spia.RowPipeline.RowParser;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import au.csiro.spiatofhir.utils.Strings;
+import java.io.IOException;
 import java.util.*;
-import org.apache.poi.ss.usermodel.Cell;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.fhir.ucum.UcumService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Used for parsing a SPIA reference set from a specified workbook within the distribution.
- * Validates terminology using a FHIR terminology service and a UCUM service.
+ * Validates terminology using a source of code status information and a UCUM service.
  *
  * @author John Grimes
  */
@@ -42,23 +46,54 @@ public abstract class Refset {
 
   private static final Logger logger = LoggerFactory.getLogger(Refset.class);
   private static final String MULTI_VALUE_DELIMITER = ";";
+  // The number of rows that can be read ahead of the row parser. This bounds memory use only, as
+  // the number of concurrent lookups is decided by the code status provider.
+  private static final int PIPELINE_CAPACITY = 256;
+  private static final SnomedCodeValidator STRUCTURAL_SNOMED_VALIDATOR = new SnomedCodeValidator();
+  private static final LoincCodeValidator STRUCTURAL_LOINC_VALIDATOR = new LoincCodeValidator();
   private static final Map<String, CombiningResultsFlag> combiningResultsFlagMap =
       new HashMap<String, CombiningResultsFlag>() {{
         put("Red", CombiningResultsFlag.RED);
         put("Green", CombiningResultsFlag.GREEN);
         put("Orange", CombiningResultsFlag.ORANGE);
       }};
-  protected final Workbook workbook;
-  protected final TerminologyClient terminologyClient;
+  /**
+   * Used by reference sets that do not skip any rows other than the header row.
+   */
+  static final IntPredicate NO_SKIPPED_ROWS = rowNum -> false;
+  protected final SheetSource sheetSource;
+  protected final CodeStatusProvider codeStatusProvider;
   protected final UcumService ucumService;
+  protected final SnomedCodeValidator snomedCodeValidator;
+  protected final LoincCodeValidator loincCodeValidator;
   protected List<RefsetEntry> refsetEntries;
+  // Active status of codes that have been resolved ahead of row parsing, keyed by code.
+  private final Map<String, Boolean> activeStatus = new ConcurrentHashMap<>();
 
-  public Refset(Workbook workbook, TerminologyClient terminologyClient,
+  public Refset(SheetSource sheetSource, CodeStatusProvider codeStatusProvider,
       UcumService ucumService) throws ValidationException {
-    this.workbook = workbook;
-    this.terminologyClient = terminologyClient;
+    this.sheetSource = sheetSource;
+    this.codeStatusProvider = codeStatusProvider;
     this.ucumService = ucumService;
+    snomedCodeValidator = new SnomedCodeValidator(codeStatusProvider);
+    loincCodeValidator = new LoincCodeValidator(codeStatusProvider);
     parse();
+    // Once parsed, the entries are moved into a more compact form for the rest of the run.
+    if (refsetEntries != null) {
+      refsetEntries = new ColumnarRefsetEntries(refsetEntries);
+    }
+  }
+
+  /**
+   * Creates a reference set from entries that have already been parsed.
+   */
+  protected Refset(List<RefsetEntry> refsetEntries) {
+    sheetSource = null;
+    codeStatusProvider = null;
+    ucumService = null;
+    snomedCodeValidator = null;
+    loincCodeValidator = null;
+    this.refsetEntries = new ColumnarRefsetEntries(refsetEntries);
   }
 
   protected void parse() throws ValidationException {
@@ -68,14 +103,103 @@ public abstract class Refset {
     return refsetEntries;
   }
 
+  /**
+   * Returns the rows of the named sheet, throwing an exception if the sheet cannot be found.
+   */
+  protected Iterable<SheetRow> getSheet(String sheetName) throws ValidationException {
+    Iterable<SheetRow> sheet;
+    try {
+      sheet = sheetSource.getSheet(sheetName);
+    } catch (IOException e) {
+      throw new ValidationException("Error reading sheet: " + sheetName, e);
+    }
+    if (sheet == null) {
+      throw new ValidationException("Sheet not found: " + sheetName);
+    }
+    return sheet;
+  }
+
+  /**
+   * Parses the rows of a sheet using a {@link RowPipeline}, which resolves the status of the codes
+   * within the code column while earlier rows are being parsed. The row parser returns null for any
+   * row that is to be skipped.
+   *
+   * @param skippedRows matches the numbers of any rows that the row parser always skips, so that
+   * the codes within them are not looked up
+   */
+  protected List<RefsetEntry> parseRows(Iterable<SheetRow> sheet, String system, int codeColumn,
+      IntPredicate skippedRows, RowParser<RefsetEntry> parser) throws ValidationException {
+    return new RowPipeline(codeStatusProvider, system, codeColumn, skippedRows,
+        PIPELINE_CAPACITY, activeStatus).run(sheet, parser);
+  }
+
+  /**
+   * Extracts a structurally valid code from the value of a code cell, returning null if the value
+   * does not contain one.
+   */
+  static String extractCode(String system, String value) {
+    if (value == null) {
+      return null;
+    }
+    String code;
+    boolean valid;
+    if (system.equals(SnomedCt.SYSTEM_URI)) {
+      // SNOMED code cells may also contain the preferred term, e.g. "3092008 | Staphylococcus
+      // aureus |".
+      code = Strings.trim(Strings.trim(value).split("\\|")[0]);
+      valid = STRUCTURAL_SNOMED_VALIDATOR.validate(code);
+    } else if (system.equals(Loinc.SYSTEM_URI)) {
+      code = Strings.trim(value);
+      valid = STRUCTURAL_LOINC_VALIDATOR.validate(code);
+    } else {
+      throw new IllegalArgumentException("Unsupported code system: " + system);
+    }
+    return valid ? code : null;
+  }
+
+  /**
+   * Reads the distinct, structurally valid codes from a column of a sheet, skipping the header row,
+   * the specified skipped rows and any cells that are blank or not of string type (these are
+   * reported later, by the row parse). The codes are passed to the consumer in chunks of the
+   * specified size, as they are read.
+   */
+  static void collectCodes(Iterable<SheetRow> rows, int cellNumber, String system,
+      IntPredicate skippedRows, int chunkSize, Consumer<List<String>> consumer) {
+    Set<String> seen = new HashSet<>();
+    List<String> chunk = new ArrayList<>();
+    for (SheetRow row : rows) {
+      if (row.getRowNum() == 0 || skippedRows.test(row.getRowNum())) {
+        continue;
+      }
+      String code = extractCode(system, row.getStringValue(cellNumber));
+      if (code != null && seen.add(code)) {
+        chunk.add(code);
+      }
+      if (chunk.size() == chunkSize) {
+        consumer.accept(chunk);
+        chunk = new ArrayList<>();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      consumer.accept(chunk);
+    }
+  }
+
   /**
    * Throws an exception if the supplied spreadsheet row does not match the specified array of
    * expected headers.
    */
-  protected void validateHeaderRow(Row row, String[] expectedHeaders) throws ValidationException {
+  protected void validateHeaderRow(SheetRow row, String[] expectedHeaders)
+      throws ValidationException {
     ArrayList<String> headerValues = new ArrayList<>();
-    for (Cell cell : row) {
-      String stringCellValue = cell.getStringCellValue();
+    for (int i = 0; i < row.getCellCount(); i++) {
+      CellType cellType = row.getCellType(i);
+      if (cellType != null && cellType != CellType.STRING) {
+        throw new CellValidationException(
+            "Header cell is not of string type, actual type: " + cellType.toString(),
+            row.getRowNum(), i);
+      }
+      String stringCellValue = row.getStringValue(i);
       if (stringCellValue != null && !stringCellValue.equals("")) {
         headerValues.add(stringCellValue);
       }
@@ -89,28 +213,28 @@ public abstract class Refset {
    * Returns a string value from the specified cell within a row, and asserts that it actually is a
    * string.
    */
-  protected String getStringValueFromCell(Row row, int cellNumber) throws ValidationException {
-    Cell cell = row.getCell(cellNumber, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-    if (cell == null) {
+  protected String getStringValueFromCell(SheetRow row, int cellNumber)
+      throws ValidationException {
+    CellType cellType = row.getCellType(cellNumber);
+    if (cellType == null) {
       return null;
     }
-    if (cell.getCellType() != CellType.STRING) {
+    if (cellType != CellType.STRING) {
       throw new CellValidationException(
           "Cell identified for extraction of string value is not of string type, " +
-              "actual type: " + cell.getCellType().toString(),
-          cell.getRowIndex(), cell.getColumnIndex());
+              "actual type: " + cellType.toString(),
+          row.getRowNum(), cellNumber);
     }
-    final String trimmedValue = Strings.trim(cell.getStringCellValue());
-    if (!cell.getStringCellValue().equals(trimmedValue)) {
-      String message =
-          "Encountered cell with leading or trailing whitespace, \"" + cell.getStringCellValue()
-              + "\"";
-      logger.warn(messageWithCoords(message, cell.getRowIndex(), cell.getColumnIndex()));
+    String value = row.getStringValue(cellNumber);
+    final String trimmedValue = Strings.trim(value);
+    if (!value.equals(trimmedValue)) {
+      String message = "Encountered cell with leading or trailing whitespace, \"" + value + "\"";
+      logger.warn(messageWithCoords(message, row.getRowNum(), cellNumber));
     }
     return trimmedValue;
   }
 
-  protected Set<String> getDelimitedStringsFromCell(Row row, int cellNumber)
+  protected Set<String> getDelimitedStringsFromCell(SheetRow row, int cellNumber)
       throws ValidationException {
     String rawValue = getStringValueFromCell(row, cellNumber);
     Set<String> delimitedStrings = new HashSet<>();
@@ -133,26 +257,25 @@ public abstract class Refset {
    * necessarily existent) SNOMED CT identifier is within the content and trimming any extraneous
    * surrounding content, such as preferred term.
    */
-  protected String getSnomedCodeFromCell(Row row, int cellNumber,
-      TerminologyClient terminologyClient)
+  protected String getSnomedCodeFromCell(SheetRow row, int cellNumber)
       throws ValidationException, InvalidCodeException, BlankCodeException {
-    Cell cell = row.getCell(cellNumber, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-    if (cell == null) {
+    if (row.getCellType(cellNumber) == null) {
       throw new BlankCodeException("Blank SNOMED code encountered", row.getRowNum(), cellNumber);
     }
     String cellValue = getStringValueFromCell(row, cellNumber).split("\\|")[0];
     cellValue = Strings.trim(cellValue);
     // Check for the validity of the SNOMED code.
-    SnomedCodeValidator snomedCodeValidator = new SnomedCodeValidator(terminologyClient);
     if (!snomedCodeValidator.validate(cellValue)) {
       throw new InvalidCodeException("Invalid SNOMED code encountered: \"" + cellValue + "\"",
-          cell.getRowIndex(),
-          cell.getColumnIndex());
+          row.getRowNum(), cellNumber);
     }
-    if (!snomedCodeValidator.checkActive(cellValue)) {
+    Boolean active = activeStatus.get(cellValue);
+    if (active == null) {
+      active = snomedCodeValidator.checkActive(cellValue);
+    }
+    if (!active) {
       throw new InvalidCodeException("Inactive SNOMED code encountered: \"" + cellValue + "\"",
-          cell.getRowIndex(),
-          cell.getColumnIndex());
+          row.getRowNum(), cellNumber);
     }
     return cellValue;
   }
@@ -161,25 +284,24 @@ public abstract class Refset {
    * Returns a string value from the specified cell within a row, asserting that it is a valid
    * (though not necessarily existent) LOINC code.
    */
-  protected String getLoincCodeFromCell(Row row, int cellNumber,
-      TerminologyClient terminologyClient)
+  protected String getLoincCodeFromCell(SheetRow row, int cellNumber)
       throws ValidationException, InvalidCodeException, BlankCodeException {
-    Cell cell = row.getCell(cellNumber, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-    if (cell == null) {
+    if (row.getCellType(cellNumber) == null) {
       throw new BlankCodeException("Blank LOINC code encountered", row.getRowNum(), cellNumber);
     }
     String cellValue = getStringValueFromCell(row, cellNumber);
     // Check for the validity of the LOINC code.
-    LoincCodeValidator loincCodeValidator = new LoincCodeValidator(terminologyClient);
     if (!loincCodeValidator.validate(cellValue)) {
       throw new InvalidCodeException("Invalid LOINC code encountered: \"" + cellValue + "\"",
-          cell.getRowIndex(),
-          cell.getColumnIndex());
+          row.getRowNum(), cellNumber);
+    }
+    Boolean active = activeStatus.get(cellValue);
+    if (active == null) {
+      active = loincCodeValidator.checkActive(cellValue);
     }
-    if (!loincCodeValidator.checkActive(cellValue)) {
+    if (!active) {
       throw new InvalidCodeException("Inactive LOINC code encountered: \"" + cellValue + "\"",
-          cell.getRowIndex(),
-          cell.getColumnIndex());
+          row.getRowNum(), cellNumber);
     }
     return cellValue;
   }
@@ -188,16 +310,16 @@ public abstract class Refset {
    * Returns a string value from the specified cell within a row, asserting that it is a valid UCUM
    * expression.
    */
-  protected Set<String> getUcumCodesFromCell(UcumService ucumService, Row row, int cellNumber)
-      throws BlankCodeException, ValidationException, InvalidCodeException {
-    Cell cell = row.getCell(cellNumber, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-    if (cell == null) {
+  protected Set<String> getUcumCodesFromCell(UcumService ucumService, SheetRow row,
+      int cellNumber) throws BlankCodeException, ValidationException, InvalidCodeException {
+    CellType cellType = row.getCellType(cellNumber);
+    if (cellType == null) {
       throw new BlankCodeException("Blank UCUM code encountered", row.getRowNum(), cellNumber);
     }
-    if (cell.getCellType() != CellType.STRING) {
+    if (cellType != CellType.STRING) {
       throw new CellValidationException(
           "Cell identified for extraction of UCUM code is not of string type, actual type: " +
-              cell.getCellType().toString(), cell.getRowIndex(), cell.getColumnIndex());
+              cellType.toString(), row.getRowNum(), cellNumber);
     }
     // Unit cells can contain multiple units.
     Set<String> cellValues = getDelimitedStringsFromCell(row, cellNumber);
@@ -211,33 +333,31 @@ public abstract class Refset {
       String result = ucumService.validate(cellValue);
       if (result != null) {
         throw new InvalidCodeException("UCUM code validation failed: \"" + result + "\"",
-            cell.getRowIndex(),
-            cell.getColumnIndex());
+            row.getRowNum(), cellNumber);
       }
       results.add(cellValue);
     }
     return results;
   }
 
-  protected CombiningResultsFlag getCombiningResultsFlagFromCell(Row row,
+  protected CombiningResultsFlag getCombiningResultsFlagFromCell(SheetRow row,
       int cellNumber)
       throws ValidationException {
-    Cell cell = row.getCell(cellNumber, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-    if (cell == null) {
+    CellType cellType = row.getCellType(cellNumber);
+    if (cellType == null) {
       return null;
     }
-    if (cell.getCellType() != CellType.STRING) {
+    if (cellType != CellType.STRING) {
       throw new CellValidationException(
           "Cell identified for extraction of Combining Results Flag is not of string type, "
-              + "actual type: " + cell.getCellType().toString(), cell.getRowIndex(),
-          cell.getColumnIndex());
+              + "actual type: " + cellType.toString(), row.getRowNum(), cellNumber);
     }
-    if (!combiningResultsFlagMap.containsKey(cell.getStringCellValue())) {
+    if (!combiningResultsFlagMap.containsKey(row.getStringValue(cellNumber))) {
       throw new ValidationException(
-          "Unexpected value encountered in Combining Results Flag column: " + cell
-              .getStringCellValue());
+          "Unexpected value encountered in Combining Results Flag column: " + row
+              .getStringValue(cellNumber));
     }
-    return combiningResultsFlagMap.get(cell.getStringCellValue());
+    return combiningResultsFlagMap.get(row.getStringValue(cellNumber));
   }
 
 }
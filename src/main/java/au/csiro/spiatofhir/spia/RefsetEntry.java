@@ -28,11 +28,28 @@ import java.util.Set;
 public class RefsetEntry {
 
   private String rcpaPreferredTerm;
-  private final Set<String> rcpaSynonyms = new HashSet<>();
-  private final Set<String> unitCodes = new HashSet<>();
+  private final Set<String> rcpaSynonyms;
+  private final Set<String> unitCodes;
   private String code;
   private CombiningResultsFlag combiningResultsFlag;
 
+  public RefsetEntry() {
+    rcpaSynonyms = new HashSet<>();
+    unitCodes = new HashSet<>();
+  }
+
+  /**
+   * Creates an entry using the supplied sets of synonyms and unit codes, which may be read-only.
+   */
+  RefsetEntry(String rcpaPreferredTerm, Set<String> rcpaSynonyms, Set<String> unitCodes,
+      String code, CombiningResultsFlag combiningResultsFlag) {
+    this.rcpaPreferredTerm = rcpaPreferredTerm;
+    this.rcpaSynonyms = rcpaSynonyms;
+    this.unitCodes = unitCodes;
+    this.code = code;
+    this.combiningResultsFlag = combiningResultsFlag;
+  }
+
   public String getRcpaPreferredTerm() {
     return rcpaPreferredTerm;
   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes lists of reference set entries into a compact binary form.
+ * <p>
+ * All of the strings within the lists are written once, into a string table at the start of the
+ * encoding, and are referred to by their index within the table from then on. Counts, lengths and
+ * indexes are written as unsigned variable-length integers, seven bits to a byte. Decoding reads
+ * directly from a buffer, so that an encoding can be read from a memory mapped file.
+ *
+ * @author John Grimes
+ */
+public abstract class RefsetEntryCodec {
+
+  private static final CombiningResultsFlag[] combiningResultsFlags = CombiningResultsFlag
+      .values();
+
+  /**
+   * Writes a number of lists of entries, sharing a single string table.
+   */
+  public static void write(OutputStream output, List<List<RefsetEntry>> refsets)
+      throws IOException {
+    Map<String, Integer> stringTable = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writeVarInt(body, refsets.size());
+    for (List<RefsetEntry> entries : refsets) {
+      writeVarInt(body, entries.size());
+      for (RefsetEntry entry : entries) {
+        // A reference of zero is used to represent null, so that indexes start at one.
+        writeVarInt(body, intern(entry.getRcpaPreferredTerm(), stringTable, strings));
+        writeVarInt(body, intern(entry.getCode(), stringTable, strings));
+        CombiningResultsFlag flag = entry.getCombiningResultsFlag();
+        writeVarInt(body, flag == null ? 0 : flag.ordinal() + 1);
+        writeStrings(body, entry.getRcpaSynonyms(), stringTable, strings);
+        writeStrings(body, entry.getUnitCodes(), stringTable, strings);
+      }
+    }
+    writeVarInt(output, strings.size());
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(output, bytes.length);
+      output.write(bytes);
+    }
+    body.writeTo(output);
+  }
+
+  /**
+   * Reads lists of entries from the current position of a buffer, leaving the buffer positioned
+   * after the end of the encoding.
+   */
+  public static List<List<RefsetEntry>> read(ByteBuffer buffer) throws IOException {
+    try {
+      String[] strings = new String[readVarInt(buffer) + 1];
+      for (int i = 1; i < strings.length; i++) {
+        byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      int refsetCount = readVarInt(buffer);
+      List<List<RefsetEntry>> refsets = new ArrayList<>(refsetCount);
+      for (int i = 0; i < refsetCount; i++) {
+        int entryCount = readVarInt(buffer);
+        List<RefsetEntry> entries = new ArrayList<>(entryCount);
+        for (int j = 0; j < entryCount; j++) {
+          RefsetEntry entry = new RefsetEntry();
+          entry.setRcpaPreferredTerm(strings[readVarInt(buffer)]);
+          entry.setCode(strings[readVarInt(buffer)]);
+          int flag = readVarInt(buffer);
+          if (flag > 0) {
+            entry.setCombiningResultsFlag(combiningResultsFlags[flag - 1]);
+          }
+          readStrings(buffer, strings, entry.getRcpaSynonyms());
+          readStrings(buffer, strings, entry.getUnitCodes());
+          entries.add(entry);
+        }
+        refsets.add(entries);
+      }
+      return refsets;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Reference set encoding is truncated or corrupt", e);
+    }
+  }
+
+  private static int intern(String value, Map<String, Integer> stringTable,
+      List<String> strings) {
+    if (value == null) {
+      return 0;
+    }
+    return stringTable.computeIfAbsent(value, v -> {
+      strings.add(v);
+      return strings.size();
+    });
+  }
+
+  private static void writeStrings(OutputStream output, Collection<String> values,
+      Map<String, Integer> stringTable, List<String> strings) throws IOException {
+    writeVarInt(output, values.size());
+    for (String value : values) {
+      writeVarInt(output, intern(value, stringTable, strings));
+    }
+  }
+
+  private static void readStrings(ByteBuffer buffer, String[] strings, Collection<String> values) {
+    int count = readVarInt(buffer);
+    for (int i = 0; i < count; i++) {
+      values.add(strings[readVarInt(buffer)]);
+    }
+  }
+
+  static void writeVarInt(OutputStream output, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.write(value);
+  }
+
+  static int readVarInt(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IndexOutOfBoundsException("Variable-length integer is too long");
+  }
+
+}
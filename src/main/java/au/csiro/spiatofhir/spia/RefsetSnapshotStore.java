@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import static au.csiro.spiatofhir.utils.BinaryFiles.readString;
+import static au.csiro.spiatofhir.utils.BinaryFiles.writeString;
+
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.utils.BinaryFiles;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A store of parsed reference sets that is persisted to disk, so that a workbook that has not
+ * changed since the previous build does not need to be parsed and validated again.
+ * <p>
+ * Each reference set is kept in its own file, alongside a fingerprint of the ZIP entry that it was
+ * parsed from. The fingerprint is made up of the name, CRC and size of the entry, along with the
+ * settings that the entries depend upon, such as the version of the parser and the code system
+ * versions and terminology sources that the codes were validated against. A snapshot is only used
+ * if its fingerprint matches exactly, and it has not outlived the configured time to live.
+ *
+ * @author John Grimes
+ */
+public class RefsetSnapshotStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(RefsetSnapshotStore.class);
+  // "SPRS" in ASCII.
+  private static final int MAGIC = 0x53505253;
+  // This should be incremented whenever the layout of the file changes. Changes to the parsers are
+  // covered by the plugin version within the fingerprint.
+  private static final int FORMAT_VERSION = 1;
+  private final Path directory;
+  private final Duration ttl;
+  private final String context;
+
+  /**
+   * @param context the settings that the parsed entries depend upon, keyed by name (e.g. the
+   * plugin version, and the code system version in use for each system URI), which are included in
+   * the fingerprint so that entries parsed under one set of settings are not reused for another
+   */
+  public RefsetSnapshotStore(Path directory, Duration ttl, Map<String, String> context) {
+    this.directory = directory;
+    this.ttl = ttl;
+    this.context = new TreeMap<>(context).toString();
+  }
+
+  /**
+   * Returns the entries previously saved for a reference set, or null if there is no usable
+   * snapshot for the current content of the ZIP entry.
+   */
+  public List<RefsetEntry> load(DistributionEntry entry, ZipEntry zipEntry) {
+    Path path = getPath(entry);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        logger.info("Ignoring reference set snapshot with unrecognised format: " + path);
+        return null;
+      }
+      if (!readString(buffer).equals(getFingerprint(zipEntry))) {
+        logger.info("Reference set snapshot does not match current content: " + path);
+        return null;
+      }
+      if (System.currentTimeMillis() - buffer.getLong() > ttl.toMillis()) {
+        logger.info("Reference set snapshot has expired: " + path);
+        return null;
+      }
+      List<RefsetEntry> refsetEntries = RefsetEntryCodec.read(buffer).get(0);
+      logger.info("Using snapshot in place of parsing " + zipEntry.getName() + ", loaded "
+          + refsetEntries.size() + " entries from: " + path);
+      return refsetEntries;
+    } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+      logger.warn("Ignoring unreadable reference set snapshot: " + path);
+      return null;
+    }
+  }
+
+  /**
+   * Saves the entries parsed from a ZIP entry, replacing any existing snapshot for the reference
+   * set.
+   */
+  public void save(DistributionEntry entry, ZipEntry zipEntry, List<RefsetEntry> refsetEntries)
+      throws IOException {
+    Path path = getPath(entry);
+    BinaryFiles.write(path, output -> {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      writeString(output, getFingerprint(zipEntry));
+      output.writeLong(System.currentTimeMillis());
+      RefsetEntryCodec.write(output, Collections.singletonList(refsetEntries));
+    });
+    logger.info("Saved " + refsetEntries.size() + " entries to reference set snapshot: " + path);
+  }
+
+  private Path getPath(DistributionEntry entry) {
+    return directory.resolve(entry.name().toLowerCase() + ".bin");
+  }
+
+  private String getFingerprint(ZipEntry zipEntry) {
+    return zipEntry.getName() + "|" + zipEntry.getCrc() + "|" + zipEntry.getSize() + "|"
+        + context;
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the rows of a sheet while the status of the codes within later rows is being resolved.
+ * <p>
+ * Rows are read on the calling thread, and the code within each row is submitted to the
+ * asynchronous methods of the code status provider as soon as the row is read. The rows are then
+ * passed to the row parser in row order, once the lookups for them have completed. No more than a
+ * fixed number of rows are read ahead of the row parser, so that the sheet is not held in memory
+ * while lookups are outstanding.
+ * <p>
+ * The pipeline has no threads of its own. The number of concurrent lookups is decided by the code
+ * status provider (e.g. an {@link au.csiro.spiatofhir.terminology.AsyncLookupEngine}), which is
+ * shared by the pipelines of all of the reference sets being parsed.
+ * <p>
+ * The results of the lookups are written into a map of active status, which the row parser
+ * consults in place of making lookups of its own. Any failed lookups are left to be made again by
+ * the row parser, so that errors are reported against the same rows as they would be if the rows
+ * were parsed one after another.
+ *
+ * @author John Grimes
+ */
+class RowPipeline {
+
+  private static final Logger logger = LoggerFactory.getLogger(RowPipeline.class);
+  private final CodeStatusProvider codeStatusProvider;
+  private final String system;
+  private final int codeColumn;
+  private final IntPredicate skippedRows;
+  private final int capacity;
+  private final Map<String, Boolean> activeStatus;
+
+  /**
+   * @param system the code system of the codes within the code column
+   * @param skippedRows matches the numbers of any rows that the row parser skips, the codes within
+   * which are not looked up
+   * @param capacity the maximum number of rows that can be read ahead of the row parser
+   * @param activeStatus a thread-safe map into which the results of lookups are written, keyed by
+   * code
+   */
+  RowPipeline(CodeStatusProvider codeStatusProvider, String system, int codeColumn,
+      IntPredicate skippedRows, int capacity, Map<String, Boolean> activeStatus) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.codeStatusProvider = codeStatusProvider;
+    this.system = system;
+    this.codeColumn = codeColumn;
+    this.skippedRows = skippedRows;
+    this.capacity = capacity;
+    this.activeStatus = activeStatus;
+  }
+
+  /**
+   * Parses each of the rows, returning the non-null results of the row parser in row order.
+   */
+  <T> List<T> run(Iterable<SheetRow> rows, RowParser<T> parser) throws ValidationException {
+    Deque<CompletableFuture<SheetRow>> pending = new ArrayDeque<>();
+    List<T> results = new ArrayList<>();
+    for (SheetRow row : rows) {
+      pending.add(submit(row));
+      if (pending.size() >= capacity) {
+        parseNext(pending, parser, results);
+      }
+    }
+    while (!pending.isEmpty()) {
+      parseNext(pending, parser, results);
+    }
+    return results;
+  }
+
+  private <T> void parseNext(Deque<CompletableFuture<SheetRow>> pending, RowParser<T> parser,
+      List<T> results) throws ValidationException {
+    T result = parser.parse(await(pending.remove()));
+    if (result != null) {
+      results.add(result);
+    }
+  }
+
+  /**
+   * Submits the code within a row for lookup, returning a future that completes with the row once
+   * the lookup has completed or failed.
+   */
+  private CompletableFuture<SheetRow> submit(SheetRow row) {
+    // The header row never contains a code, and the codes within skipped rows are not needed.
+    if (row.getRowNum() == 0 || skippedRows.test(row.getRowNum())) {
+      return CompletableFuture.completedFuture(row);
+    }
+    String code = Refset.extractCode(system, row.getStringValue(codeColumn));
+    if (code == null || activeStatus.containsKey(code)) {
+      return CompletableFuture.completedFuture(row);
+    }
+    CompletableFuture<Boolean> lookup;
+    try {
+      lookup = codeStatusProvider.checkActiveAsync(system, code);
+    } catch (RuntimeException e) {
+      // A provider that does not support asynchronous lookups fails on the calling thread.
+      logDeferred(code, e);
+      return CompletableFuture.completedFuture(row);
+    }
+    return lookup.handle((active, e) -> {
+      if (e == null) {
+        activeStatus.put(code, active);
+      } else {
+        logDeferred(code, e);
+      }
+      return row;
+    });
+  }
+
+  private void logDeferred(String code, Throwable e) {
+    logger.debug("Lookup of " + system + "|" + code + " failed, deferring to row parse: "
+        + e.getMessage());
+  }
+
+  private static SheetRow await(CompletableFuture<SheetRow> row) throws ValidationException {
+    try {
+      return row.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ValidationException("Interrupted while parsing rows", e);
+    } catch (ExecutionException e) {
+      // Failed lookups are handled when they are submitted, so this is not expected.
+      throw new IllegalStateException("Unexpected error while parsing rows", e.getCause());
+    }
+  }
+
+  /**
+   * Parses a single row, returning null if the row is to be skipped.
+   */
+  interface RowParser<T> {
+
+    T parse(SheetRow row) throws ValidationException;
+
+  }
+
+}
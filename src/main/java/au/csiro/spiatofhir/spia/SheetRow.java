@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import java.util.Iterator;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * A lightweight copy of the cells within a spreadsheet row. Rows are immutable, so that they can be
+ * passed between threads, and are independent of the workbook that they were read from.
+ * <p>
+ * Blank cells are treated the same as missing cells. The value of cells that are not of string type
+ * is not retained, only their type.
+ *
+ * @author John Grimes
+ */
+public class SheetRow {
+
+  private final int rowNum;
+  private final CellType[] types;
+  private final String[] values;
+
+  /**
+   * @param types the type of each cell, indexed by column, or null for a blank or missing cell
+   * @param values the value of each cell of string type, indexed by column
+   */
+  SheetRow(int rowNum, CellType[] types, String[] values) {
+    this.rowNum = rowNum;
+    this.types = types;
+    this.values = values;
+  }
+
+  /**
+   * Copies the cells of a POI row.
+   */
+  public static SheetRow of(Row row) {
+    int cellCount = Math.max(row.getLastCellNum(), 0);
+    CellType[] types = new CellType[cellCount];
+    String[] values = new String[cellCount];
+    for (Cell cell : row) {
+      CellType type = cell.getCellType();
+      if (type == CellType.BLANK) {
+        continue;
+      }
+      types[cell.getColumnIndex()] = type;
+      if (type == CellType.STRING) {
+        values[cell.getColumnIndex()] = cell.getStringCellValue();
+      }
+    }
+    return new SheetRow(row.getRowNum(), types, values);
+  }
+
+  /**
+   * Returns the rows of a POI sheet, copying each one as it is read.
+   */
+  public static Iterable<SheetRow> of(Sheet sheet) {
+    return () -> {
+      Iterator<Row> rows = sheet.rowIterator();
+      return new Iterator<SheetRow>() {
+        @Override
+        public boolean hasNext() {
+          return rows.hasNext();
+        }
+
+        @Override
+        public SheetRow next() {
+          return SheetRow.of(rows.next());
+        }
+      };
+    };
+  }
+
+  public int getRowNum() {
+    return rowNum;
+  }
+
+  /**
+   * Returns the number of columns up to and including the last cell within the row.
+   */
+  public int getCellCount() {
+    return types.length;
+  }
+
+  /**
+   * Returns the type of a cell, or null if the cell is blank or missing.
+   */
+  public CellType getCellType(int cellNumber) {
+    return cellNumber < types.length ? types[cellNumber] : null;
+  }
+
+  /**
+   * Returns the value of a cell, or null if the cell is blank, missing or not of string type.
+   */
+  public String getStringValue(int cellNumber) {
+    return cellNumber < values.length ? values[cellNumber] : null;
+  }
+
+}
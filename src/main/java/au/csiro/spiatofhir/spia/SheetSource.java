@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of the rows within the sheets of a workbook, which are passed to the reference set
+ * parsers.
+ *
+ * @author John Grimes
+ */
+public interface SheetSource extends Closeable {
+
+  /**
+   * Returns the rows of the named sheet, or null if the workbook does not contain a sheet with that
+   * name. Depending upon the implementation, rows may only be read from the workbook as they are
+   * iterated, in which case any errors that occur while reading are thrown as unchecked
+   * exceptions.
+   */
+  Iterable<SheetRow> getSheet(String sheetName) throws IOException;
+
+}
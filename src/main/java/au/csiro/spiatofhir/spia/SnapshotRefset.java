@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 Australian e-Health Research Centre, CSIRO
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -14,27 +14,19 @@
  * limitations under the License.
  */
 
-package au.csiro.spiatofhir.fhir.r4;
+package au.csiro.spiatofhir.spia;
 
-import au.csiro.spiatofhir.spia.Refset;
-import java.util.Date;
-import org.hl7.fhir.r4.model.Resource;
+import java.util.List;
 
 /**
+ * A reference set made up of entries that were parsed previously, rather than from a workbook.
+ *
  * @author John Grimes
  */
-public abstract class R4Resource {
-
-  private final Date publicationDate;
-
-  public R4Resource(Date publicationDate) {
-    this.publicationDate = publicationDate;
-  }
-
-  public abstract Resource transform(Refset refset);
+class SnapshotRefset extends Refset {
 
-  public Date getPublicationDate() {
-    return publicationDate;
+  SnapshotRefset(List<RefsetEntry> refsetEntries) {
+    super(refsetEntries);
   }
 
 }
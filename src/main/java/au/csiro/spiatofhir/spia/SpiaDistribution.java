@@ -16,19 +16,37 @@
 
 package au.csiro.spiatofhir.spia;
 
-import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.loinc.Loinc;
+import au.csiro.spiatofhir.snomed.SnomedCt;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.fhir.ucum.UcumService;
 import org.slf4j.Logger;
@@ -38,14 +56,28 @@ import org.slf4j.LoggerFactory;
  * Represents the distribution ZIP file used to house the SPIA distribution. Parses each reference
  * set and provides them back as objects, which can then be used by the classes responsible for the
  * FHIR transform.
+ * <p>
+ * The workbooks are parsed concurrently. Before each reference set is parsed, the distinct codes
+ * from its workbook are submitted to the code status provider in large chunks. If the provider
+ * memoises its results, the reference set parser is then able to use these results rather than
+ * making requests of its own.
+ * <p>
+ * If a snapshot store is supplied, the entries of any workbook that is unchanged since it was last
+ * parsed are loaded from the store instead.
+ * <p>
+ * In lazy mode, nothing is parsed until a reference set is requested, so that a caller that only
+ * needs some of the reference sets does not pay for the others.
+ * <p>
+ * A parsed distribution can also be written to a file and read back elsewhere, without access to
+ * the spreadsheets or to a terminology server, using {@link SpiaDistributionFile}.
  *
  * @author John Grimes
  */
 public class SpiaDistribution {
 
   // Map to the files within the distribution that contain each reference set.
-  private static final Map<DistributionEntry, String> expectedEntries = new EnumMap<DistributionEntry, String>(
-      DistributionEntry.class) {{
+  static final Map<DistributionEntry, String> expectedEntries =
+      new EnumMap<DistributionEntry, String>(DistributionEntry.class) {{
     put(DistributionEntry.REQUESTING,
         "RCPA-SPIA Requesting Pathology Terminology Reference Set v3.1.xlsx");
     put(DistributionEntry.CHEMICAL,
@@ -62,18 +94,105 @@ public class SpiaDistribution {
         "RCPA-SPIA Preferred Units table v1.1.xlsx");
   }};
   private static final Logger logger = LoggerFactory.getLogger(SpiaDistribution.class);
-  private ZipFile zipFile;
+  private static final int PREFETCH_CHUNK_SIZE = 1000;
+  // These are null within a distribution that was created from entries that were already parsed,
+  // which has no workbooks to parse.
+  private final ZipFile zipFile;
+  private final CodeStatusProvider codeStatusProvider;
+  private final UcumService ucumService;
   private final Map<DistributionEntry, Refset> refsets = new EnumMap<>(DistributionEntry.class);
-  private TerminologyClient terminologyClient;
-  private UcumService ucumService;
+  private final Map<String, String> codeSystemVersions;
+  private final boolean streaming;
+  private final RefsetSnapshotStore snapshotStore;
+  private final boolean lazy;
+  private final Map<DistributionEntry, FutureTask<Refset>> loadingTasks =
+      new ConcurrentHashMap<>();
 
-  public SpiaDistribution(File file, TerminologyClient terminologyClient, UcumService ucumService)
-      throws IOException, ValidationException {
+  /**
+   * @param streaming if true, workbooks are read as a stream of rows rather than being loaded into
+   * memory
+   * @param executor used to parse the workbooks concurrently, or null to use a pool with a thread
+   * for each workbook
+   * @param snapshotStore used to reuse the reference sets parsed from unchanged workbooks, or null
+   * to parse every workbook
+   * @param lazy if true, each workbook is parsed the first time that its reference set is
+   * requested, rather than when the distribution is created
+   */
+  public SpiaDistribution(File file, CodeStatusProvider codeStatusProvider,
+      UcumService ucumService, boolean streaming, ExecutorService executor,
+      RefsetSnapshotStore snapshotStore, boolean lazy) throws IOException, ValidationException {
     zipFile = new ZipFile(file);
-    this.terminologyClient = terminologyClient;
+    this.codeStatusProvider = codeStatusProvider;
     this.ucumService = ucumService;
+    this.codeSystemVersions = Collections.emptyMap();
+    this.streaming = streaming;
+    this.snapshotStore = snapshotStore;
+    this.lazy = lazy;
     validate();
-    parseRefsets();
+    if (lazy) {
+      return;
+    }
+    if (executor == null) {
+      ExecutorService ownExecutor = Executors.newFixedThreadPool(expectedEntries.size());
+      try {
+        parseRefsets(ownExecutor);
+      } finally {
+        ownExecutor.shutdownNow();
+      }
+    } else {
+      parseRefsets(executor);
+    }
+  }
+
+  public SpiaDistribution(File file, CodeStatusProvider codeStatusProvider,
+      UcumService ucumService, boolean streaming, ExecutorService executor,
+      RefsetSnapshotStore snapshotStore) throws IOException, ValidationException {
+    this(file, codeStatusProvider, ucumService, streaming, executor, snapshotStore, false);
+  }
+
+  public SpiaDistribution(File file, CodeStatusProvider codeStatusProvider,
+      UcumService ucumService, boolean streaming, ExecutorService executor)
+      throws IOException, ValidationException {
+    this(file, codeStatusProvider, ucumService, streaming, executor, null);
+  }
+
+  public SpiaDistribution(File file, CodeStatusProvider codeStatusProvider,
+      UcumService ucumService, boolean streaming)
+      throws IOException, ValidationException {
+    this(file, codeStatusProvider, ucumService, streaming, null);
+  }
+
+  public SpiaDistribution(File file, CodeStatusProvider codeStatusProvider,
+      UcumService ucumService)
+      throws IOException, ValidationException {
+    this(file, codeStatusProvider, ucumService, false);
+  }
+
+  /**
+   * Creates a distribution from reference set entries that have already been parsed and validated.
+   *
+   * @param codeSystemVersions the code system version that the entries were validated against,
+   * keyed by system URI
+   */
+  SpiaDistribution(Map<DistributionEntry, List<RefsetEntry>> refsetEntries,
+      Map<String, String> codeSystemVersions) {
+    zipFile = null;
+    codeStatusProvider = null;
+    ucumService = null;
+    this.codeSystemVersions = Collections.unmodifiableMap(new TreeMap<>(codeSystemVersions));
+    streaming = false;
+    snapshotStore = null;
+    lazy = false;
+    refsetEntries.forEach((entry, entries) -> refsets.put(entry, new SnapshotRefset(entries)));
+  }
+
+  /**
+   * Returns the code system version that the reference sets were validated against, keyed by
+   * system URI. These are only known for a distribution that was created from entries that were
+   * already parsed, and an empty map is returned otherwise.
+   */
+  public Map<String, String> getCodeSystemVersions() {
+    return codeSystemVersions;
   }
 
   private InputStream getNamedEntryAsStream(DistributionEntry distributionEntry)
@@ -93,54 +212,312 @@ public class SpiaDistribution {
     }
   }
 
-  private void parseRefsets() throws ValidationException, IOException {
+  /**
+   * Parses each of the workbooks as a separate task. If any of the tasks fail, the remaining tasks
+   * are cancelled and the first failure is thrown.
+   */
+  private void parseRefsets(ExecutorService executor) throws ValidationException, IOException {
+    CompletionService<Refset> completionService = new ExecutorCompletionService<>(executor);
+    Map<DistributionEntry, Future<Refset>> results = new EnumMap<>(DistributionEntry.class);
     for (DistributionEntry entry : expectedEntries.keySet()) {
-      InputStream inputStream = getNamedEntryAsStream(entry);
-      Workbook workbook;
+      results.put(entry, completionService.submit(() -> parseRefset(entry)));
+    }
+    try {
+      for (int i = 0; i < results.size(); i++) {
+        completionService.take().get();
+      }
+      // The results are added in the order of the entries, regardless of the order in which they
+      // completed.
+      for (DistributionEntry entry : results.keySet()) {
+        refsets.put(entry, results.get(entry).get());
+      }
+    } catch (ExecutionException e) {
+      results.values().forEach(result -> result.cancel(true));
+      throw rethrow(e.getCause());
+    } catch (InterruptedException e) {
+      results.values().forEach(result -> result.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new ValidationException("Interrupted while parsing reference sets", e);
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable cause)
+      throws ValidationException, IOException {
+    if (cause instanceof ValidationException) {
+      throw (ValidationException) cause;
+    } else if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    throw new RuntimeException("Error parsing reference set", cause);
+  }
+
+  /**
+   * Parses the workbook for a reference set, unless the snapshot store holds entries parsed from
+   * identical content.
+   */
+  private Refset parseRefset(DistributionEntry entry) throws ValidationException, IOException {
+    if (zipFile == null) {
+      throw new IllegalStateException("Reference set " + entry + " cannot be parsed, as the "
+          + "distribution was created from entries that were already parsed");
+    }
+    ZipEntry zipEntry = zipFile.getEntry(expectedEntries.get(entry));
+    if (snapshotStore != null) {
+      List<RefsetEntry> refsetEntries = snapshotStore.load(entry, zipEntry);
+      if (refsetEntries != null) {
+        return new SnapshotRefset(refsetEntries);
+      }
+    }
+    Refset refset = parseWorkbook(entry);
+    if (snapshotStore != null) {
       try {
-        workbook = WorkbookFactory.create(inputStream);
+        snapshotStore.save(entry, zipEntry, refset.getRefsetEntries());
       } catch (IOException e) {
-        throw new ValidationException(
-            "Error reading entry from ZIP file: " + expectedEntries.get(entry), e);
+        logger.warn("Unable to save reference set snapshot: " + e.getMessage());
       }
-      Refset parsedRefset;
+    }
+    return refset;
+  }
+
+  private Refset parseWorkbook(DistributionEntry entry) throws ValidationException, IOException {
+    try (SheetSource sheetSource = openSheetSource(entry)) {
+      prefetchCodes(entry, sheetSource);
       try {
         //noinspection unchecked
         Constructor constructor = entry.getParsingClass()
-            .getConstructor(Workbook.class, TerminologyClient.class, UcumService.class);
-        parsedRefset = (Refset) constructor
-            .newInstance(workbook, terminologyClient, ucumService);
+            .getConstructor(SheetSource.class, CodeStatusProvider.class, UcumService.class);
+        return (Refset) constructor.newInstance(sheetSource, codeStatusProvider, ucumService);
       } catch (InvocationTargetException e) {
-        throw new RuntimeException("Error instantiating reference set parser", e.getCause());
+        // Errors thrown by the parser itself, such as an unavailable terminology server, are
+        // thrown as they are.
+        throw rethrow(e.getCause());
       } catch (InstantiationException | IllegalAccessException | NoSuchMethodException e) {
         throw new RuntimeException("Error instantiating reference set parser", e);
       }
-      refsets.put(entry, parsedRefset);
     }
   }
 
+  private SheetSource openSheetSource(DistributionEntry entry) throws ValidationException {
+    try (InputStream inputStream = getNamedEntryAsStream(entry)) {
+      if (streaming) {
+        return new StreamingSheetSource(inputStream);
+      } else {
+        return new WorkbookSheetSource(WorkbookFactory.create(inputStream));
+      }
+    } catch (IOException e) {
+      throw new ValidationException(
+          "Error reading entry from ZIP file: " + expectedEntries.get(entry), e);
+    }
+  }
+
+  /**
+   * Gathers the distinct codes from a workbook, and submits them for asynchronous lookup. Any
+   * failures are logged, and left to be reported by the reference set parser, which will encounter
+   * them when it looks up the same codes.
+   */
+  private void prefetchCodes(DistributionEntry entry, SheetSource sheetSource)
+      throws IOException {
+    if (entry.getCodeSystem() == null) {
+      return;
+    }
+    Iterable<SheetRow> sheet = sheetSource.getSheet(entry.getSheetName());
+    if (sheet == null) {
+      return;
+    }
+    String system = entry.getCodeSystem();
+    Set<String> codes = new LinkedHashSet<>();
+    Refset.collectCodes(sheet, entry.getCodeColumn(), system, entry.getSkippedRows(),
+        Integer.MAX_VALUE, codes::addAll);
+    logger.info("Prefetching status of " + codes.size() + " distinct codes from: " + system);
+    List<String> codeList = new ArrayList<>(codes);
+    for (int i = 0; i < codeList.size(); i += PREFETCH_CHUNK_SIZE) {
+      List<String> chunk = codeList.subList(i, Math.min(i + PREFETCH_CHUNK_SIZE, codeList.size()));
+      int chunkSize = chunk.size();
+      try {
+        codeStatusProvider.checkActiveAsync(system, new ArrayList<>(chunk))
+            .whenComplete((result, e) -> {
+              if (e != null) {
+                logger.warn("Prefetch of " + chunkSize + " codes from " + system
+                    + " failed, deferring to reference set parser: " + e.getMessage());
+              }
+            });
+      } catch (RuntimeException e) {
+        // A provider that does not support asynchronous lookups fails on the calling thread.
+        logger.warn("Prefetch failed, deferring to reference set parser: " + e.getMessage());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the reference sets within the distribution. In lazy mode, each reference set is parsed
+   * when it is first retrieved from the map, and any failure to parse it is thrown as an unchecked
+   * exception.
+   */
   public Map<DistributionEntry, Refset> getRefsets() {
-    return refsets;
+    return lazy ? new LazyRefsetMap() : refsets;
+  }
+
+  /**
+   * Returns a single reference set. In lazy mode, the reference set is parsed on the first request
+   * for it, and concurrent requests wait for the same result. A reference set that fails to parse
+   * is parsed again on the next request.
+   */
+  public Refset getRefset(DistributionEntry entry) throws ValidationException, IOException {
+    if (!lazy) {
+      return refsets.get(entry);
+    }
+    FutureTask<Refset> task = loadingTasks
+        .computeIfAbsent(entry, e -> new FutureTask<>(() -> parseRefset(e)));
+    // This does nothing if the task has already been run by another caller.
+    task.run();
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      loadingTasks.remove(entry, task);
+      throw rethrow(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ValidationException("Interrupted while parsing reference set: " + entry, e);
+    }
+  }
+
+  /**
+   * Discards a reference set that is no longer needed, so that the memory it uses can be reclaimed.
+   * In lazy mode, it will be parsed again if it is requested again.
+   */
+  public void release(DistributionEntry entry) {
+    if (lazy) {
+      loadingTasks.remove(entry);
+    } else {
+      refsets.remove(entry);
+    }
+  }
+
+  /**
+   * A view of the reference sets that parses each one as it is retrieved. The keys can be listed
+   * without parsing anything.
+   */
+  private class LazyRefsetMap extends AbstractMap<DistributionEntry, Refset> {
+
+    @Override
+    public Refset get(Object key) {
+      if (!(key instanceof DistributionEntry)) {
+        return null;
+      }
+      DistributionEntry entry = (DistributionEntry) key;
+      try {
+        return getRefset(entry);
+      } catch (ValidationException | IOException e) {
+        throw new RuntimeException("Error parsing reference set: " + entry, e);
+      }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return expectedEntries.containsKey(key);
+    }
+
+    @Override
+    public Set<DistributionEntry> keySet() {
+      return Collections.unmodifiableSet(expectedEntries.keySet());
+    }
+
+    @Override
+    public int size() {
+      return expectedEntries.size();
+    }
+
+    @Override
+    public Set<Entry<DistributionEntry, Refset>> entrySet() {
+      return new AbstractSet<Entry<DistributionEntry, Refset>>() {
+        @Override
+        public Iterator<Entry<DistributionEntry, Refset>> iterator() {
+          Iterator<DistributionEntry> keys = expectedEntries.keySet().iterator();
+          return new Iterator<Entry<DistributionEntry, Refset>>() {
+            @Override
+            public boolean hasNext() {
+              return keys.hasNext();
+            }
+
+            @Override
+            public Entry<DistributionEntry, Refset> next() {
+              DistributionEntry key = keys.next();
+              return new SimpleImmutableEntry<>(key, get(key));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return expectedEntries.size();
+        }
+      };
+    }
+
   }
 
   public enum DistributionEntry {
-    REQUESTING(RequestingRefset.class),
-    CHEMICAL(ChemicalPathologyRefset.class),
-    HAEMATOLOGY(HaematologyRefset.class),
-    IMMUNOPATHOLOGY(ImmunopathologyRefset.class),
-    MICROBIOLOGY_SEROLOGY_MOLECULAR(MicrobiologySerologyMolecularRefset.class),
-    MICROBIOLOGY_ORGANISMS(MicrobiologySubsetOfOrganismsRefset.class),
-    PREFERRED_UNITS(PreferredUnitsRefset.class);
+    REQUESTING(RequestingRefset.class, RequestingRefset.SHEET_NAME, SnomedCt.SYSTEM_URI,
+        RequestingRefset.CODE_COLUMN, Refset.NO_SKIPPED_ROWS),
+    CHEMICAL(ChemicalPathologyRefset.class, ChemicalPathologyRefset.SHEET_NAME, Loinc.SYSTEM_URI,
+        ChemicalPathologyRefset.CODE_COLUMN, ChemicalPathologyRefset.SKIPPED_ROWS),
+    HAEMATOLOGY(HaematologyRefset.class, HaematologyRefset.SHEET_NAME, Loinc.SYSTEM_URI,
+        HaematologyRefset.CODE_COLUMN, HaematologyRefset.SKIPPED_ROWS),
+    IMMUNOPATHOLOGY(ImmunopathologyRefset.class, ImmunopathologyRefset.SHEET_NAME,
+        Loinc.SYSTEM_URI, ImmunopathologyRefset.CODE_COLUMN, ImmunopathologyRefset.SKIPPED_ROWS),
+    MICROBIOLOGY_SEROLOGY_MOLECULAR(MicrobiologySerologyMolecularRefset.class,
+        MicrobiologySerologyMolecularRefset.SHEET_NAME, Loinc.SYSTEM_URI,
+        MicrobiologySerologyMolecularRefset.CODE_COLUMN, Refset.NO_SKIPPED_ROWS),
+    MICROBIOLOGY_ORGANISMS(MicrobiologySubsetOfOrganismsRefset.class,
+        MicrobiologySubsetOfOrganismsRefset.SHEET_NAME, SnomedCt.SYSTEM_URI,
+        MicrobiologySubsetOfOrganismsRefset.CODE_COLUMN, Refset.NO_SKIPPED_ROWS),
+    PREFERRED_UNITS(PreferredUnitsRefset.class, null, null, -1, Refset.NO_SKIPPED_ROWS);
 
     private final Class parsingClass;
+    private final String sheetName;
+    private final String codeSystem;
+    private final int codeColumn;
+    private final IntPredicate skippedRows;
 
-    DistributionEntry(Class parsingClass) {
+    /**
+     * @param sheetName the sheet containing the coded content, or null if there is none
+     * @param codeSystem the code system of the coded content, or null if there is none
+     * @param codeColumn the column containing the coded content
+     * @param skippedRows matches the numbers of any rows other than the header row that the parser
+     * skips
+     */
+    DistributionEntry(Class parsingClass, String sheetName, String codeSystem, int codeColumn,
+        IntPredicate skippedRows) {
       this.parsingClass = parsingClass;
+      this.sheetName = sheetName;
+      this.codeSystem = codeSystem;
+      this.codeColumn = codeColumn;
+      this.skippedRows = skippedRows;
     }
 
     public Class getParsingClass() {
       return parsingClass;
     }
+
+    public String getSheetName() {
+      return sheetName;
+    }
+
+    public String getCodeSystem() {
+      return codeSystem;
+    }
+
+    public int getCodeColumn() {
+      return codeColumn;
+    }
+
+    public IntPredicate getSkippedRows() {
+      return skippedRows;
+    }
   }
 
 }
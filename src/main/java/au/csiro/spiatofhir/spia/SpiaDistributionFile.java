@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import static au.csiro.spiatofhir.utils.BinaryFiles.readString;
+import static au.csiro.spiatofhir.utils.BinaryFiles.writeString;
+
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.utils.BinaryFiles;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a parsed distribution to a compact binary file, and reads it back again. This allows the
+ * distribution to be parsed and validated once, and then transformed elsewhere without access to
+ * the spreadsheets or to a terminology server.
+ * <p>
+ * The file starts with a magic number and a format version, followed by the code system versions
+ * that the entries were validated against and the names of the reference sets that it contains.
+ * The entries of all of the reference sets follow, encoded using {@link RefsetEntryCodec} with a
+ * single string table. The file is read using a memory mapping.
+ *
+ * @author John Grimes
+ */
+public abstract class SpiaDistributionFile {
+
+  private static final Logger logger = LoggerFactory.getLogger(SpiaDistributionFile.class);
+  // "SPDF" in ASCII.
+  private static final int MAGIC = 0x53504446;
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * @param codeSystemVersions the code system version that the distribution was validated against,
+   * keyed by system URI, which is recorded within the file
+   */
+  public static void write(SpiaDistribution distribution, Path path,
+      Map<String, String> codeSystemVersions) throws IOException {
+    Map<DistributionEntry, Refset> refsets = distribution.getRefsets();
+    List<List<RefsetEntry>> refsetEntries = new ArrayList<>();
+    BinaryFiles.write(path, output -> {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(codeSystemVersions.size());
+      for (Map.Entry<String, String> version : new TreeMap<>(codeSystemVersions).entrySet()) {
+        writeString(output, version.getKey());
+        writeString(output, version.getValue());
+      }
+      output.writeInt(refsets.size());
+      for (DistributionEntry entry : refsets.keySet()) {
+        writeString(output, entry.name());
+        refsetEntries.add(refsets.get(entry).getRefsetEntries());
+      }
+      RefsetEntryCodec.write(output, refsetEntries);
+    });
+    logger.info("Saved " + refsets.size() + " reference sets to parsed distribution file: "
+        + path);
+  }
+
+  /**
+   * Reads a distribution from a file. The code system versions recorded within the file are
+   * available from {@link SpiaDistribution#getCodeSystemVersions()}.
+   */
+  public static SpiaDistribution read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a parsed distribution file: " + path);
+      }
+      int formatVersion = buffer.getInt();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IOException("Unsupported parsed distribution file version " + formatVersion
+            + ", expected " + FORMAT_VERSION + ": " + path);
+      }
+      Map<String, String> codeSystemVersions = new TreeMap<>();
+      int versionCount = buffer.getInt();
+      for (int i = 0; i < versionCount; i++) {
+        codeSystemVersions.put(readString(buffer), readString(buffer));
+      }
+      List<DistributionEntry> entries = new ArrayList<>();
+      int refsetCount = buffer.getInt();
+      for (int i = 0; i < refsetCount; i++) {
+        String name = readString(buffer);
+        try {
+          entries.add(DistributionEntry.valueOf(name));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Unknown reference set in parsed distribution file: " + name);
+        }
+      }
+      List<List<RefsetEntry>> refsetEntries = RefsetEntryCodec.read(buffer);
+      if (refsetEntries.size() != entries.size()) {
+        throw new IOException("Parsed distribution file is corrupt: " + path);
+      }
+      Map<DistributionEntry, List<RefsetEntry>> refsets = new EnumMap<>(DistributionEntry.class);
+      for (int i = 0; i < entries.size(); i++) {
+        refsets.put(entries.get(i), refsetEntries.get(i));
+      }
+      logger.info("Loaded " + refsets.size() + " reference sets from parsed distribution file: "
+          + path + ", validated against code system versions: " + codeSystemVersions);
+      return new SpiaDistribution(refsets, codeSystemVersions);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Parsed distribution file is truncated: " + path, e);
+    }
+  }
+
+}
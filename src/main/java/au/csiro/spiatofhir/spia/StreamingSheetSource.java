@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFReader.SheetIterator;
+import org.xml.sax.SAXException;
+
+/**
+ * Provides the rows of an XLSX workbook without loading the workbook into memory. The sheet XML is
+ * read using a pull parser, one row at a time as the rows are iterated, so memory use does not
+ * depend upon the size of the sheet.
+ * <p>
+ * The workbook is copied to a temporary file so that its parts can be accessed individually. Only
+ * the shared strings table is held in memory.
+ *
+ * @author John Grimes
+ */
+public class StreamingSheetSource implements SheetSource {
+
+  private final Path tempFile;
+  private final OPCPackage workbookPackage;
+  private final XSSFReader reader;
+  private final ReadOnlySharedStringsTable sharedStrings;
+  private final XMLInputFactory xmlInputFactory;
+
+  public StreamingSheetSource(InputStream workbook) throws IOException {
+    tempFile = Files.createTempFile("spia-", ".xlsx");
+    try {
+      Files.copy(workbook, tempFile, StandardCopyOption.REPLACE_EXISTING);
+      workbookPackage = OPCPackage.open(tempFile.toFile(), PackageAccess.READ);
+    } catch (InvalidFormatException e) {
+      Files.deleteIfExists(tempFile);
+      throw new IOException("Error opening workbook", e);
+    } catch (IOException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    try {
+      reader = new XSSFReader(workbookPackage);
+      // Phonetic runs are excluded, to match the values returned by the POI user model.
+      sharedStrings = new ReadOnlySharedStringsTable(workbookPackage, false);
+    } catch (OpenXML4JException | SAXException e) {
+      close();
+      throw new IOException("Error opening workbook", e);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    xmlInputFactory = XMLInputFactory.newInstance();
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  @Override
+  public Iterable<SheetRow> getSheet(String sheetName) throws IOException {
+    SheetIterator sheets;
+    try {
+      sheets = (SheetIterator) reader.getSheetsData();
+    } catch (OpenXML4JException e) {
+      throw new IOException(e);
+    }
+    while (sheets.hasNext()) {
+      // Each sheet is opened as it is iterated, so it needs to be closed again.
+      sheets.next().close();
+      if (sheets.getSheetName().equals(sheetName)) {
+        PackagePart sheetPart = sheets.getSheetPart();
+        return () -> new RowIterator(sheetPart);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      workbookPackage.revert();
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Converts a cell reference such as "AB12" into a zero-based column index.
+   */
+  static int getColumnIndex(String cellReference) {
+    int column = 0;
+    for (int i = 0; i < cellReference.length(); i++) {
+      char c = cellReference.charAt(i);
+      if (c < 'A' || c > 'Z') {
+        break;
+      }
+      column = column * 26 + (c - 'A' + 1);
+    }
+    return column - 1;
+  }
+
+  /**
+   * Reads the rows of a sheet from its XML, in document order.
+   */
+  private class RowIterator implements Iterator<SheetRow> {
+
+    private final InputStream input;
+    private final XMLStreamReader xml;
+    private SheetRow next;
+    private int lastRowNum = -1;
+    private boolean finished = false;
+
+    private RowIterator(PackagePart sheetPart) {
+      try {
+        input = sheetPart.getInputStream();
+        xml = xmlInputFactory.createXMLStreamReader(input);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (XMLStreamException e) {
+        throw new UncheckedIOException(new IOException("Error reading sheet", e));
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !finished) {
+        try {
+          next = readNextRow();
+        } catch (XMLStreamException e) {
+          finish();
+          throw new UncheckedIOException(new IOException("Error reading sheet", e));
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public SheetRow next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      SheetRow row = next;
+      next = null;
+      return row;
+    }
+
+    private SheetRow readNextRow() throws XMLStreamException {
+      while (xml.hasNext()) {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("row")) {
+          return readRow();
+        }
+      }
+      finish();
+      return null;
+    }
+
+    private SheetRow readRow() throws XMLStreamException {
+      String rowReference = xml.getAttributeValue(null, "r");
+      int rowNum = lastRowNum + 1;
+      if (rowReference != null) {
+        rowNum = Integer.parseInt(rowReference) - 1;
+      }
+      lastRowNum = rowNum;
+      List<CellType> types = new ArrayList<>();
+      List<String> values = new ArrayList<>();
+      int column = -1;
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("row")) {
+          break;
+        }
+        if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("c")) {
+          String cellReference = xml.getAttributeValue(null, "r");
+          column = cellReference == null ? column + 1 : getColumnIndex(cellReference);
+          readCell(column, types, values);
+        }
+      }
+      return new SheetRow(rowNum, types.toArray(new CellType[0]), values.toArray(new String[0]));
+    }
+
+    /**
+     * Reads a cell element, recording its type and string value at the specified column. Blank
+     * cells are not recorded.
+     */
+    private void readCell(int column, List<CellType> types, List<String> values)
+        throws XMLStreamException {
+      String dataType = xml.getAttributeValue(null, "t");
+      boolean formula = false;
+      String value = null;
+      StringBuilder inlineValue = null;
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("c")) {
+          break;
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        switch (xml.getLocalName()) {
+          case "f":
+            formula = true;
+            xml.getElementText();
+            break;
+          case "v":
+            value = xml.getElementText();
+            break;
+          case "is":
+            inlineValue = new StringBuilder();
+            break;
+          case "t":
+            if (inlineValue != null) {
+              inlineValue.append(xml.getElementText());
+            }
+            break;
+          case "rPh":
+            skipElement();
+            break;
+          default:
+            break;
+        }
+      }
+
+      CellType type;
+      String stringValue = null;
+      if (formula) {
+        type = CellType.FORMULA;
+      } else if ("s".equals(dataType) && value != null) {
+        type = CellType.STRING;
+        stringValue = sharedStrings.getItemAt(Integer.parseInt(value.trim())).getString();
+      } else if ("inlineStr".equals(dataType)) {
+        type = CellType.STRING;
+        stringValue = inlineValue == null ? "" : inlineValue.toString();
+      } else if ("str".equals(dataType)) {
+        type = CellType.STRING;
+        stringValue = value == null ? "" : value;
+      } else if ("b".equals(dataType)) {
+        type = CellType.BOOLEAN;
+      } else if ("e".equals(dataType)) {
+        type = CellType.ERROR;
+      } else if (value != null) {
+        type = CellType.NUMERIC;
+      } else {
+        // Blank cells are treated as missing.
+        return;
+      }
+      while (types.size() <= column) {
+        types.add(null);
+        values.add(null);
+      }
+      types.set(column, type);
+      values.set(column, stringValue);
+    }
+
+    private void skipElement() throws XMLStreamException {
+      int depth = 1;
+      while (depth > 0 && xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+
+    private void finish() {
+      finished = true;
+      try {
+        xml.close();
+        input.close();
+      } catch (XMLStreamException | IOException e) {
+        // Nothing more will be read from the sheet, so there is nothing to be done.
+      }
+    }
+
+  }
+
+}
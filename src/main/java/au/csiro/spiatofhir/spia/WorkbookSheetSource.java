@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import java.io.IOException;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Provides the rows of a workbook that has been fully loaded into memory, using the POI user
+ * model.
+ *
+ * @author John Grimes
+ */
+public class WorkbookSheetSource implements SheetSource {
+
+  private final Workbook workbook;
+
+  public WorkbookSheetSource(Workbook workbook) {
+    this.workbook = workbook;
+  }
+
+  @Override
+  public Iterable<SheetRow> getSheet(String sheetName) {
+    Sheet sheet = workbook.getSheet(sheetName);
+    return sheet == null ? null : SheetRow.of(sheet);
+  }
+
+  @Override
+  public void close() throws IOException {
+    workbook.close();
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Performs asynchronous lookups against a delegate provider, using a fixed number of worker
+ * threads.
+ * <p>
+ * The number of lookups that can be outstanding at any one time is also bounded. Once that limit
+ * is reached, callers of the asynchronous methods block until an earlier lookup completes, so that
+ * a fast producer cannot flood the terminology server with requests.
+ *
+ * @author John Grimes
+ */
+public class AsyncLookupEngine implements CodeStatusProvider, Closeable {
+
+  private final CodeStatusProvider delegate;
+  private final ExecutorService executor;
+  private final Semaphore outstanding;
+
+  /**
+   * @param concurrency the maximum number of lookups that will be executed concurrently
+   * @param maxOutstanding the maximum number of lookups that can be submitted but not yet
+   * completed, including those that are executing
+   */
+  public AsyncLookupEngine(CodeStatusProvider delegate, int concurrency, int maxOutstanding) {
+    if (concurrency < 1 || maxOutstanding < concurrency) {
+      throw new IllegalArgumentException(
+          "Concurrency must be at least 1, and no greater than the maximum outstanding lookups");
+    }
+    this.delegate = delegate;
+    this.executor = Executors.newFixedThreadPool(concurrency, new LookupThreadFactory());
+    this.outstanding = new Semaphore(maxOutstanding);
+  }
+
+  public AsyncLookupEngine(CodeStatusProvider delegate, int concurrency) {
+    this(delegate, concurrency, concurrency * 2);
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    return delegate.checkActive(system, code);
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    return delegate.checkActive(system, codes);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> checkActiveAsync(String system, String code) {
+    return submit(() -> delegate.checkActive(system, code));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> checkActiveAsync(String system,
+      Collection<String> codes) {
+    return submit(() -> delegate.checkActive(system, codes));
+  }
+
+  private <T> CompletableFuture<T> submit(Supplier<T> lookup) {
+    try {
+      outstanding.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      CompletableFuture<T> result = new CompletableFuture<>();
+      result.completeExceptionally(e);
+      return result;
+    }
+    try {
+      return CompletableFuture.supplyAsync(lookup, executor)
+          .whenComplete((result, error) -> outstanding.release());
+    } catch (RejectedExecutionException e) {
+      outstanding.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops accepting new lookups. Lookups that have already been submitted will still complete.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private static class LookupThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "terminology-lookup-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
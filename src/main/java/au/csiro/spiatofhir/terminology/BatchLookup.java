@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryRequestComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the active status of a collection of codes by sending them to the terminology server as
+ * `batch` Bundles of `$lookup` requests, rather than making a separate round trip for each code.
+ * <p>
+ * Any code that cannot be resolved within a batch is looked up individually, so that the failure
+ * is reported in the same way as it would be for a single lookup.
+ *
+ * @author John Grimes
+ */
+public class BatchLookup {
+
+  public static final int DEFAULT_BATCH_SIZE = 200;
+  private static final Logger logger = LoggerFactory.getLogger(BatchLookup.class);
+  private final TerminologyClient terminologyClient;
+  private final int batchSize;
+
+  public BatchLookup(TerminologyClient terminologyClient) {
+    this(terminologyClient, DEFAULT_BATCH_SIZE);
+  }
+
+  public BatchLookup(TerminologyClient terminologyClient, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+    this.terminologyClient = terminologyClient;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Returns a map of code to active status, optionally against a specific version of the code
+   * system (`version` may be null). Codes that could not be resolved within a batch (e.g.
+   * because the server returned an error for that entry) are looked up individually, and any
+   * error from that lookup is thrown.
+   */
+  public Map<String, Boolean> checkActive(String system, String version,
+      Collection<String> codes) {
+    List<String> distinctCodes = new ArrayList<>(new LinkedHashSet<>(codes));
+    Map<String, Boolean> results = new HashMap<>();
+    for (int start = 0; start < distinctCodes.size(); start += batchSize) {
+      List<String> chunk = distinctCodes
+          .subList(start, Math.min(start + batchSize, distinctCodes.size()));
+      logger.debug("Sending batch of " + chunk.size() + " lookups for " + system);
+      Bundle response = terminologyClient.batch(buildRequest(system, version, chunk));
+      List<BundleEntryComponent> entries = response.getEntry();
+      if (entries.size() != chunk.size()) {
+        logger.warn("Batch response contained " + entries.size() + " entries, expected "
+            + chunk.size());
+      }
+      // Entries within a batch response are in the same order as the entries in the request.
+      for (int i = 0; i < chunk.size(); i++) {
+        BundleEntryComponent entry = i < entries.size() ? entries.get(i) : null;
+        String status = entry != null && entry.hasResponse() ? entry.getResponse().getStatus()
+            : null;
+        if (status == null || !status.startsWith("2")
+            || !(entry.getResource() instanceof Parameters)) {
+          logger.debug("Unable to resolve code in batch, looking up individually: " + chunk.get(i)
+              + " (" + status + ")");
+          results.put(chunk.get(i), lookup(system, version, chunk.get(i)));
+          continue;
+        }
+        results.put(chunk.get(i), LookupResponses.isActive((Parameters) entry.getResource()));
+      }
+    }
+    return results;
+  }
+
+  private boolean lookup(String system, String version, String code) {
+    Parameters result = terminologyClient.lookup(new UriType(system), new CodeType(code),
+        version == null ? null : new StringType(version),
+        Collections.singletonList(new CodeType("inactive")));
+    return LookupResponses.isActive(result);
+  }
+
+  private static Bundle buildRequest(String system, String version, List<String> codes) {
+    Bundle bundle = new Bundle();
+    bundle.setType(BundleType.BATCH);
+    for (String code : codes) {
+      BundleEntryComponent entry = bundle.addEntry();
+      BundleEntryRequestComponent request = new BundleEntryRequestComponent();
+      request.setMethod(HTTPVerb.GET);
+      String url = "CodeSystem/$lookup?system=" + urlEncode(system) + "&code=" + urlEncode(code)
+          + "&property=inactive";
+      if (version != null) {
+        url += "&version=" + urlEncode(version);
+      }
+      request.setUrl(url);
+      entry.setRequest(request);
+    }
+    return bundle;
+  }
+
+  private static String urlEncode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
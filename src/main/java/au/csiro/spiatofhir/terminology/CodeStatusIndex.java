@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.utils.BinaryFiles;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact, read-only index of code to active status, for code systems whose codes can be
+ * represented as non-negative long integers.
+ * <p>
+ * Keys are held in a sorted array and searched using a binary search, and the active flags are
+ * held in a bit set alongside them. An index can be written to disk and memory mapped back in, in
+ * which case lookups are served directly from the mapping without copying the index onto the
+ * heap.
+ *
+ * @author John Grimes
+ */
+public class CodeStatusIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(CodeStatusIndex.class);
+  // "SPIX" in ASCII.
+  private static final int MAGIC = 0x53504958;
+  // Version 2 records a description of the source file that the index was built from.
+  private static final int FORMAT_VERSION = 2;
+  private final LongBuffer keys;
+  private final LongBuffer activeBits;
+  private final int size;
+  private final String source;
+
+  private CodeStatusIndex(LongBuffer keys, LongBuffer activeBits, int size, String source) {
+    this.keys = keys;
+    this.activeBits = activeBits;
+    this.size = size;
+    this.source = source;
+  }
+
+  /**
+   * Returns the active status of the code with the specified key, or null if it is not present
+   * within the index.
+   */
+  public Boolean isActive(long key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midKey = keys.get(mid);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return (activeBits.get(mid >>> 6) & (1L << (mid & 63))) != 0;
+      }
+    }
+    return null;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the description of the source file that was recorded when the index was written, or
+   * null if the index was not loaded from a file.
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * Writes the index to a file, in a form that can be memory mapped by {@link #load(Path)}.
+   *
+   * @param source a description of the file that the index was built from, see
+   * {@link BinaryFiles#describeFile(Path)}
+   */
+  public void write(Path path, String source) throws IOException {
+    BinaryFiles.write(path, output -> {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      BinaryFiles.writeString(output, source);
+      // The keys are aligned to a multiple of 8 bytes from the start of the file.
+      for (int i = output.size(); i % Long.BYTES != 0; i++) {
+        output.writeByte(0);
+      }
+      output.writeLong(size);
+      for (int i = 0; i < size; i++) {
+        output.writeLong(keys.get(i));
+      }
+      for (int i = 0; i < bitSetLength(size); i++) {
+        output.writeLong(activeBits.get(i));
+      }
+    });
+  }
+
+  /**
+   * Memory maps an index that was previously written using {@link #write(Path, String)}.
+   */
+  public static CodeStatusIndex load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      String source;
+      long size;
+      try {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+          throw new IOException("Code status index has an unrecognised format: " + path);
+        }
+        source = BinaryFiles.readString(buffer);
+        buffer.position((buffer.position() + Long.BYTES - 1) / Long.BYTES * Long.BYTES);
+        size = buffer.getLong();
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new IOException("Code status index is truncated or corrupt: " + path);
+      }
+      int headerLength = buffer.position();
+      long expectedLength = headerLength + (size + bitSetLength(size)) * Long.BYTES;
+      if (size < 0 || size > Integer.MAX_VALUE || channel.size() != expectedLength) {
+        throw new IOException("Code status index is truncated or corrupt: " + path);
+      }
+      LongBuffer keys = slice(buffer, headerLength, size);
+      LongBuffer activeBits = slice(buffer, headerLength + size * Long.BYTES, bitSetLength(size));
+      return new CodeStatusIndex(keys, activeBits, (int) size, source);
+    }
+  }
+
+  /**
+   * Loads the index at `indexFile`, building it from `source` first if it does not exist, or if it
+   * was built from a source file with a different path, size or modification time.
+   */
+  public static CodeStatusIndex loadOrBuild(Path indexFile, Path source, IndexReader reader)
+      throws IOException {
+    String description = BinaryFiles.describeFile(source);
+    if (Files.exists(indexFile)) {
+      try {
+        CodeStatusIndex index = load(indexFile);
+        if (description.equals(index.getSource())) {
+          return index;
+        }
+        logger.info("Code status index was built from a different source file, rebuilding: "
+            + indexFile);
+      } catch (IOException e) {
+        logger.warn("Ignoring unusable code status index: " + e.getMessage());
+      }
+    }
+    logger.info("Building code status index from: " + source);
+    CodeStatusIndex index = reader.read(source);
+    index.write(indexFile, description);
+    logger.info("Wrote " + index.size() + " entries to code status index: " + indexFile);
+    return load(indexFile);
+  }
+
+  private static LongBuffer slice(ByteBuffer buffer, long offset, long length) {
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) offset);
+    view.limit((int) (offset + length * Long.BYTES));
+    return view.slice().asLongBuffer();
+  }
+
+  private static int bitSetLength(long size) {
+    return (int) ((size + 63) / 64);
+  }
+
+  /**
+   * Reads a source file (e.g. a release file from a code system distribution) into an index.
+   */
+  public interface IndexReader {
+
+    CodeStatusIndex read(Path source) throws IOException;
+
+  }
+
+  /**
+   * Accumulates keys and their active status, in any order, and then builds them into an index.
+   */
+  public static class Builder {
+
+    // Each key is packed together with its active flag in the lowest bit, so that the entries can
+    // be sorted as primitives.
+    private long[] entries = new long[1024];
+    private int size = 0;
+
+    /**
+     * @param key a non-negative number less than 2^62
+     */
+    public Builder add(long key, boolean active) {
+      if (key < 0 || key >= 1L << 62) {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      }
+      if (size == entries.length) {
+        entries = Arrays.copyOf(entries, size * 2);
+      }
+      entries[size++] = key << 1 | (active ? 1 : 0);
+      return this;
+    }
+
+    public CodeStatusIndex build() {
+      Arrays.sort(entries, 0, size);
+      long[] keys = new long[size];
+      long[] activeBits = new long[bitSetLength(size)];
+      for (int i = 0; i < size; i++) {
+        keys[i] = entries[i] >>> 1;
+        if (i > 0 && keys[i] == keys[i - 1]) {
+          throw new IllegalArgumentException("Duplicate key encountered: " + keys[i]);
+        }
+        if ((entries[i] & 1) != 0) {
+          activeBits[i >>> 6] |= 1L << (i & 63);
+        }
+      }
+      return new CodeStatusIndex(LongBuffer.wrap(keys), LongBuffer.wrap(activeBits), size, null);
+    }
+
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source of information about whether codes are active within their code system.
+ *
+ * @author John Grimes
+ */
+public interface CodeStatusProvider {
+
+  /**
+   * Returns true if the code is active within the specified code system.
+   */
+  boolean checkActive(String system, String code);
+
+  /**
+   * Returns a map of code to active status for a collection of codes. Codes that could not be
+   * resolved may be omitted from the result, in which case callers should fall back to {@link
+   * #checkActive(String, String)}.
+   */
+  Map<String, Boolean> checkActive(String system, Collection<String> codes);
+
+  /**
+   * Asynchronous version of {@link #checkActive(String, String)}. Unless overridden, the lookup is
+   * performed on the calling thread.
+   */
+  default CompletableFuture<Boolean> checkActiveAsync(String system, String code) {
+    return CompletableFuture.completedFuture(checkActive(system, code));
+  }
+
+  /**
+   * Asynchronous version of {@link #checkActive(String, Collection)}. Unless overridden, the
+   * lookups are performed on the calling thread.
+   */
+  default CompletableFuture<Map<String, Boolean>> checkActiveAsync(String system,
+      Collection<String> codes) {
+    return CompletableFuture.completedFuture(checkActive(system, codes));
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An ordered chain of code status providers, each of which is consulted before the next one.
+ * <p>
+ * Each stage is created with a reference to the next stage in the chain, which it consults for any
+ * codes that it cannot answer itself. Caching stages store the results they receive from further
+ * down the chain, so that the result of a lookup is written back into each of the caches above
+ * the stage that was able to answer it.
+ *
+ * @author John Grimes
+ */
+public class CodeStatusProviderChain implements CodeStatusProvider, Closeable {
+
+  private final CodeStatusProvider head;
+  private final List<CodeStatusProvider> stages;
+
+  private CodeStatusProviderChain(List<CodeStatusProvider> stages) {
+    this.head = stages.get(0);
+    this.stages = Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * Builds a chain from a list of stage names, ordered from the first stage to be consulted to the
+   * last.
+   *
+   * @param factory used to create each stage, given its name and the stage that follows it
+   */
+  public static CodeStatusProviderChain build(List<String> stageNames, StageFactory factory)
+      throws IOException {
+    List<CodeStatusProvider> stages = new ArrayList<>();
+    CodeStatusProvider next = null;
+    for (int i = stageNames.size() - 1; i >= 0; i--) {
+      CodeStatusProvider stage = factory.create(stageNames.get(i), next);
+      // A factory may return the next stage unchanged, if the stage is not available within the
+      // current configuration.
+      if (stage != next) {
+        stages.add(0, stage);
+        next = stage;
+      }
+    }
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("Terminology provider chain has no available stages");
+    }
+    return new CodeStatusProviderChain(stages);
+  }
+
+  /**
+   * Returns the stages within the chain, from the first stage to be consulted to the last.
+   */
+  public List<CodeStatusProvider> getStages() {
+    return stages;
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    return head.checkActive(system, code);
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    return head.checkActive(system, codes);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> checkActiveAsync(String system, String code) {
+    return head.checkActiveAsync(system, code);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> checkActiveAsync(String system,
+      Collection<String> codes) {
+    return head.checkActiveAsync(system, codes);
+  }
+
+  /**
+   * Closes each of the stages that hold resources, from the first stage to the last.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException error = null;
+    for (CodeStatusProvider stage : stages) {
+      if (stage instanceof Closeable) {
+        try {
+          ((Closeable) stage).close();
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          } else {
+            error.addSuppressed(e);
+          }
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Creates a named stage within a chain.
+   */
+  public interface StageFactory {
+
+    /**
+     * @param next the stage that follows this one, or null if this is the last stage
+     * @return the new stage, or `next` if the named stage should be left out of the chain
+     */
+    CodeStatusProvider create(String name, CodeStatusProvider next) throws IOException;
+
+  }
+
+}
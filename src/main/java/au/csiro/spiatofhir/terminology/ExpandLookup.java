@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the active status of a collection of codes using `ValueSet/$expand`, rather than a
+ * `$lookup` for each code.
+ * <p>
+ * Each request expands an inline ValueSet that includes each of the codes by enumeration, with
+ * `activeOnly=true`. Codes that appear in the expansion are active, and codes that do not (either
+ * because they are inactive or because they do not exist) are reported as inactive.
+ *
+ * @author John Grimes
+ */
+public class ExpandLookup {
+
+  public static final int DEFAULT_EXPANSION_SIZE = 1000;
+  private static final Logger logger = LoggerFactory.getLogger(ExpandLookup.class);
+  private final TerminologyClient terminologyClient;
+  private final int expansionSize;
+
+  public ExpandLookup(TerminologyClient terminologyClient) {
+    this(terminologyClient, DEFAULT_EXPANSION_SIZE);
+  }
+
+  public ExpandLookup(TerminologyClient terminologyClient, int expansionSize) {
+    if (expansionSize < 1) {
+      throw new IllegalArgumentException("Expansion size must be at least 1");
+    }
+    this.terminologyClient = terminologyClient;
+    this.expansionSize = expansionSize;
+  }
+
+  /**
+   * Returns a map of code to active status, optionally against a specific version of the code
+   * system (`version` may be null). Every code within the collection is present in the result.
+   */
+  public Map<String, Boolean> checkActive(String system, String version,
+      Collection<String> codes) {
+    List<String> distinctCodes = new ArrayList<>(new LinkedHashSet<>(codes));
+    Map<String, Boolean> results = new HashMap<>();
+    for (int start = 0; start < distinctCodes.size(); start += expansionSize) {
+      List<String> chunk = distinctCodes
+          .subList(start, Math.min(start + expansionSize, distinctCodes.size()));
+      logger.debug("Expanding ValueSet of " + chunk.size() + " codes from " + system);
+      ValueSet expansion = terminologyClient
+          .expand(buildValueSet(system, version, chunk), new BooleanType(true),
+              new IntegerType(chunk.size()));
+      Set<String> activeCodes = new HashSet<>();
+      collectCodes(expansion.getExpansion().getContains(), system, activeCodes);
+      for (String code : chunk) {
+        results.put(code, activeCodes.contains(code));
+      }
+    }
+    return results;
+  }
+
+  private static ValueSet buildValueSet(String system, String version, List<String> codes) {
+    ValueSet valueSet = new ValueSet();
+    valueSet.setStatus(PublicationStatus.ACTIVE);
+    ConceptSetComponent include = valueSet.getCompose().addInclude();
+    include.setSystem(system);
+    if (version != null) {
+      include.setVersion(version);
+    }
+    for (String code : codes) {
+      include.addConcept().setCode(code);
+    }
+    return valueSet;
+  }
+
+  private static void collectCodes(List<ValueSetExpansionContainsComponent> contains,
+      String system, Set<String> codes) {
+    for (ValueSetExpansionContainsComponent item : contains) {
+      if (system.equals(item.getSystem()) && item.hasCode()) {
+        codes.add(item.getCode());
+      }
+      collectCodes(item.getContains(), system, codes);
+    }
+  }
+
+}
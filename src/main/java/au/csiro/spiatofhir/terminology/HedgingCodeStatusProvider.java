@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.io.Closeable;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches each request to one of a number of replicas of the terminology server, choosing the
+ * replica with the fewest requests in flight.
+ * <p>
+ * If a request has not completed within a chosen percentile of recent request latencies, a hedged
+ * duplicate is sent to another replica, and whichever answers first is used. The other attempts
+ * are then cancelled. Latencies are tracked separately for single codes and for collections of
+ * codes, as these take very different amounts of time.
+ * <p>
+ * If a request fails with a transient error, it is sent to a replica that has not yet been tried,
+ * and the failure is only reported once all replicas have failed. Any other error (e.g. a 4xx
+ * response) is reported straight away, as another replica would give the same answer. Retries
+ * after a backoff are left to the caller, so that failover to another replica is not delayed by
+ * them.
+ *
+ * @author John Grimes
+ */
+public class HedgingCodeStatusProvider implements CodeStatusProvider, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(HedgingCodeStatusProvider.class);
+  // The number of recent latencies used to calculate the percentile.
+  private static final int LATENCY_WINDOW = 1000;
+  // No requests are hedged until this many latencies have been recorded.
+  private static final int MIN_LATENCY_SAMPLES = 20;
+  private final List<Replica> replicas = new ArrayList<>();
+  private final double percentile;
+  private final ExecutorService executor;
+  private final LongSupplier clock;
+  private final LatencyWindow singleLatencies = new LatencyWindow();
+  private final LatencyWindow batchLatencies = new LatencyWindow();
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hedgedRequests = new AtomicLong();
+
+  /**
+   * @param percentile the percentile of recent latencies after which a request is hedged, between
+   * 0 and 100
+   * @param concurrency the number of requests that are expected to be made concurrently, which
+   * along with the number of replicas determines the number of threads used to make requests
+   */
+  public HedgingCodeStatusProvider(List<CodeStatusProvider> replicas, double percentile,
+      int concurrency) {
+    this(replicas, percentile, concurrency, System::nanoTime);
+  }
+
+  /**
+   * @param clock the source of the times in nanoseconds used to measure latency
+   */
+  HedgingCodeStatusProvider(List<CodeStatusProvider> replicas, double percentile,
+      int concurrency, LongSupplier clock) {
+    if (replicas.isEmpty() || percentile <= 0 || percentile > 100 || concurrency < 1) {
+      throw new IllegalArgumentException(
+          "At least one replica, a percentile between 0 and 100 and a concurrency of at least 1 "
+              + "are required");
+    }
+    replicas.forEach(replica -> this.replicas.add(new Replica(replica)));
+    this.percentile = percentile;
+    this.clock = clock;
+    AtomicInteger threadCount = new AtomicInteger();
+    // Each concurrent request may have an attempt in flight against every replica.
+    this.executor = Executors.newFixedThreadPool(concurrency * replicas.size(), runnable -> {
+      Thread thread = new Thread(runnable, "terminology-replica-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    return dispatch(singleLatencies, replica -> replica.checkActive(system, code));
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    return dispatch(batchLatencies, replica -> replica.checkActive(system, codes));
+  }
+
+  private <T> T dispatch(LatencyWindow latencies, Function<CodeStatusProvider, T> request) {
+    requests.incrementAndGet();
+    BlockingQueue<Attempt<T>> completed = new LinkedBlockingQueue<>();
+    List<Replica> tried = new ArrayList<>();
+    List<Future<?>> attempts = new ArrayList<>();
+    attempts.add(submit(chooseReplica(tried), request, latencies, completed));
+    int outstanding = 1;
+    long hedgeDelay = replicas.size() < 2 ? -1 : latencies.getPercentile(percentile);
+    boolean hedged = hedgeDelay < 0;
+    RuntimeException failure = null;
+    try {
+      while (outstanding > 0) {
+        Attempt<T> attempt;
+        if (hedged) {
+          attempt = completed.take();
+        } else {
+          attempt = completed.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+        }
+        if (attempt == null) {
+          // The request has been outstanding for longer than the chosen percentile.
+          hedged = true;
+          Replica replica = chooseReplica(tried);
+          if (replica != null) {
+            hedgedRequests.incrementAndGet();
+            attempts.add(submit(replica, request, latencies, completed));
+            outstanding++;
+          }
+          continue;
+        }
+        outstanding--;
+        if (attempt.error == null) {
+          return attempt.result;
+        }
+        if (attempt.error instanceof Error) {
+          throw (Error) attempt.error;
+        }
+        RuntimeException error = attempt.error instanceof RuntimeException
+            ? (RuntimeException) attempt.error
+            : new UndeclaredThrowableException(attempt.error);
+        if (!isTransient(error)) {
+          throw error;
+        }
+        if (failure == null) {
+          failure = error;
+        } else {
+          failure.addSuppressed(error);
+        }
+        Replica replica = chooseReplica(tried);
+        if (replica != null) {
+          attempts.add(submit(replica, request, latencies, completed));
+          outstanding++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TerminologyUnavailableException("Interrupted while waiting for terminology server",
+          e);
+    } finally {
+      // Stop any attempts that are still waiting or in progress, so that they do not add to the
+      // load on the replicas.
+      attempts.forEach(attempt -> attempt.cancel(true));
+    }
+    throw failure;
+  }
+
+  /**
+   * Returns the replica with the fewest requests in flight that has not already been tried, or
+   * null if all replicas have been tried. Ties are broken in turn, so that load is spread evenly
+   * when the replicas are idle.
+   */
+  private Replica chooseReplica(List<Replica> tried) {
+    int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+    Replica chosen = null;
+    for (int i = 0; i < replicas.size(); i++) {
+      Replica replica = replicas.get((start + i) % replicas.size());
+      if (!tried.contains(replica) && (chosen == null
+          || replica.inFlight.get() < chosen.inFlight.get())) {
+        chosen = replica;
+      }
+    }
+    if (chosen != null) {
+      tried.add(chosen);
+    }
+    return chosen;
+  }
+
+  private <T> Future<?> submit(Replica replica, Function<CodeStatusProvider, T> request,
+      LatencyWindow latencies, BlockingQueue<Attempt<T>> completed) {
+    replica.inFlight.incrementAndGet();
+    return executor.submit(() -> {
+      long start = clock.getAsLong();
+      try {
+        T result = request.apply(replica.provider);
+        latencies.record(clock.getAsLong() - start);
+        completed.add(new Attempt<>(result, null));
+      } catch (Throwable e) {
+        // Every attempt must be reported, including those that fail with an Error, as the caller
+        // waits for them.
+        completed.add(new Attempt<>(null, e));
+      } finally {
+        replica.inFlight.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Returns the chosen percentile of recent latencies in nanoseconds for single codes or for
+   * collections of codes, or -1 if there are not yet enough latencies to calculate it.
+   */
+  long getHedgeDelay(boolean batch) {
+    return (batch ? batchLatencies : singleLatencies).getPercentile(percentile);
+  }
+
+  /**
+   * Returns true if an error is likely to be specific to the replica or to the time at which the
+   * request was made, such that another replica may succeed.
+   */
+  private static boolean isTransient(RuntimeException e) {
+    return e instanceof TerminologyUnavailableException
+        || ResilientCodeStatusProvider.isRetryable(e);
+  }
+
+  /**
+   * Stops accepting new requests, and logs the number of requests that were hedged.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    logger.info("Terminology replicas: " + hedgedRequests.get() + " of " + requests.get()
+        + " requests hedged");
+  }
+
+  private static class Replica {
+
+    private final CodeStatusProvider provider;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Replica(CodeStatusProvider provider) {
+      this.provider = provider;
+    }
+
+  }
+
+  /**
+   * A window of the most recent latencies of one kind of request.
+   */
+  private static class LatencyWindow {
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int count = 0;
+
+    private synchronized void record(long latency) {
+      latencies[count % LATENCY_WINDOW] = latency;
+      count++;
+    }
+
+    private synchronized long getPercentile(double percentile) {
+      if (count < MIN_LATENCY_SAMPLES) {
+        return -1;
+      }
+      long[] window = Arrays.copyOf(latencies, Math.min(count, LATENCY_WINDOW));
+      Arrays.sort(window);
+      int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+      return window[Math.max(index, 0)];
+    }
+
+  }
+
+  private static class Attempt<T> {
+
+    private final T result;
+    private final Throwable error;
+
+    private Attempt(T result, Throwable error) {
+      this.result = result;
+      this.error = error;
+    }
+
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers status checks for a single code system from a local {@link CodeStatusIndex}, without
+ * making any network calls.
+ * <p>
+ * Checks for other code systems are passed on to the delegate provider, as are codes that are not
+ * present within the index. If there is no delegate, codes that are not present within the index
+ * are reported as inactive.
+ *
+ * @author John Grimes
+ */
+public class IndexedCodeStatusProvider implements CodeStatusProvider {
+
+  private static final Logger logger = LoggerFactory.getLogger(IndexedCodeStatusProvider.class);
+  private final String system;
+  private final CodeStatusIndex index;
+  private final Function<String, Long> toKey;
+  private final CodeStatusProvider delegate;
+
+  /**
+   * @param toKey converts a code into its key within the index, returning null if the code cannot
+   * be represented as a key
+   * @param delegate the provider used for other code systems and for codes not present within the
+   * index, may be null
+   */
+  public IndexedCodeStatusProvider(String system, CodeStatusIndex index,
+      Function<String, Long> toKey, CodeStatusProvider delegate) {
+    this.system = system;
+    this.index = index;
+    this.toKey = toKey;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    if (!this.system.equals(system)) {
+      return requireDelegate(system).checkActive(system, code);
+    }
+    Boolean active = lookup(code);
+    if (active != null) {
+      return active;
+    }
+    if (delegate == null) {
+      logger.warn("Code not found in offline index: " + code);
+      return false;
+    }
+    return delegate.checkActive(system, code);
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    if (!this.system.equals(system)) {
+      return requireDelegate(system).checkActive(system, codes);
+    }
+    Map<String, Boolean> results = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String code : codes) {
+      Boolean active = lookup(code);
+      if (active == null) {
+        missing.add(code);
+      } else {
+        results.put(code, active);
+      }
+    }
+    if (!missing.isEmpty()) {
+      if (delegate == null) {
+        missing.forEach(code -> {
+          logger.warn("Code not found in offline index: " + code);
+          results.put(code, false);
+        });
+      } else {
+        results.putAll(delegate.checkActive(system, missing));
+      }
+    }
+    return results;
+  }
+
+  private Boolean lookup(String code) {
+    Long key = toKey.apply(code);
+    return key == null ? null : index.isActive(key);
+  }
+
+  private CodeStatusProvider requireDelegate(String system) {
+    if (delegate == null) {
+      throw new IllegalStateException("No source of code status available for system: " + system);
+    }
+    return delegate;
+  }
+
+}
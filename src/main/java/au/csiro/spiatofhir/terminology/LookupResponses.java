@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Parameters;
+
+/**
+ * Utilities for interpreting the responses to `$lookup` requests made against a FHIR terminology
+ * server.
+ *
+ * @author John Grimes
+ */
+public abstract class LookupResponses {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * Returns true unless the supplied `$lookup` response contains an `inactive` property with a
+   * value of true.
+   * <p>
+   * The value of the property is accepted within a part named either `value` (as defined by the
+   * FHIR specification) or `valueBoolean`.
+   */
+  public static boolean isActive(Parameters result) {
+    if (result.getParameter() == null) {
+      return true;
+    }
+    Optional<Parameters.ParametersParameterComponent> parameter = result.getParameter().stream()
+        .filter(p -> {
+          boolean isProperty = p.getName().equals("property");
+          Optional<Parameters.ParametersParameterComponent> codePart = p.getPart().stream()
+              .filter(
+                  pp -> pp.getName().equals("code") && ((CodeType) pp.getValue()).asStringValue()
+                      .equals("inactive"))
+              .findFirst();
+          Optional<Parameters.ParametersParameterComponent> valuePart = p.getPart().stream()
+              .filter(pp -> isValuePart(pp.getName()) && pp.getValue() instanceof BooleanType
+                  && ((BooleanType) pp.getValue()).booleanValue())
+              .findFirst();
+          return isProperty && codePart.isPresent() && valuePart.isPresent();
+        })
+        .findFirst();
+    return !parameter.isPresent();
+  }
+
+  /**
+   * Reads a `$lookup` response in JSON format using a streaming parser, without building a
+   * Parameters resource. Applies the same rule as {@link #isActive(Parameters)}.
+   * <p>
+   * Returns null if the response does not have the expected shape, in which case the caller should
+   * fall back to parsing the full resource.
+   */
+  public static Boolean readActive(InputStream json) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      boolean isParameters = false;
+      boolean inactive = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("resourceType")) {
+          isParameters = value == JsonToken.VALUE_STRING && parser.getText().equals("Parameters");
+        } else if (field.equals("parameter")) {
+          if (value != JsonToken.START_ARRAY) {
+            return null;
+          }
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Boolean parameterInactive = readParameter(parser);
+            if (parameterInactive == null) {
+              return null;
+            }
+            inactive = inactive || parameterInactive;
+          }
+          if (parser.currentToken() != JsonToken.END_ARRAY) {
+            return null;
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return isParameters ? !inactive : null;
+    }
+  }
+
+  /**
+   * Reads a single parameter, returning true if it is an `inactive` property with a value of true,
+   * or null if it has an unexpected shape.
+   */
+  private static Boolean readParameter(JsonParser parser) throws IOException {
+    boolean isProperty = false;
+    boolean hasInactiveCode = false;
+    boolean hasTrueValue = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (field.equals("name")) {
+        isProperty = value == JsonToken.VALUE_STRING && parser.getText().equals("property");
+      } else if (field.equals("part")) {
+        if (value != JsonToken.START_ARRAY) {
+          return null;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          String name = null;
+          String code = null;
+          Boolean booleanValue = null;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String partField = parser.getCurrentName();
+            JsonToken partValue = parser.nextToken();
+            if (partField.equals("name") && partValue == JsonToken.VALUE_STRING) {
+              name = parser.getText();
+            } else if (partField.equals("valueCode") && partValue == JsonToken.VALUE_STRING) {
+              code = parser.getText();
+            } else if (partField.equals("valueBoolean") && partValue.isBoolean()) {
+              booleanValue = partValue == JsonToken.VALUE_TRUE;
+            } else {
+              parser.skipChildren();
+            }
+          }
+          if ("code".equals(name)) {
+            hasInactiveCode = hasInactiveCode || "inactive".equals(code);
+          } else if (name != null && isValuePart(name)) {
+            hasTrueValue = hasTrueValue || Boolean.TRUE.equals(booleanValue);
+          }
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+          return null;
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return isProperty && hasInactiveCode && hasTrueValue;
+  }
+
+  private static boolean isValuePart(String name) {
+    return name.equals("value") || name.equals("valueBoolean");
+  }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory memo of code status results, intended to be shared by all of the reference set
+ * parsers within a run.
+ * <p>
+ * Concurrent requests for the same system and code are collapsed into a single request to the
+ * delegate provider: the first caller performs the lookup, and any other callers wait for its
+ * result.
+ *
+ * @author John Grimes
+ */
+public class MemoizingCodeStatusProvider implements CodeStatusProvider {
+
+  private static final Logger logger = LoggerFactory.getLogger(MemoizingCodeStatusProvider.class);
+  private final CodeStatusProvider delegate;
+  // A future that completes with null indicates that the delegate was unable to resolve the code
+  // within a batch, and that the caller should look it up for itself.
+  private final Map<Key, CompletableFuture<Boolean>> results = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public MemoizingCodeStatusProvider(CodeStatusProvider delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    Key key = new Key(system, code);
+    CompletableFuture<Boolean> result = new CompletableFuture<>();
+    CompletableFuture<Boolean> existing = results.putIfAbsent(key, result);
+    if (existing != null) {
+      hits.incrementAndGet();
+      Boolean active = await(existing);
+      return active == null ? checkActive(system, code) : active;
+    }
+    misses.incrementAndGet();
+    try {
+      boolean active = delegate.checkActive(system, code);
+      result.complete(active);
+      return active;
+    } catch (RuntimeException e) {
+      // Do not memoise failures, so that a later request can try again.
+      results.remove(key, result);
+      result.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    Map<String, CompletableFuture<Boolean>> owned = new HashMap<>();
+    Map<String, CompletableFuture<Boolean>> inFlight = new HashMap<>();
+    for (String code : new LinkedHashSet<>(codes)) {
+      CompletableFuture<Boolean> result = new CompletableFuture<>();
+      CompletableFuture<Boolean> existing = results.putIfAbsent(new Key(system, code), result);
+      if (existing == null) {
+        owned.put(code, result);
+      } else {
+        inFlight.put(code, existing);
+      }
+    }
+    hits.addAndGet(inFlight.size());
+    misses.addAndGet(owned.size());
+
+    Map<String, Boolean> resolved = new HashMap<>();
+    if (!owned.isEmpty()) {
+      try {
+        resolved.putAll(delegate.checkActive(system, new ArrayList<>(owned.keySet())));
+      } catch (RuntimeException e) {
+        owned.forEach((code, result) -> {
+          results.remove(new Key(system, code), result);
+          result.completeExceptionally(e);
+        });
+        throw e;
+      }
+      owned.forEach((code, result) -> {
+        Boolean active = resolved.get(code);
+        if (active == null) {
+          results.remove(new Key(system, code), result);
+        }
+        result.complete(active);
+      });
+    }
+    inFlight.forEach((code, result) -> {
+      Boolean active = await(result);
+      if (active != null) {
+        resolved.put(code, active);
+      }
+    });
+    return resolved;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Logs the number of requests that were answered by the memo, as opposed to the delegate.
+   */
+  public void logStatistics() {
+    long total = hits.get() + misses.get();
+    double hitRate = total == 0 ? 0 : (double) hits.get() / total * 100;
+    logger.info(String.format("Code status memo: %d hits, %d misses (%.1f%% hit rate)",
+        hits.get(), misses.get(), hitRate));
+  }
+
+  private static Boolean await(CompletableFuture<Boolean> result) {
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static class Key {
+
+    private final String system;
+    private final String code;
+
+    private Key(String system, String code) {
+      this.system = system;
+      this.code = code;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return system.equals(key.system) && code.equals(key.code);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(system, code);
+    }
+
+  }
+
+}
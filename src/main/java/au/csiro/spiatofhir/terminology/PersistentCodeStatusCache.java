@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import static au.csiro.spiatofhir.utils.BinaryFiles.readString;
+import static au.csiro.spiatofhir.utils.BinaryFiles.writeString;
+
+import au.csiro.spiatofhir.utils.BinaryFiles;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of code status results that is persisted to disk, so that it can be shared between
+ * builds. Results are keyed by system, code system version and code, and expire after a
+ * configurable time to live. Lookups that miss the cache are passed on to the delegate provider.
+ * <p>
+ * The cache file is read using a memory mapping when the cache is created, and rewritten when it
+ * is closed if any new results have been added.
+ * <p>
+ * The cache can optionally retain expired results, and fall back to them if the delegate fails.
+ *
+ * @author John Grimes
+ */
+public class PersistentCodeStatusCache implements CodeStatusProvider, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(PersistentCodeStatusCache.class);
+  // "SPTC" in ASCII.
+  private static final int MAGIC = 0x53505443;
+  private static final int FORMAT_VERSION = 1;
+  private final CodeStatusProvider delegate;
+  private final Path path;
+  private final Duration ttl;
+  private final Map<String, String> versions;
+  private final boolean staleFallback;
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong staleResults = new AtomicLong();
+  private volatile boolean dirty = false;
+
+  /**
+   * @param versions the code system version in use for each system URI, used to partition the
+   * cache so that results from one version are not returned for another
+   * @param staleFallback if true, expired results are retained and returned when the delegate
+   * fails
+   */
+  public PersistentCodeStatusCache(CodeStatusProvider delegate, Path path, Duration ttl,
+      Map<String, String> versions, boolean staleFallback) throws IOException {
+    this.delegate = delegate;
+    this.path = path;
+    this.ttl = ttl;
+    this.versions = versions;
+    this.staleFallback = staleFallback;
+    load();
+  }
+
+  public PersistentCodeStatusCache(CodeStatusProvider delegate, Path path, Duration ttl,
+      Map<String, String> versions) throws IOException {
+    this(delegate, path, ttl, versions, false);
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    Key key = new Key(system, versions.get(system), code);
+    Entry entry = getUnexpired(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.active;
+    }
+    misses.incrementAndGet();
+    boolean active;
+    try {
+      active = delegate.checkActive(system, code);
+    } catch (RuntimeException e) {
+      Entry stale = staleFallback ? entries.get(key) : null;
+      if (stale == null) {
+        throw e;
+      }
+      logger.warn("Using expired result for " + system + "|" + code + ": " + e.getMessage());
+      staleResults.incrementAndGet();
+      return stale.active;
+    }
+    put(key, active);
+    return active;
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    String version = versions.get(system);
+    Map<String, Boolean> results = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String code : codes) {
+      Entry entry = getUnexpired(new Key(system, version, code));
+      if (entry == null) {
+        missing.add(code);
+      } else {
+        results.put(code, entry.active);
+      }
+    }
+    hits.addAndGet(results.size());
+    misses.addAndGet(missing.size());
+    if (!missing.isEmpty()) {
+      Map<String, Boolean> resolved;
+      try {
+        resolved = delegate.checkActive(system, missing);
+      } catch (RuntimeException e) {
+        if (!staleFallback) {
+          throw e;
+        }
+        // Return whatever expired results are available, the remaining codes will be retried
+        // individually by the caller.
+        logger.warn("Using expired results for " + missing.size() + " codes: " + e.getMessage());
+        for (String code : missing) {
+          Entry stale = entries.get(new Key(system, version, code));
+          if (stale != null) {
+            staleResults.incrementAndGet();
+            results.put(code, stale.active);
+          }
+        }
+        return results;
+      }
+      resolved.forEach((code, active) -> put(new Key(system, version, code), active));
+      results.putAll(resolved);
+    }
+    return results;
+  }
+
+  /**
+   * Writes the cache back to disk if it has changed, and logs the hit rate for this run.
+   */
+  @Override
+  public void close() throws IOException {
+    logger.info("Terminology cache: " + hits.get() + " hits, " + misses.get() + " misses, "
+        + staleResults.get() + " expired results used");
+    if (dirty) {
+      save();
+    }
+  }
+
+  private Entry getUnexpired(Key key) {
+    Entry entry = entries.get(key);
+    return entry == null || isExpired(entry) ? null : entry;
+  }
+
+  private boolean isExpired(Entry entry) {
+    return System.currentTimeMillis() - entry.storedAt > ttl.toMillis();
+  }
+
+  private void put(Key key, boolean active) {
+    entries.put(key, new Entry(active, System.currentTimeMillis()));
+    dirty = true;
+  }
+
+  private void load() throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        logger.warn("Ignoring terminology cache with unrecognised format: " + path);
+        return;
+      }
+      int partitionCount = buffer.getInt();
+      // Each partition takes at least four bytes, for the lengths of its system and version.
+      if (partitionCount < 0 || partitionCount > buffer.remaining() / 4) {
+        ignore("corrupt");
+        return;
+      }
+      String[][] partitions = new String[partitionCount][];
+      for (int i = 0; i < partitionCount; i++) {
+        String system = readString(buffer);
+        String version = readString(buffer);
+        partitions[i] = new String[]{system, version.isEmpty() ? null : version};
+      }
+      int entryCount = buffer.getInt();
+      if (entryCount < 0) {
+        ignore("corrupt");
+        return;
+      }
+      int expired = 0;
+      for (int i = 0; i < entryCount; i++) {
+        int partitionIndex = buffer.getShort() & 0xFFFF;
+        if (partitionIndex >= partitionCount) {
+          ignore("corrupt");
+          return;
+        }
+        String[] partition = partitions[partitionIndex];
+        String code = readString(buffer);
+        boolean active = buffer.get() != 0;
+        Entry entry = new Entry(active, buffer.getLong());
+        if (isExpired(entry)) {
+          expired++;
+          if (!staleFallback) {
+            continue;
+          }
+        }
+        entries.put(new Key(partition[0], partition[1], code), entry);
+      }
+      logger.info("Loaded " + entryCount + " entries from terminology cache (" + expired
+          + " expired): " + path);
+    } catch (BufferUnderflowException e) {
+      ignore("truncated");
+    }
+  }
+
+  /**
+   * Discards any entries loaded from a cache file that cannot be used.
+   */
+  private void ignore(String problem) {
+    logger.warn("Ignoring " + problem + " terminology cache: " + path);
+    entries.clear();
+  }
+
+  private void save() throws IOException {
+    // Group the entries by system and version, so that each of these only needs to be written
+    // once. Expired entries are only retained if they may be needed as a fallback.
+    Map<Key, List<Map.Entry<Key, Entry>>> partitions = new LinkedHashMap<>();
+    for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+      if (!staleFallback && isExpired(entry.getValue())) {
+        continue;
+      }
+      Key partition = new Key(entry.getKey().system, entry.getKey().version, null);
+      partitions.computeIfAbsent(partition, p -> new ArrayList<>()).add(entry);
+    }
+    if (partitions.size() > 0xFFFF) {
+      throw new IOException("Too many code systems to persist in terminology cache");
+    }
+    int entryCount = partitions.values().stream().mapToInt(List::size).sum();
+    BinaryFiles.write(path, output -> {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(partitions.size());
+      for (Key partition : partitions.keySet()) {
+        writeString(output, partition.system);
+        writeString(output, partition.version == null ? "" : partition.version);
+      }
+      output.writeInt(entryCount);
+      int partitionIndex = 0;
+      for (List<Map.Entry<Key, Entry>> partitionEntries : partitions.values()) {
+        for (Map.Entry<Key, Entry> entry : partitionEntries) {
+          output.writeShort(partitionIndex);
+          writeString(output, entry.getKey().code);
+          output.writeByte(entry.getValue().active ? 1 : 0);
+          output.writeLong(entry.getValue().storedAt);
+        }
+        partitionIndex++;
+      }
+    });
+    dirty = false;
+    logger.info("Saved " + entryCount + " entries to terminology cache: " + path);
+  }
+
+  private static class Key {
+
+    private final String system;
+    private final String version;
+    private final String code;
+
+    private Key(String system, String version, String code) {
+      this.system = system;
+      this.version = version;
+      this.code = code;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return system.equals(key.system) && Objects.equals(version, key.version) && Objects
+          .equals(code, key.code);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(system, version, code);
+    }
+
+  }
+
+  private static class Entry {
+
+    private final boolean active;
+    private final long storedAt;
+
+    private Entry(boolean active, long storedAt) {
+      this.active = active;
+      this.storedAt = storedAt;
+    }
+
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+
+/**
+ * Checks the status of codes using `$lookup` requests against a FHIR terminology server.
+ * <p>
+ * Collections of codes are resolved either using batches of `$lookup` requests, or using
+ * `ValueSet/$expand` requests, depending upon the {@link BatchMode}. Single codes can optionally be
+ * looked up using a {@link StreamingLookup}, which avoids building a Parameters resource for each
+ * response.
+ *
+ * @author John Grimes
+ */
+public class RemoteCodeStatusProvider implements CodeStatusProvider {
+
+  private final TerminologyClient terminologyClient;
+  private final Map<String, String> versions;
+  private final BatchMode batchMode;
+  private final BatchLookup batchLookup;
+  private final ExpandLookup expandLookup;
+  private final StreamingLookup streamingLookup;
+
+  /**
+   * @param versions the code system version to request for each system URI, systems without an
+   * entry will be looked up using the default version on the server
+   * @param streamingLookup used for looking up single codes, if null these are looked up using the
+   * terminology client
+   */
+  public RemoteCodeStatusProvider(TerminologyClient terminologyClient,
+      Map<String, String> versions, BatchMode batchMode, StreamingLookup streamingLookup) {
+    this.terminologyClient = terminologyClient;
+    this.versions = versions;
+    this.batchMode = batchMode;
+    this.batchLookup = new BatchLookup(terminologyClient);
+    this.expandLookup = new ExpandLookup(terminologyClient);
+    this.streamingLookup = streamingLookup;
+  }
+
+  public RemoteCodeStatusProvider(TerminologyClient terminologyClient,
+      Map<String, String> versions, BatchMode batchMode) {
+    this(terminologyClient, versions, batchMode, null);
+  }
+
+  public RemoteCodeStatusProvider(TerminologyClient terminologyClient,
+      Map<String, String> versions) {
+    this(terminologyClient, versions, BatchMode.LOOKUP);
+  }
+
+  public RemoteCodeStatusProvider(TerminologyClient terminologyClient) {
+    this(terminologyClient, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    if (streamingLookup != null) {
+      return streamingLookup.checkActive(system, versions.get(system), code);
+    }
+    UriType systemParam = new UriType(system);
+    CodeType codeParam = new CodeType(code);
+    String version = versions.get(system);
+    StringType versionParam = version == null ? null : new StringType(version);
+    List<CodeType> propertyParam = Collections.singletonList(new CodeType("inactive"));
+    Parameters result = terminologyClient
+        .lookup(systemParam, codeParam, versionParam, propertyParam);
+    return LookupResponses.isActive(result);
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    if (batchMode == BatchMode.EXPAND) {
+      return expandLookup.checkActive(system, versions.get(system), codes);
+    }
+    return batchLookup.checkActive(system, versions.get(system), codes);
+  }
+
+  /**
+   * The method used to resolve collections of codes.
+   */
+  public enum BatchMode {
+    /**
+     * A `batch` Bundle of `$lookup` requests, see {@link BatchLookup}.
+     */
+    LOOKUP,
+    /**
+     * An `$expand` of an inline ValueSet, see {@link ExpandLookup}.
+     */
+    EXPAND
+  }
+
+}
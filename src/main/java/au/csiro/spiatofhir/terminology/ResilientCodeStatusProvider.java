@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects a provider that makes requests to a terminology server against transient failures.
+ * <p>
+ * Requests that fail with a connection error, or a status of 429, 502, 503 or 504, are retried
+ * after an exponential backoff with full jitter, as are requests to a delegate that reports that
+ * the terminology server is unavailable. Once the time budget for the run has been used up, no
+ * further requests are made.
+ * <p>
+ * A circuit breaker is also maintained across all requests. After a number of consecutive failed
+ * requests it opens, and requests fail immediately until it has been open for a period of time.
+ * After that, a single trial request is let through, which closes the circuit again if it
+ * succeeds.
+ *
+ * @author John Grimes
+ */
+public class ResilientCodeStatusProvider implements CodeStatusProvider, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResilientCodeStatusProvider.class);
+  private final CodeStatusProvider delegate;
+  private final int maxAttempts;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final long deadline;
+  private final int failureThreshold;
+  private final long openDuration;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicBoolean trialInProgress = new AtomicBoolean();
+  private volatile long openedAt = -1;
+
+  /**
+   * @param maxAttempts the maximum number of attempts made for each request, including the first
+   * @param initialBackoff the upper bound of the delay before the first retry, which doubles with
+   * each subsequent retry
+   * @param maxBackoff the maximum upper bound of the delay before a retry
+   * @param timeBudget the total time, starting now, within which requests can be made
+   * @param failureThreshold the number of consecutive failed requests after which the circuit
+   * opens
+   * @param openDuration the time for which the circuit stays open before a trial request is let
+   * through
+   */
+  public ResilientCodeStatusProvider(CodeStatusProvider delegate, int maxAttempts,
+      Duration initialBackoff, Duration maxBackoff, Duration timeBudget, int failureThreshold,
+      Duration openDuration) {
+    if (maxAttempts < 1 || failureThreshold < 1) {
+      throw new IllegalArgumentException(
+          "Maximum attempts and failure threshold must be at least 1");
+    }
+    this.delegate = delegate;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff.toMillis();
+    this.maxBackoff = maxBackoff.toMillis();
+    this.deadline = System.currentTimeMillis() + timeBudget.toMillis();
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration.toMillis();
+  }
+
+  @Override
+  public boolean checkActive(String system, String code) {
+    return execute(() -> delegate.checkActive(system, code));
+  }
+
+  @Override
+  public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+    return execute(() -> delegate.checkActive(system, codes));
+  }
+
+  /**
+   * Closes the delegate, if it holds resources.
+   */
+  @Override
+  public void close() throws IOException {
+    if (delegate instanceof Closeable) {
+      ((Closeable) delegate).close();
+    }
+  }
+
+  private <T> T execute(Supplier<T> request) {
+    for (int attempt = 1; ; attempt++) {
+      boolean trial = acquirePermission();
+      try {
+        T result = request.get();
+        onSuccess(trial);
+        return result;
+      } catch (RuntimeException e) {
+        if (!isRetryable(e)) {
+          // The server is responding, so this does not count towards opening the circuit.
+          onSuccess(trial);
+          throw e;
+        }
+        onFailure(trial);
+        if (attempt >= maxAttempts) {
+          throw new TerminologyUnavailableException(
+              "Terminology request failed after " + attempt + " attempts", e);
+        }
+        long backoff = ThreadLocalRandom.current()
+            .nextLong(Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30)) + 1);
+        if (System.currentTimeMillis() + backoff >= deadline) {
+          throw new TerminologyUnavailableException(
+              "Terminology request failed and time budget does not allow a retry", e);
+        }
+        logger.warn("Terminology request failed (attempt " + attempt + " of " + maxAttempts
+            + "), retrying in " + backoff + " ms: " + e.getMessage());
+        sleep(backoff, e);
+      }
+    }
+  }
+
+  /**
+   * Checks that a request can be made, throwing an exception if it cannot. Returns true if the
+   * request is the trial request made after the circuit has been open.
+   */
+  private boolean acquirePermission() {
+    if (System.currentTimeMillis() >= deadline) {
+      throw new TerminologyUnavailableException("Time budget for terminology requests exhausted");
+    }
+    long opened = openedAt;
+    if (opened < 0) {
+      return false;
+    }
+    if (System.currentTimeMillis() - opened >= openDuration && trialInProgress
+        .compareAndSet(false, true)) {
+      return true;
+    }
+    throw new TerminologyUnavailableException(
+        "Terminology server is unavailable, after " + consecutiveFailures.get()
+            + " consecutive failed requests");
+  }
+
+  private void onSuccess(boolean trial) {
+    consecutiveFailures.set(0);
+    if (openedAt >= 0) {
+      logger.info("Terminology server has recovered, closing circuit");
+      openedAt = -1;
+    }
+    if (trial) {
+      trialInProgress.set(false);
+    }
+  }
+
+  private void onFailure(boolean trial) {
+    int failures = consecutiveFailures.incrementAndGet();
+    if (trial || failures == failureThreshold) {
+      logger.warn("Terminology server has failed " + failures
+          + " consecutive requests, opening circuit for " + openDuration + " ms");
+      openedAt = System.currentTimeMillis();
+    }
+    if (trial) {
+      trialInProgress.set(false);
+    }
+  }
+
+  /**
+   * Returns true if the error may not occur if the request is made again.
+   */
+  static boolean isRetryable(RuntimeException e) {
+    if (e instanceof FhirClientConnectionException
+        || e instanceof TerminologyUnavailableException) {
+      return true;
+    }
+    if (e instanceof BaseServerResponseException) {
+      int status = ((BaseServerResponseException) e).getStatusCode();
+      return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+    return false;
+  }
+
+  private static void sleep(long millis, RuntimeException cause) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TerminologyUnavailableException("Interrupted while waiting to retry", cause);
+    }
+  }
+
+}
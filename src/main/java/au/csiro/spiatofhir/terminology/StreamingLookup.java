@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.IRestfulClient;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.client.exceptions.InvalidResponseException;
+import ca.uhn.fhir.rest.client.impl.BaseClient;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URISyntaxException;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
+import org.hl7.fhir.r4.model.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes `$lookup` requests directly over HTTP, and reads the responses using a streaming JSON
+ * parser rather than the HAPI resource model.
+ * <p>
+ * Each response is parsed as it is read from the connection, without buffering it first. Responses
+ * that do not have the expected shape are requested again and parsed into a Parameters resource,
+ * and interpreted in the same way as responses received through the HAPI client.
+ * <p>
+ * Requests do not pass through the HAPI client, so any interceptors registered with it are not
+ * invoked.
+ *
+ * @author John Grimes
+ */
+public class StreamingLookup {
+
+  private static final Logger logger = LoggerFactory.getLogger(StreamingLookup.class);
+  private final HttpClient httpClient;
+  private final String baseUrl;
+  private final FhirContext fhirContext;
+
+  /**
+   * @param fhirContext used to parse responses that cannot be read by the streaming parser
+   */
+  public StreamingLookup(HttpClient httpClient, String baseUrl, FhirContext fhirContext) {
+    this.httpClient = httpClient;
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.fhirContext = fhirContext;
+  }
+
+  /**
+   * Returns a streaming lookup that shares the connection pool of a HAPI client, or null if the
+   * client is not based upon Apache HttpClient, or has interceptors that would be bypassed.
+   */
+  public static StreamingLookup forClient(FhirContext fhirContext, IRestfulClient client) {
+    if (!(fhirContext.getRestfulClientFactory() instanceof ApacheRestfulClientFactory)) {
+      return null;
+    }
+    if (!getInterceptorService(client).getAllRegisteredInterceptors().isEmpty()) {
+      logger.info("Terminology client has interceptors, streaming lookups will not be used");
+      return null;
+    }
+    ApacheRestfulClientFactory clientFactory = (ApacheRestfulClientFactory) fhirContext
+        .getRestfulClientFactory();
+    return new StreamingLookup(clientFactory.getNativeHttpClient(), client.getServerBase(),
+        fhirContext);
+  }
+
+  /**
+   * Clients created from an annotated interface do not answer `getInterceptorService` themselves,
+   * but are backed by a BaseClient that holds the interceptors.
+   */
+  private static IInterceptorService getInterceptorService(IRestfulClient client) {
+    if (Proxy.isProxyClass(client.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(client);
+      if (handler instanceof BaseClient) {
+        return ((BaseClient) handler).getInterceptorService();
+      }
+    }
+    return client.getInterceptorService();
+  }
+
+  /**
+   * Returns true if the code is active, optionally against a specific version of the code system
+   * (`version` may be null).
+   */
+  public boolean checkActive(String system, String version, String code) {
+    Boolean active = execute(system, version, code, LookupResponses::readActive);
+    if (active != null) {
+      return active;
+    }
+    logger.debug("Falling back to resource model for $lookup response: " + system + "|" + code);
+    return execute(system, version, code, body -> LookupResponses.isActive(
+        fhirContext.newJsonParser().parseResource(Parameters.class, body)));
+  }
+
+  /**
+   * Makes a `$lookup` request, and reads a successful response from the connection using the
+   * supplied reader.
+   */
+  private <T> T execute(String system, String version, String code, ResponseReader<T> reader) {
+    HttpGet request = new HttpGet(buildUri(system, version, code));
+    request.setHeader("Accept", "application/fhir+json");
+    HttpResponse response;
+    try {
+      response = httpClient.execute(request);
+    } catch (IOException e) {
+      throw new FhirClientConnectionException(e);
+    }
+    int status = response.getStatusLine().getStatusCode();
+    try {
+      if (status < 200 || status >= 300) {
+        throw BaseServerResponseException
+            .newInstance(status, "$lookup failed for " + system + "|" + code + ": "
+                + response.getStatusLine().getReasonPhrase());
+      }
+      if (response.getEntity() == null) {
+        throw new InvalidResponseException(status,
+            "Empty $lookup response for " + system + "|" + code);
+      }
+      try (InputStream body = response.getEntity().getContent()) {
+        return reader.read(body);
+      }
+    } catch (JsonProcessingException | DataFormatException e) {
+      throw new InvalidResponseException(status,
+          "Unable to parse $lookup response for " + system + "|" + code, e);
+    } catch (IOException e) {
+      throw new FhirClientConnectionException(e);
+    } finally {
+      EntityUtils.consumeQuietly(response.getEntity());
+    }
+  }
+
+  private URI buildUri(String system, String version, String code) {
+    try {
+      URIBuilder builder = new URIBuilder(baseUrl + "/CodeSystem/$lookup")
+          .addParameter("system", system)
+          .addParameter("code", code)
+          .addParameter("property", "inactive");
+      if (version != null) {
+        builder.addParameter("version", version);
+      }
+      return builder.build();
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Invalid terminology server URL: " + baseUrl, e);
+    }
+  }
+
+  private interface ResponseReader<T> {
+
+    T read(InputStream body) throws IOException;
+
+  }
+
+}
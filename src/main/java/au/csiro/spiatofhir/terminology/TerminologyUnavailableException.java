@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+/**
+ * Thrown when a terminology server request cannot be made or has failed permanently, e.g. because
+ * the server has been failing repeatedly or the time budget for requests has been exhausted.
+ *
+ * @author John Grimes
+ */
+public class TerminologyUnavailableException extends RuntimeException {
+
+  public TerminologyUnavailableException(String message) {
+    super(message);
+  }
+
+  public TerminologyUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Utilities for the binary files that are kept between runs, such as caches and snapshots.
+ *
+ * @author John Grimes
+ */
+public abstract class BinaryFiles {
+
+  /**
+   * Writes a file by way of a temporary file within the same directory, which replaces the file
+   * only once it has been written in full. If writing fails, the existing file is left as it was.
+   */
+  public static void write(Path path, Content content) throws IOException {
+    PendingFile file = new PendingFile(path);
+    try {
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(file.newOutputStream()))) {
+        content.write(output);
+      }
+      file.commit();
+    } finally {
+      file.discard();
+    }
+  }
+
+  /**
+   * Describes a file by its absolute path, size and modification time, so that a change to its
+   * content can be detected without reading it.
+   */
+  public static String describeFile(Path path) throws IOException {
+    return path.toAbsolutePath() + "|" + Files.size(path) + "|"
+        + Files.getLastModifiedTime(path).toMillis();
+  }
+
+  /**
+   * Writes a UTF-8 string of up to 65535 bytes, preceded by its length.
+   */
+  public static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xFFFF) {
+      throw new IOException("String is too long to be written: " + bytes.length + " bytes");
+    }
+    output.writeShort(bytes.length);
+    output.write(bytes);
+  }
+
+  /**
+   * Reads a string that was written using {@link #writeString(DataOutputStream, String)}.
+   */
+  public static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the content of a file.
+   */
+  public interface Content {
+
+    void write(DataOutputStream output) throws IOException;
+
+  }
+
+}
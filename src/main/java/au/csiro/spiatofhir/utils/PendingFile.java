@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A file that is written under a temporary name within the same directory, and moved into place
+ * only once it has been written in full. If it is discarded instead, any existing file at the path
+ * is left as it was.
+ *
+ * @author John Grimes
+ */
+public class PendingFile {
+
+  private final Path path;
+  private final Path tempFile;
+
+  public PendingFile(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    this.path = path;
+    this.tempFile = createTempFile(parent, path.getFileName().toString());
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Opens a stream to the temporary file, which must be closed before the file is committed.
+   */
+  public OutputStream newOutputStream() throws IOException {
+    return Files.newOutputStream(tempFile);
+  }
+
+  /**
+   * Replaces the file at the path with the content that has been written.
+   */
+  public void commit() throws IOException {
+    Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Deletes the content that has been written, if it has not been committed.
+   */
+  public void discard() throws IOException {
+    Files.deleteIfExists(tempFile);
+  }
+
+  /**
+   * Creates an empty file with a random name. Unlike {@link Files#createTempFile}, the file is
+   * given the default permissions for a new file rather than being readable by its owner only, as
+   * the file keeps its permissions when it is moved into place.
+   */
+  private static Path createTempFile(Path directory, String prefix) throws IOException {
+    while (true) {
+      Path candidate = directory.resolve(
+          prefix + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+      try {
+        return Files.createFile(candidate);
+      } catch (FileAlreadyExistsException e) {
+        // Try another name.
+      }
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir;
+
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.spia.SyntheticDistribution;
+import au.csiro.spiatofhir.spia.ValidationException;
+import au.csiro.spiatofhir.terminology.StandInTerminologyServer;
+import ca.uhn.fhir.context.FhirContext;
+import java.io.File;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+
+public class SpiaToFhirMavenPluginTest extends TestCase {
+
+    private StandInTerminologyServer server;
+    private String serverUrl;
+    private Path workingDirectory;
+    private Path distributionFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        Path fixtures = Paths.get(getClass().getResource("/fixtures/terminology.tsv").toURI());
+        server = new StandInTerminologyServer().loadFixtures(fixtures);
+        serverUrl = server.start();
+        workingDirectory = Files.createTempDirectory("spia-to-fhir");
+        distributionFile = workingDirectory.resolve("spia.zip");
+        new SyntheticDistribution()
+                .addRow(DistributionEntry.REQUESTING, "Urea", "26604007", null)
+                .addRow(DistributionEntry.CHEMICAL, "Creatinine", "14682-9", "umol/L")
+                .addRow(DistributionEntry.CHEMICAL, "Deprecated test", "26924-1", "mmol/L")
+                .addRow(DistributionEntry.HAEMATOLOGY, "Haemoglobin", "718-7", "g/L")
+                .addRow(DistributionEntry.PREFERRED_UNITS, "Micromoles per litre", null,
+                        "umol/L")
+                .write(distributionFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        try (Stream<Path> paths = Files.walk(workingDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public void testStreamingOutputMatchesOutputOfWholeDistribution() throws Exception {
+        Path wholeOutput = Files.createDirectory(workingDirectory.resolve("whole"));
+        newPlugin(wholeOutput, false).execute();
+        Path streamingOutput = Files.createDirectory(workingDirectory.resolve("streaming"));
+        newPlugin(streamingOutput, true).execute();
+
+        for (String name : new String[]{"spia-stu3", "spia-r4", "spia-r5"}) {
+            assertTrue(Files.exists(streamingOutput.resolve(name + ".Bundle.json")));
+        }
+        List<String> expected = getResourceIds(wholeOutput.resolve("spia-r4.Bundle.json"));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, getResourceIds(streamingOutput.resolve("spia-r4.Bundle.json")));
+    }
+
+    public void testStreamingOutputCannotBeSaved() throws Exception {
+        Path output = Files.createDirectory(workingDirectory.resolve("output"));
+        SpiaToFhirMavenPlugin plugin = newPlugin(output, true);
+        set(plugin, "parsedDistributionOutput", workingDirectory.resolve("parsed.bin").toFile());
+        try {
+            plugin.execute();
+            fail("Expected the configuration to be rejected");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("parsedDistributionOutput"));
+        }
+        assertEquals(0, server.getRequestCount("$lookup"));
+    }
+
+    public void testFailedRunLeavesNoOutput() throws Exception {
+        // The Haematology reference set is only parsed once the earlier reference sets have been
+        // written, and its header fails validation.
+        new SyntheticDistribution()
+                .addRow(DistributionEntry.REQUESTING, "Urea", "26604007", null)
+                .addRow(DistributionEntry.CHEMICAL, "Creatinine", "14682-9", "umol/L")
+                .addRow(DistributionEntry.HAEMATOLOGY, "Haemoglobin", "718-7", "g/L")
+                .renameColumn(DistributionEntry.HAEMATOLOGY, 0, "Unexpected")
+                .write(distributionFile);
+        Path output = Files.createDirectory(workingDirectory.resolve("output"));
+        SpiaToFhirMavenPlugin plugin = newPlugin(output, true);
+        set(plugin, "publishServerUrl", serverUrl);
+        try {
+            plugin.execute();
+            fail("Expected the run to fail");
+        } catch (MojoExecutionException e) {
+            // Expected.
+        }
+
+        try (Stream<Path> files = Files.list(output)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0, server.getRequestCount("search"));
+        assertEquals(0, server.getRequestCount("transaction"));
+    }
+
+    public void testInvalidResourcesAreNotPublished() throws Exception {
+        // The reference sets without any rows produce ValueSets without any content, which fail
+        // validation.
+        Path output = Files.createDirectory(workingDirectory.resolve("output"));
+        SpiaToFhirMavenPlugin plugin = newPlugin(output, false);
+        set(plugin, "publishServerUrl", serverUrl);
+        try {
+            plugin.execute();
+            fail("Expected the run to fail");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getCause() instanceof ValidationException);
+        }
+
+        assertEquals(0, server.getRequestCount("transaction"));
+    }
+
+    /**
+     * Creates a plugin with the default configuration, as it would be configured by Maven.
+     */
+    private SpiaToFhirMavenPlugin newPlugin(Path outputDirectory, boolean streamingOutput)
+            throws Exception {
+        SpiaToFhirMavenPlugin plugin = new SpiaToFhirMavenPlugin();
+        set(plugin, "inputPath", distributionFile.toString());
+        set(plugin, "outputDirectory", outputDirectory.toString());
+        set(plugin, "terminologyServerUrl", serverUrl);
+        set(plugin, "publicationDate", "2020-06-30");
+        set(plugin, "terminologyConcurrency", 4);
+        set(plugin, "terminologyCache", false);
+        set(plugin, "terminologyCacheTtl", "P7D");
+        set(plugin, "terminologyHedgePercentile", 95.0);
+        set(plugin, "terminologyBatchMode", "lookup");
+        set(plugin, "terminologyMaxAttempts", 4);
+        set(plugin, "terminologyTimeBudget", "PT5M");
+        set(plugin, "terminologyFailureThreshold", 5);
+        set(plugin, "terminologyCircuitOpenDuration", "PT30S");
+        set(plugin, "terminologyChain", "memory,remote");
+        set(plugin, "parsingConcurrency", 7);
+        set(plugin, "streamingOutput", streamingOutput);
+        set(plugin, "outputFormat", "bundle");
+        set(plugin, "publishConcurrency", 4);
+        set(plugin, "publishBatchSize", 100);
+        set(plugin, "publishMaxRequestSize", 5242880L);
+        return plugin;
+    }
+
+    private static void set(SpiaToFhirMavenPlugin plugin, String name, Object value)
+            throws Exception {
+        Field field = SpiaToFhirMavenPlugin.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(plugin, value);
+    }
+
+    private static List<String> getResourceIds(Path bundleFile) throws Exception {
+        try (Reader reader = Files.newBufferedReader(bundleFile)) {
+            Bundle bundle = FhirContext.forR4().newJsonParser().parseResource(Bundle.class, reader);
+            List<String> ids = new ArrayList<>();
+            for (BundleEntryComponent entry : bundle.getEntry()) {
+                ids.add(entry.getResource().fhirType() + "/"
+                        + entry.getResource().getIdElement().getIdPart());
+            }
+            return ids;
+        }
+    }
+
+}
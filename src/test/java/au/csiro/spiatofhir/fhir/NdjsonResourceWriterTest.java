@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir;
+
+import au.csiro.spiatofhir.fhir.model.TerminologyModelBuilder;
+import au.csiro.spiatofhir.fhir.r4.R4ResourceEmitter;
+import ca.uhn.fhir.context.FhirContext;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+
+public class NdjsonResourceWriterTest extends TestCase {
+
+    private static final FhirContext fhirContext = FhirContext.forR4();
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("spia-ndjson");
+    }
+
+    public void testWritesOneFilePerResourceType() throws Exception {
+        NdjsonResourceWriter writer = new NdjsonResourceWriter(fhirContext, directory, false);
+        try {
+            writer.addResource(valueSet("spia-test-1", "Test µmol/L\nwith a line break"));
+            writer.addResource(new R4ResourceEmitter().emit(
+                    new TerminologyModelBuilder(new Date(0)).buildCombiningResultsCodeSystem()));
+            writer.addResource(valueSet("spia-test-2", "Another test"));
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(2, (int) writer.getResourceCounts().get("ValueSet"));
+        assertEquals(1, (int) writer.getResourceCounts().get("CodeSystem"));
+        assertEquals(directory.resolve("ValueSet.ndjson"), writer.getFile("ValueSet"));
+        List<String> valueSets = readLines(Files.newInputStream(writer.getFile("ValueSet")));
+        assertEquals(2, valueSets.size());
+        ValueSet first = fhirContext.newJsonParser().parseResource(ValueSet.class,
+                valueSets.get(0));
+        assertEquals("Test µmol/L\nwith a line break", first.getName());
+        List<String> codeSystems = readLines(Files.newInputStream(writer.getFile("CodeSystem")));
+        assertEquals(1, codeSystems.size());
+        assertEquals(3, fhirContext.newJsonParser().parseResource(CodeSystem.class,
+                codeSystems.get(0)).getConcept().size());
+    }
+
+    public void testGzip() throws Exception {
+        NdjsonResourceWriter writer = new NdjsonResourceWriter(fhirContext, directory, true);
+        try {
+            writer.addResource(valueSet("spia-test-1", "Test"));
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(directory.resolve("ValueSet.ndjson.gz"), writer.getFile("ValueSet"));
+        List<String> lines = readLines(
+                new GZIPInputStream(Files.newInputStream(writer.getFile("ValueSet"))));
+        assertEquals(1, lines.size());
+        assertEquals("spia-test-1", fhirContext.newJsonParser().parseResource(ValueSet.class,
+                lines.get(0)).getIdElement().getIdPart());
+    }
+
+    public void testAbortLeavesExistingFilesInPlace() throws Exception {
+        NdjsonResourceWriter previous = new NdjsonResourceWriter(fhirContext, directory, false);
+        try {
+            previous.addResource(valueSet("spia-test-1", "Previous"));
+        } finally {
+            previous.close();
+        }
+
+        NdjsonResourceWriter writer = new NdjsonResourceWriter(fhirContext, directory, false);
+        writer.addResource(valueSet("spia-test-2", "Incomplete"));
+        writer.addResource(new R4ResourceEmitter().emit(
+                new TerminologyModelBuilder(new Date(0)).buildCombiningResultsCodeSystem()));
+        writer.abort();
+        writer.close();
+
+        List<String> valueSets = readLines(Files.newInputStream(writer.getFile("ValueSet")));
+        assertEquals(1, valueSets.size());
+        assertEquals("Previous", fhirContext.newJsonParser().parseResource(ValueSet.class,
+                valueSets.get(0)).getName());
+        assertEquals(Collections.singletonList(writer.getFile("ValueSet")),
+                Files.list(directory).collect(Collectors.toList()));
+    }
+
+    private static ValueSet valueSet(String id, String name) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId(id);
+        valueSet.setName(name);
+        return valueSet;
+    }
+
+    private static List<String> readLines(InputStream input) throws Exception {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir;
+
+import au.csiro.spiatofhir.fhir.model.TerminologyModelBuilder;
+import au.csiro.spiatofhir.fhir.r4.R4ResourceEmitter;
+import ca.uhn.fhir.context.FhirContext;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ValueSet;
+
+public class StreamingBundleWriterTest extends TestCase {
+
+    private static final FhirContext fhirContext = FhirContext.forR4();
+
+    public void testMatchesEncodedBundle() throws Exception {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("spia-test-valueset");
+        valueSet.setName("Test µmol/L");
+        valueSet.getCompose().addInclude().setSystem("http://loinc.org").addConcept()
+                .setCode("14682-9").setDisplay("Creatinine");
+        List<Resource> resources = Arrays.asList(valueSet,
+                new R4ResourceEmitter().emit(
+                        new TerminologyModelBuilder(new Date(0)).buildCombiningResultsCodeSystem()));
+
+        assertEquals(encodeBundle(resources), stream(resources));
+    }
+
+    public void testEmptyBundle() throws Exception {
+        assertEquals(encodeBundle(Arrays.asList()), stream(Arrays.asList()));
+    }
+
+    public void testFileIsOnlyReplacedOnceComplete() throws Exception {
+        Path directory = Files.createTempDirectory("spia-bundle");
+        Path path = directory.resolve("spia-test.Bundle.json");
+        Files.write(path, "previous".getBytes(StandardCharsets.UTF_8));
+        List<Resource> resources = Collections.singletonList(
+                new R4ResourceEmitter().emit(
+                        new TerminologyModelBuilder(new Date(0)).buildCombiningResultsCodeSystem()));
+
+        StreamingBundleWriter aborted = new StreamingBundleWriter(fhirContext, path);
+        aborted.addResource(resources.get(0));
+        aborted.abort();
+        aborted.close();
+        assertEquals("previous", read(path));
+        assertEquals(Collections.singletonList(path),
+                Files.list(directory).collect(Collectors.toList()));
+
+        StreamingBundleWriter writer = new StreamingBundleWriter(fhirContext, path);
+        try {
+            writer.addResource(resources.get(0));
+            assertEquals("previous", read(path));
+        } finally {
+            writer.close();
+        }
+        assertEquals(encodeBundle(resources), read(path));
+        assertEquals(Collections.singletonList(path),
+                Files.list(directory).collect(Collectors.toList()));
+    }
+
+    public void testFileHasDefaultPermissions() throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        Path directory = Files.createTempDirectory("spia-bundle");
+        Path expected = Files.createFile(directory.resolve("expected"));
+        Path path = directory.resolve("spia-test.Bundle.json");
+        new StreamingBundleWriter(fhirContext, path).close();
+
+        assertEquals(Files.getPosixFilePermissions(expected), Files.getPosixFilePermissions(path));
+    }
+
+    private static String read(Path path) throws Exception {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private static String stream(List<Resource> resources) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (StreamingBundleWriter writer = new StreamingBundleWriter(fhirContext, output)) {
+            for (Resource resource : resources) {
+                writer.addResource(resource);
+            }
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String encodeBundle(List<Resource> resources) {
+        Bundle bundle = new Bundle();
+        for (Resource resource : resources) {
+            bundle.addEntry().setResource(resource);
+        }
+        bundle.setType(Bundle.BundleType.COLLECTION);
+        return fhirContext.newJsonParser().encodeResourceToString(bundle);
+    }
+
+}
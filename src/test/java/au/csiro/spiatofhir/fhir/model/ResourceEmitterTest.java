@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.model;
+
+import au.csiro.spiatofhir.fhir.r4.R4ResourceEmitter;
+import au.csiro.spiatofhir.fhir.r5.R5ResourceEmitter;
+import au.csiro.spiatofhir.fhir.stu3.Stu3ResourceEmitter;
+import ca.uhn.fhir.context.FhirContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import junit.framework.TestCase;
+
+public class ResourceEmitterTest extends TestCase {
+
+    private static final Date DATE = new Date(0);
+
+    public void testValueSetIsEmittedForEachVersion() {
+        ValueSetNode node = new ValueSetNode("spia-test-1", "https://example.com/ValueSet/test",
+                "1.2.3", "spia-test", "Test", "A test value set.", DATE, "http://loinc.org",
+                Collections.singletonList(new ConceptNode("14682-9", "Creatinine",
+                        Collections.singletonList(new DesignationNode("Creat",
+                                "http://snomed.info/sct", "900000000000013009", "Synonym")))));
+
+        org.hl7.fhir.r4.model.ValueSet r4 =
+                (org.hl7.fhir.r4.model.ValueSet) new R4ResourceEmitter().emit(node);
+        org.hl7.fhir.dstu3.model.ValueSet stu3 =
+                (org.hl7.fhir.dstu3.model.ValueSet) new Stu3ResourceEmitter().emit(node);
+
+        assertEquals("spia-test-1", r4.getIdElement().getIdPart());
+        assertEquals("urn:oid:1.2.3", r4.getIdentifierFirstRep().getValue());
+        assertEquals("http://loinc.org", r4.getCompose().getIncludeFirstRep().getSystem());
+        assertEquals("Creat", r4.getCompose().getIncludeFirstRep().getConceptFirstRep()
+                .getDesignationFirstRep().getValue());
+        assertEquals("<div><h1>Test</h1><p>A test value set.</p>\n</div>",
+                r4.getText().getDivAsString().replace(" xmlns=\"http://www.w3.org/1999/xhtml\"", ""));
+        assertEquals("spia-test-1", stu3.getIdElement().getIdPart());
+        assertEquals("http://loinc.org", stu3.getCompose().getIncludeFirstRep().getSystem());
+        assertEquals("Creat", stu3.getCompose().getIncludeFirstRep().getConceptFirstRep()
+                .getDesignationFirstRep().getValue());
+    }
+
+    public void testR5ValueSet() {
+        org.hl7.fhir.r5.model.ValueSet r5 =
+                (org.hl7.fhir.r5.model.ValueSet) new R5ResourceEmitter().emit(newValueSetNode());
+
+        assertEquals("spia-test-1", r5.getIdElement().getIdPart());
+        assertEquals("urn:oid:1.2.3", r5.getIdentifierFirstRep().getValue());
+        assertEquals("http://loinc.org", r5.getCompose().getIncludeFirstRep().getSystem());
+        org.hl7.fhir.r5.model.ValueSet.ConceptReferenceComponent concept =
+                r5.getCompose().getIncludeFirstRep().getConceptFirstRep();
+        assertEquals("14682-9", concept.getCode());
+        assertEquals("Creat", concept.getDesignationFirstRep().getValue());
+        assertEquals("900000000000013009",
+                concept.getDesignationFirstRep().getUse().getCode());
+    }
+
+    public void testEmptyValueSetHasNoSystem() {
+        ValueSetNode node = new ValueSetNode("spia-test-1", "https://example.com/ValueSet/test",
+                "1.2.3", "spia-test", "Test", "A test value set.", DATE, "http://loinc.org",
+                Collections.emptyList());
+
+        org.hl7.fhir.r4.model.ValueSet r4 =
+                (org.hl7.fhir.r4.model.ValueSet) new R4ResourceEmitter().emit(node);
+
+        assertFalse(r4.getCompose().getIncludeFirstRep().hasSystem());
+    }
+
+    public void testConceptMapTargetsAreRelated() {
+        ConceptMapNode node = new ConceptMapNode("spia-test-map-1",
+                "https://example.com/ConceptMap/test", "1.2.4", "spia-test-map", "Test map",
+                "A test map.", DATE, "Testing", "https://example.com/ValueSet/source",
+                "https://example.com/ValueSet/target", "http://loinc.org", "http://unitsofmeasure.org",
+                Collections.singletonList(new MappingNode("14682-9",
+                        Arrays.asList("umol/L", "mmol/L"))));
+
+        org.hl7.fhir.r4.model.ConceptMap r4 =
+                (org.hl7.fhir.r4.model.ConceptMap) new R4ResourceEmitter().emit(node);
+        org.hl7.fhir.dstu3.model.ConceptMap stu3 =
+                (org.hl7.fhir.dstu3.model.ConceptMap) new Stu3ResourceEmitter().emit(node);
+
+        org.hl7.fhir.r4.model.ConceptMap.SourceElementComponent r4Element =
+                r4.getGroupFirstRep().getElementFirstRep();
+        assertEquals(2, r4Element.getTarget().size());
+        assertEquals(org.hl7.fhir.r4.model.Enumerations.ConceptMapEquivalence.RELATEDTO,
+                r4Element.getTargetFirstRep().getEquivalence());
+        assertEquals("http://unitsofmeasure.org", r4.getGroupFirstRep().getTarget());
+        assertEquals("mmol/L",
+                stu3.getGroupFirstRep().getElementFirstRep().getTarget().get(1).getCode());
+    }
+
+    public void testR5ConceptMapUsesRelationship() {
+        ConceptMapNode node = new ConceptMapNode("spia-test-map-1",
+                "https://example.com/ConceptMap/test", "1.2.4", "spia-test-map", "Test map",
+                "A test map.", DATE, "Testing", "https://example.com/ValueSet/source",
+                "https://example.com/ValueSet/target", "http://loinc.org", "http://unitsofmeasure.org",
+                Collections.singletonList(new MappingNode("14682-9",
+                        Collections.singletonList("umol/L"))));
+
+        org.hl7.fhir.r5.model.ConceptMap r5 =
+                (org.hl7.fhir.r5.model.ConceptMap) new R5ResourceEmitter().emit(node);
+
+        assertEquals(org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship.RELATEDTO,
+                r5.getGroupFirstRep().getElementFirstRep().getTargetFirstRep().getRelationship());
+        assertEquals("urn:oid:1.2.4", r5.getIdentifierFirstRep().getValue());
+        assertFalse(r5.hasMeta());
+    }
+
+    public void testCombiningResultsCodeSystem() {
+        CodeSystemNode node = new TerminologyModelBuilder(DATE).buildCombiningResultsCodeSystem();
+
+        org.hl7.fhir.r4.model.CodeSystem r4 =
+                (org.hl7.fhir.r4.model.CodeSystem) new R4ResourceEmitter().emit(node);
+        org.hl7.fhir.dstu3.model.CodeSystem stu3 =
+                (org.hl7.fhir.dstu3.model.CodeSystem) new Stu3ResourceEmitter().emit(node);
+
+        assertEquals(3, r4.getCount());
+        assertEquals("red", r4.getConceptFirstRep().getCode());
+        assertEquals(3, stu3.getCount());
+        assertEquals(r4.getIdentifierFirstRep().getValue(), stu3.getIdentifier().getValue());
+    }
+
+    public void testR5CombiningResultsCodeSystem() {
+        CodeSystemNode node = new TerminologyModelBuilder(DATE).buildCombiningResultsCodeSystem();
+
+        org.hl7.fhir.r5.model.CodeSystem r5 =
+                (org.hl7.fhir.r5.model.CodeSystem) new R5ResourceEmitter().emit(node);
+        org.hl7.fhir.r4.model.CodeSystem r4 =
+                (org.hl7.fhir.r4.model.CodeSystem) new R4ResourceEmitter().emit(node);
+
+        assertEquals(3, r5.getCount());
+        assertEquals("red", r5.getConceptFirstRep().getCode());
+        assertEquals(r4.getUrl(), r5.getUrl());
+        assertEquals(r4.getIdentifierFirstRep().getValue(), r5.getIdentifierFirstRep().getValue());
+        assertEquals(r4.getContent().toCode(), r5.getContent().toCode());
+    }
+
+    public void testR5ResourcesCanBeParsedBack() {
+        FhirContext r5Context = FhirContext.forR5();
+        R5ResourceEmitter emitter = new R5ResourceEmitter();
+        org.hl7.fhir.r5.model.ValueSet valueSet =
+                (org.hl7.fhir.r5.model.ValueSet) emitter.emit(newValueSetNode());
+        org.hl7.fhir.r5.model.CodeSystem codeSystem = (org.hl7.fhir.r5.model.CodeSystem) emitter
+                .emit(new TerminologyModelBuilder(DATE).buildCombiningResultsCodeSystem());
+
+        org.hl7.fhir.r5.model.ValueSet parsedValueSet = r5Context.newJsonParser().parseResource(
+                org.hl7.fhir.r5.model.ValueSet.class,
+                r5Context.newJsonParser().encodeResourceToString(valueSet));
+        org.hl7.fhir.r5.model.CodeSystem parsedCodeSystem = r5Context.newJsonParser()
+                .parseResource(org.hl7.fhir.r5.model.CodeSystem.class,
+                        r5Context.newJsonParser().encodeResourceToString(codeSystem));
+
+        assertTrue(valueSet.equalsDeep(parsedValueSet.setIdElement(valueSet.getIdElement())));
+        assertTrue(codeSystem.equalsDeep(parsedCodeSystem.setIdElement(codeSystem.getIdElement())));
+    }
+
+    private static ValueSetNode newValueSetNode() {
+        return new ValueSetNode("spia-test-1", "https://example.com/ValueSet/test", "1.2.3",
+                "spia-test", "Test", "A test value set.", DATE, "http://loinc.org",
+                Collections.singletonList(new ConceptNode("14682-9", "Creatinine",
+                        Collections.singletonList(new DesignationNode("Creat",
+                                "http://snomed.info/sct", "900000000000013009", "Synonym")))));
+    }
+
+}
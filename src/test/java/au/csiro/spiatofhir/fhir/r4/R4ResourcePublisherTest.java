@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.fhir.r4;
+
+import au.csiro.spiatofhir.terminology.StandInTerminologyServer;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
+import java.time.Duration;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.ValueSet;
+
+public class R4ResourcePublisherTest extends TestCase {
+
+    private StandInTerminologyServer server;
+    private String serverUrl;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StandInTerminologyServer();
+        serverUrl = server.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.close();
+    }
+
+    public void testPublishesEachResourceById() throws Exception {
+        publish(10, "First", 4, 100, 1024 * 1024);
+
+        assertEquals(1, server.getRequestCount("transaction"));
+        for (int i = 0; i < 10; i++) {
+            ValueSet stored = (ValueSet) server.getResource("ValueSet", "spia-test-" + i);
+            assertEquals("First " + i, stored.getName());
+            assertEquals("1", stored.getMeta().getVersionId());
+        }
+    }
+
+    public void testSkipsUnchangedResources() throws Exception {
+        publish(10, "First", 4, 100, 1024 * 1024);
+        R4ResourcePublisher publisher = publish(10, "First", 4, 100, 1024 * 1024);
+
+        assertEquals(1, server.getRequestCount("transaction"));
+        assertEquals(0, publisher.getUpdatedCount());
+        assertEquals(10, publisher.getUnchangedCount());
+        assertEquals("1", server.getResource("ValueSet", "spia-test-0").getMeta().getVersionId());
+    }
+
+    public void testUpdatesChangedResources() throws Exception {
+        publish(3, "First", 4, 100, 1024 * 1024);
+        R4ResourcePublisher publisher = new R4ResourcePublisher(FhirContext.forR4(), serverUrl,
+                4, 100, 1024 * 1024);
+        try {
+            publisher.addResource(valueSet(0, "First"));
+            publisher.addResource(valueSet(1, "Second"));
+            publisher.addResource(valueSet(2, "First"));
+        } finally {
+            publisher.close();
+        }
+
+        assertEquals(1, publisher.getUpdatedCount());
+        assertEquals(2, publisher.getUnchangedCount());
+        ValueSet updated = (ValueSet) server.getResource("ValueSet", "spia-test-1");
+        assertEquals("Second 1", updated.getName());
+        assertEquals("2", updated.getMeta().getVersionId());
+        assertEquals("1", server.getResource("ValueSet", "spia-test-2").getMeta().getVersionId());
+    }
+
+    public void testChunksTransactionsByEntryCount() throws Exception {
+        publish(25, "First", 2, 10, 1024 * 1024);
+
+        assertEquals(3, server.getRequestCount("transaction"));
+        assertNotNull(server.getResource("ValueSet", "spia-test-24"));
+    }
+
+    public void testChunksTransactionsByRequestSize() throws Exception {
+        // Each entry is around 1.4 KB once encoded along with its content hash and request, so only
+        // two of them fit within each request.
+        server.setMaxRequestSize(4 * 1024);
+        publish(10, largeName(), 2, 100, 4 * 1024);
+
+        assertEquals(5, server.getRequestCount("transaction"));
+        assertNotNull(server.getResource("ValueSet", "spia-test-9"));
+    }
+
+    public void testPreconditionsDoNotExceedRequestSize() throws Exception {
+        publish(10, largeName(), 2, 100, 1024 * 1024);
+        server.setMaxRequestSize(4 * 1024);
+        R4ResourcePublisher publisher = publish(10, largeName() + "y", 2, 100, 4 * 1024);
+
+        assertEquals(10, publisher.getUpdatedCount());
+        assertEquals("2", server.getResource("ValueSet", "spia-test-9").getMeta().getVersionId());
+    }
+
+    public void testFollowsSearchPages() throws Exception {
+        server.setMaxPageSize(5);
+        publish(12, "First", 4, 100, 1024 * 1024);
+        int searches = server.getRequestCount("search");
+        R4ResourcePublisher publisher = publish(12, "First", 4, 100, 1024 * 1024);
+
+        assertEquals(3, server.getRequestCount("search") - searches);
+        assertEquals(12, publisher.getUnchangedCount());
+        assertEquals(1, server.getRequestCount("transaction"));
+    }
+
+    public void testConcurrentUpdateIsNotOverwritten() throws Exception {
+        publish(3, "First", 4, 100, 1024 * 1024);
+        // Another client updates one of the resources after its version has been retrieved.
+        server.setBeforeTransaction(() -> server.putResource(valueSet(1, "Changed elsewhere")));
+        try {
+            publish(3, "Second", 4, 100, 1024 * 1024);
+            fail("Expected the transaction to fail");
+        } catch (PreconditionFailedException e) {
+            // Expected.
+        }
+
+        // None of the transaction was applied.
+        ValueSet first = (ValueSet) server.getResource("ValueSet", "spia-test-0");
+        assertEquals("First 0", first.getName());
+        assertEquals("1", first.getMeta().getVersionId());
+        ValueSet changed = (ValueSet) server.getResource("ValueSet", "spia-test-1");
+        assertEquals("Changed elsewhere 1", changed.getName());
+        assertEquals("2", changed.getMeta().getVersionId());
+    }
+
+    public void testAbortPublishesNothing() throws Exception {
+        R4ResourcePublisher publisher = new R4ResourcePublisher(FhirContext.forR4(), serverUrl,
+                4, 2, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            publisher.addResource(valueSet(i, "First"));
+        }
+        publisher.abort();
+        publisher.close();
+
+        assertEquals(0, server.getRequestCount("search"));
+        assertEquals(0, server.getRequestCount("transaction"));
+        assertNull(server.getResource("ValueSet", "spia-test-0"));
+    }
+
+    public void testBoundsConcurrentRequests() throws Exception {
+        server.setLatency(Duration.ofMillis(20), Duration.ZERO);
+        publish(40, "First", 3, 2, 1024 * 1024);
+
+        assertEquals(20, server.getRequestCount("transaction"));
+        assertTrue(server.getMaxConcurrentRequests() <= 3);
+    }
+
+    private R4ResourcePublisher publish(int count, String name, int concurrency, int maxEntries,
+            long maxRequestBytes) throws Exception {
+        // A new context is used for each publisher, as HAPI caches the validation of each server.
+        R4ResourcePublisher publisher = new R4ResourcePublisher(FhirContext.forR4(), serverUrl,
+                concurrency, maxEntries, maxRequestBytes);
+        try {
+            for (int i = 0; i < count; i++) {
+                publisher.addResource(valueSet(i, name));
+            }
+        } finally {
+            publisher.close();
+        }
+        return publisher;
+    }
+
+    private static ValueSet valueSet(int index, String name) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("spia-test-" + index);
+        valueSet.setName(name + " " + index);
+        return valueSet;
+    }
+
+    private static String largeName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            name.append('x');
+        }
+        return name.toString();
+    }
+
+}
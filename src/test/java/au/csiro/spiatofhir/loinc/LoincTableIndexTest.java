@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.loinc;
+
+import au.csiro.spiatofhir.terminology.CodeStatusIndex;
+import au.csiro.spiatofhir.terminology.IndexedCodeStatusProvider;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class LoincTableIndexTest extends TestCase {
+
+    public void testLookupFromMappedIndex() throws Exception {
+        Path directory = Files.createTempDirectory("spia-loinc");
+        Path tableFile = directory.resolve("LoincTableCore.csv");
+        Files.write(tableFile, Arrays.asList(
+                "\"LOINC_NUM\",\"COMPONENT\",\"PROPERTY\",\"STATUS\",\"CLASSTYPE\"",
+                "\"14682-9\",\"Creatinine\",\"SCnc\",\"ACTIVE\",\"1\"",
+                "\"26924-1\",\"Leukocytes, \"\"other\"\"\",\"NCnc\",\"DEPRECATED\",\"1\"",
+                "\"2345-7\",\"Glucose\",\"MCnc\",\"DISCOURAGED\",\"1\""
+        ), StandardCharsets.UTF_8);
+        CodeStatusIndex index = CodeStatusIndex
+                .loadOrBuild(directory.resolve("loinc-codes.idx"), tableFile,
+                        LoincTableIndex::read);
+        assertEquals(3, index.size());
+
+        IndexedCodeStatusProvider provider = new IndexedCodeStatusProvider(Loinc.SYSTEM_URI, index,
+                LoincTableIndex::toKey, null);
+        assertTrue(provider.checkActive(Loinc.SYSTEM_URI, "14682-9"));
+        assertFalse(provider.checkActive(Loinc.SYSTEM_URI, "26924-1"));
+        assertTrue(provider.checkActive(Loinc.SYSTEM_URI, "2345-7"));
+        assertFalse(provider.checkActive(Loinc.SYSTEM_URI, "1234-5"));
+    }
+
+    public void testToKey() {
+        assertEquals(Long.valueOf(146829L), LoincTableIndex.toKey("14682-9"));
+        assertNull(LoincTableIndex.toKey("LP1234-5"));
+        assertNull(LoincTableIndex.toKey("14682"));
+        assertNull(LoincTableIndex.toKey("14682-91"));
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.snomed;
+
+import au.csiro.spiatofhir.terminology.CodeStatusIndex;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class SnomedConceptIndexTest extends TestCase {
+
+    private Path directory;
+    private Path conceptFile;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("spia-snomed");
+        conceptFile = directory.resolve("sct2_Concept_Snapshot_AU1000036_20200531.txt");
+        Files.write(conceptFile, Arrays.asList(
+                "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId",
+                "302509004\t20020131\t1\t900000000000207008\t900000000000074008",
+                "119297000\t20020131\t1\t900000000000207008\t900000000000074008",
+                "165816005\t20020131\t0\t900000000000207008\t900000000000074008"
+        ), StandardCharsets.UTF_8);
+    }
+
+    public void testLookupFromMappedIndex() throws Exception {
+        Path indexFile = directory.resolve("snomed-concepts.idx");
+        CodeStatusIndex index = CodeStatusIndex
+                .loadOrBuild(indexFile, conceptFile, SnomedConceptIndex::read);
+        assertEquals(3, index.size());
+        assertTrue(Files.exists(indexFile));
+        assertEquals(Boolean.TRUE, index.isActive(302509004L));
+        assertEquals(Boolean.TRUE, index.isActive(119297000L));
+        assertEquals(Boolean.FALSE, index.isActive(165816005L));
+        assertNull(index.isActive(123456789L));
+    }
+
+    public void testRebuildsForDifferentSource() throws Exception {
+        Path indexFile = directory.resolve("snomed-concepts.idx");
+        CodeStatusIndex.loadOrBuild(indexFile, conceptFile, SnomedConceptIndex::read);
+        // Another release, whose file is older than the index.
+        Path otherConceptFile = directory.resolve("sct2_Concept_Snapshot_AU1000036_20191130.txt");
+        Files.write(otherConceptFile, Arrays.asList(
+                "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId",
+                "302509004\t20020131\t0\t900000000000207008\t900000000000074008"
+        ), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(otherConceptFile, FileTime.fromMillis(0));
+
+        CodeStatusIndex index = CodeStatusIndex
+                .loadOrBuild(indexFile, otherConceptFile, SnomedConceptIndex::read);
+        assertEquals(1, index.size());
+        assertEquals(Boolean.FALSE, index.isActive(302509004L));
+        assertEquals(index.getSource(), CodeStatusIndex.load(indexFile).getSource());
+    }
+
+    public void testRejectsFullRelease() throws Exception {
+        Files.write(conceptFile, Arrays.asList(
+                "165816005\t20200131\t1\t900000000000207008\t900000000000074008"
+        ), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        try {
+            SnomedConceptIndex.read(conceptFile);
+            fail("Expected an exception for a duplicated concept");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a Snapshot"));
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ColumnarRefsetEntriesTest extends TestCase {
+
+    public void testPresentsOriginalEntries() {
+        RefsetEntry creatinine = new RefsetEntry();
+        creatinine.setRcpaPreferredTerm("Creatinine");
+        creatinine.getRcpaSynonyms().addAll(Arrays.asList("Creat", "Serum creatinine", "Cr"));
+        creatinine.setCode("14682-9");
+        creatinine.getUnitCodes().add("umol/L");
+        creatinine.setCombiningResultsFlag(CombiningResultsFlag.ORANGE);
+        RefsetEntry glucose = new RefsetEntry();
+        glucose.setRcpaPreferredTerm("Glucose");
+        glucose.setCode("2345-7");
+        glucose.getUnitCodes().addAll(Arrays.asList("mmol/L", "umol/L"));
+        RefsetEntry organism = new RefsetEntry();
+        organism.setCode("3092008");
+
+        List<RefsetEntry> entries = new ColumnarRefsetEntries(
+                Arrays.asList(creatinine, glucose, organism));
+
+        assertEquals(3, entries.size());
+        RefsetEntry first = entries.get(0);
+        assertEquals("Creatinine", first.getRcpaPreferredTerm());
+        assertEquals("14682-9", first.getCode());
+        assertEquals(CombiningResultsFlag.ORANGE, first.getCombiningResultsFlag());
+        assertEquals(creatinine.getRcpaSynonyms(), first.getRcpaSynonyms());
+        // Values are iterated in the same order as the original sets.
+        assertEquals(new ArrayList<>(creatinine.getRcpaSynonyms()),
+                new ArrayList<>(first.getRcpaSynonyms()));
+        assertEquals(new ArrayList<>(glucose.getUnitCodes()),
+                new ArrayList<>(entries.get(1).getUnitCodes()));
+        assertTrue(entries.get(1).getRcpaSynonyms().isEmpty());
+        RefsetEntry last = entries.get(2);
+        assertNull(last.getRcpaPreferredTerm());
+        assertNull(last.getCombiningResultsFlag());
+        assertEquals(Collections.emptySet(), last.getUnitCodes());
+    }
+
+    public void testSetsAreReadOnly() {
+        RefsetEntry entry = new RefsetEntry();
+        entry.setCode("14682-9");
+        List<RefsetEntry> entries = new ColumnarRefsetEntries(Collections.singletonList(entry));
+        try {
+            entries.get(0).getUnitCodes().add("mmol/L");
+            fail("Expected unit codes to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
+}
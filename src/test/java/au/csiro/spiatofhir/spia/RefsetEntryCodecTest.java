@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.RefsetEntry.CombiningResultsFlag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class RefsetEntryCodecTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        RefsetEntry creatinine = new RefsetEntry();
+        creatinine.setRcpaPreferredTerm("Creatinine");
+        creatinine.getRcpaSynonyms().addAll(Arrays.asList("Creat", "Creatinine (serum)"));
+        creatinine.setCode("14682-9");
+        creatinine.getUnitCodes().add("umol/L");
+        creatinine.setCombiningResultsFlag(CombiningResultsFlag.GREEN);
+        RefsetEntry organism = new RefsetEntry();
+        organism.setCode("3092008");
+        List<List<RefsetEntry>> refsets = Arrays.asList(Arrays.asList(creatinine, organism),
+                Collections.emptyList());
+
+        List<List<RefsetEntry>> decoded = RefsetEntryCodec.read(ByteBuffer.wrap(encode(refsets)));
+
+        assertEquals(2, decoded.size());
+        assertEquals(2, decoded.get(0).size());
+        assertTrue(decoded.get(1).isEmpty());
+        RefsetEntry decodedCreatinine = decoded.get(0).get(0);
+        assertEquals("Creatinine", decodedCreatinine.getRcpaPreferredTerm());
+        assertEquals(creatinine.getRcpaSynonyms(), decodedCreatinine.getRcpaSynonyms());
+        assertEquals("14682-9", decodedCreatinine.getCode());
+        assertEquals(creatinine.getUnitCodes(), decodedCreatinine.getUnitCodes());
+        assertEquals(CombiningResultsFlag.GREEN, decodedCreatinine.getCombiningResultsFlag());
+        RefsetEntry decodedOrganism = decoded.get(0).get(1);
+        assertNull(decodedOrganism.getRcpaPreferredTerm());
+        assertEquals("3092008", decodedOrganism.getCode());
+        assertNull(decodedOrganism.getCombiningResultsFlag());
+    }
+
+    public void testTruncatedEncodingIsRejected() throws Exception {
+        RefsetEntry entry = new RefsetEntry();
+        entry.setCode("14682-9");
+        byte[] encoded = encode(Collections.singletonList(Collections.singletonList(entry)));
+        try {
+            RefsetEntryCodec.read(ByteBuffer.wrap(encoded, 0, encoded.length - 1));
+            fail("Expected truncated encoding to be rejected");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private static byte[] encode(List<List<RefsetEntry>> refsets) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RefsetEntryCodec.write(output, refsets);
+        return output.toByteArray();
+    }
+
+}
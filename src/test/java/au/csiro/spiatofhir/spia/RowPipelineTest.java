@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.terminology.AsyncLookupEngine;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.apache.poi.ss.usermodel.CellType;
+
+public class RowPipelineTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private static final String[] CODES = {"14682-9", "2345-7", "2951-2", "2823-3", "26924-1"};
+
+    public void testRowsAreParsedInOrder() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        Random random = new Random(0);
+        CodeStatusProvider slow = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                lookups.incrementAndGet();
+                try {
+                    Thread.sleep(random.nextInt(5));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return !code.equals("26924-1");
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Map<String, Boolean> activeStatus = new ConcurrentHashMap<>();
+        List<SheetRow> rows = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            rows.add(newRow(i, "Row " + i, CODES[i % CODES.length]));
+        }
+
+        List<String> results;
+        try (AsyncLookupEngine engine = new AsyncLookupEngine(slow, 4)) {
+            RowPipeline pipeline = new RowPipeline(engine, SYSTEM, 1, Refset.NO_SKIPPED_ROWS, 8,
+                    activeStatus);
+            results = pipeline.run(rows, row -> {
+                String code = row.getStringValue(1);
+                assertTrue(activeStatus.containsKey(code));
+                return activeStatus.get(code) ? row.getStringValue(0) : null;
+            });
+        }
+
+        assertEquals(160, results.size());
+        assertEquals("Row 1", results.get(0));
+        assertEquals("Row 2", results.get(1));
+        assertEquals("Row 5", results.get(3));
+        assertEquals("Row 200", results.get(159));
+        assertTrue(lookups.get() <= 200);
+    }
+
+    public void testSkippedRowsAreNotLookedUp() throws Exception {
+        List<String> lookedUp = new ArrayList<>();
+        CodeStatusProvider recording = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                lookedUp.add(code);
+                return true;
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        RowPipeline pipeline = new RowPipeline(recording, SYSTEM, 1, rowNum -> rowNum == 2, 4,
+                new ConcurrentHashMap<>());
+        List<SheetRow> rows = new ArrayList<>();
+        for (int i = 0; i < CODES.length; i++) {
+            rows.add(newRow(i, "Row " + i, CODES[i]));
+        }
+
+        List<SheetRow> results = pipeline.run(rows, row -> row);
+
+        assertEquals(5, results.size());
+        // The header row and the skipped row are passed to the row parser, but not looked up.
+        assertEquals(Arrays.asList("2345-7", "2823-3", "26924-1"), lookedUp);
+    }
+
+    public void testParseErrorStopsPipeline() {
+        CodeStatusProvider active = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                return true;
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        RowPipeline pipeline = new RowPipeline(active, SYSTEM, 1, Refset.NO_SKIPPED_ROWS, 4,
+                new ConcurrentHashMap<>());
+        List<SheetRow> rows = new ArrayList<>();
+        for (int i = 1; i < 1000; i++) {
+            rows.add(newRow(i, "Row " + i, "14682-9"));
+        }
+        try {
+            pipeline.run(rows, row -> {
+                if (row.getRowNum() == 10) {
+                    throw new ValidationException("Bad row");
+                }
+                return row;
+            });
+            fail("Expected a validation error");
+        } catch (ValidationException e) {
+            assertEquals("Bad row", e.getMessage());
+        }
+    }
+
+    public void testHeaderCellsMustBeStrings() {
+        Refset refset = new SnapshotRefset(new ArrayList<>());
+        SheetRow header = new SheetRow(0, new CellType[]{CellType.STRING, CellType.NUMERIC},
+                new String[]{"RCPA Preferred term", null});
+        try {
+            refset.validateHeaderRow(header, new String[]{"RCPA Preferred term"});
+            fail("Expected a validation error");
+        } catch (ValidationException e) {
+            assertTrue(e instanceof CellValidationException);
+        }
+    }
+
+    private static SheetRow newRow(int rowNum, String term, String code) {
+        return new SheetRow(rowNum, new CellType[]{CellType.STRING, CellType.STRING},
+                new String[]{term, code});
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class SpiaDistributionFileTest extends TestCase {
+
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("spia", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testRoundTrip() throws Exception {
+        RefsetEntry urea = new RefsetEntry();
+        urea.setRcpaPreferredTerm("Urea");
+        urea.setCode("26604007");
+        RefsetEntry creatinine = new RefsetEntry();
+        creatinine.setRcpaPreferredTerm("Creatinine");
+        creatinine.setCode("14682-9");
+        creatinine.getUnitCodes().add("umol/L");
+        Map<DistributionEntry, List<RefsetEntry>> refsets = new EnumMap<>(DistributionEntry.class);
+        refsets.put(DistributionEntry.REQUESTING, Collections.singletonList(urea));
+        refsets.put(DistributionEntry.CHEMICAL, Collections.singletonList(creatinine));
+        refsets.put(DistributionEntry.PREFERRED_UNITS, Collections.emptyList());
+
+        Map<String, String> versions = Collections.singletonMap("http://snomed.info/sct",
+                "http://snomed.info/sct/32506021000036107/version/20200531");
+        SpiaDistributionFile.write(new SpiaDistribution(refsets, Collections.emptyMap()), file,
+                versions);
+        SpiaDistribution distribution = SpiaDistributionFile.read(file);
+
+        assertEquals(Arrays.asList(DistributionEntry.REQUESTING, DistributionEntry.CHEMICAL,
+                DistributionEntry.PREFERRED_UNITS),
+                new ArrayList<>(distribution.getRefsets().keySet()));
+        RefsetEntry entry = distribution.getRefsets().get(DistributionEntry.CHEMICAL)
+                .getRefsetEntries().get(0);
+        assertEquals("Creatinine", entry.getRcpaPreferredTerm());
+        assertEquals("14682-9", entry.getCode());
+        assertEquals(Collections.singleton("umol/L"), entry.getUnitCodes());
+        assertTrue(distribution.getRefsets().get(DistributionEntry.PREFERRED_UNITS)
+                .getRefsetEntries().isEmpty());
+        assertEquals(versions, distribution.getCodeSystemVersions());
+    }
+
+    public void testUnrecognisedFileIsRejected() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        try {
+            SpiaDistributionFile.read(file);
+            fail("Expected unrecognised file to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Not a parsed distribution file"));
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.snomed.SnomedCt;
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import au.csiro.spiatofhir.terminology.AsyncLookupEngine;
+import au.csiro.spiatofhir.terminology.CodeStatusProvider;
+import au.csiro.spiatofhir.terminology.MemoizingCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.RemoteCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.RemoteCodeStatusProvider.BatchMode;
+import au.csiro.spiatofhir.terminology.ResilientCodeStatusProvider;
+import au.csiro.spiatofhir.terminology.StandInTerminologyServer;
+import au.csiro.spiatofhir.terminology.TerminologyUnavailableException;
+import ca.uhn.fhir.context.FhirContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumService;
+
+public class SpiaDistributionTest extends TestCase {
+
+    private StandInTerminologyServer server;
+    private String serverUrl;
+    private Path distributionFile;
+    private UcumService ucumService;
+
+    @Override
+    protected void setUp() throws Exception {
+        Path fixtures = Paths.get(getClass().getResource("/fixtures/terminology.tsv").toURI());
+        server = new StandInTerminologyServer().loadFixtures(fixtures);
+        serverUrl = server.start();
+        distributionFile = Files.createTempFile("spia", ".zip");
+        buildDistribution().write(distributionFile);
+        ucumService = new UcumEssenceService(Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream("ucum-essence.xml"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        Files.deleteIfExists(distributionFile);
+    }
+
+    public void testParsesDistributionUsingLookup() throws Exception {
+        assertEntryCounts(parse(newRemoteProvider(BatchMode.LOOKUP)));
+        assertTrue(server.getRequestCount("$lookup") > 0);
+        assertEquals(0, server.getRequestCount("$expand"));
+    }
+
+    public void testParsesDistributionUsingExpand() throws Exception {
+        assertEntryCounts(parse(newRemoteProvider(BatchMode.EXPAND)));
+        assertTrue(server.getRequestCount("$expand") > 0);
+    }
+
+    public void testParsesDistributionUsingStreamingIngestion() throws Exception {
+        assertEntryCounts(parse(newRemoteProvider(BatchMode.LOOKUP), true));
+    }
+
+    public void testFirstFailureIsThrown() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        // LOINC lookups fail straight away, while SNOMED lookups wait until they are cancelled.
+        CodeStatusProvider unavailable = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                return respond(system);
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                return respond(system);
+            }
+
+            private <T> T respond(String system) {
+                if (system.equals(SnomedCt.SYSTEM_URI)) {
+                    try {
+                        Thread.sleep(Long.MAX_VALUE);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled.countDown();
+                    }
+                }
+                throw new TerminologyUnavailableException("Unavailable");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new SpiaDistribution(distributionFile.toFile(), unavailable, ucumService, false,
+                    executor);
+            fail("Expected parsing to fail");
+        } catch (TerminologyUnavailableException e) {
+            // The failure is thrown as it is, and the parse that was still in progress is
+            // cancelled.
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testParsesDistributionDespiteServerErrors() throws Exception {
+        server.setErrorRate(0.3, 503);
+        CodeStatusProvider resilient = new ResilientCodeStatusProvider(
+                newRemoteProvider(BatchMode.LOOKUP), 20, Duration.ofMillis(1),
+                Duration.ofMillis(10), Duration.ofMinutes(1), 100, Duration.ofSeconds(1));
+        assertEntryCounts(parse(resilient));
+    }
+
+    public void testUnchangedWorkbooksAreLoadedFromSnapshot() throws Exception {
+        Path snapshotDirectory = Files.createTempDirectory("snapshots");
+        try {
+            RefsetSnapshotStore store = new RefsetSnapshotStore(snapshotDirectory,
+                    Duration.ofDays(1), Collections.emptyMap());
+            SpiaDistribution parsed = parse(newRemoteProvider(BatchMode.LOOKUP), store);
+            int requests = server.getRequestCount("$lookup");
+            assertTrue(requests > 0);
+
+            SpiaDistribution loaded = parse(newRemoteProvider(BatchMode.LOOKUP), store);
+            assertEquals(requests, server.getRequestCount("$lookup"));
+            assertEntryCounts(loaded);
+            RefsetEntry expected = parsed.getRefsets().get(DistributionEntry.CHEMICAL)
+                    .getRefsetEntries().get(0);
+            RefsetEntry actual = loaded.getRefsets().get(DistributionEntry.CHEMICAL)
+                    .getRefsetEntries().get(0);
+            assertEquals(expected.getCode(), actual.getCode());
+            assertEquals(expected.getUnitCodes(), actual.getUnitCodes());
+
+            // A changed workbook is parsed again.
+            buildDistribution()
+                    .addRow(DistributionEntry.CHEMICAL, "Haemoglobin", "718-7", "g/L")
+                    .write(distributionFile);
+            SpiaDistribution changed = parse(newRemoteProvider(BatchMode.LOOKUP), store);
+            int changedRequests = server.getRequestCount("$lookup");
+            assertTrue(changedRequests > requests);
+            assertEquals(5, countEntries(changed, DistributionEntry.CHEMICAL));
+
+            // A change to the settings that the entries depend upon causes every workbook to be
+            // parsed again.
+            RefsetSnapshotStore upgraded = new RefsetSnapshotStore(snapshotDirectory,
+                    Duration.ofDays(1), Collections.singletonMap("pluginVersion", "2.0.0"));
+            parse(newRemoteProvider(BatchMode.LOOKUP), upgraded);
+            assertTrue(server.getRequestCount("$lookup") > changedRequests);
+        } finally {
+            try (Stream<Path> paths = Files.list(snapshotDirectory)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(snapshotDirectory);
+        }
+    }
+
+    public void testLazyModeParsesOnlyRequestedEntries() throws Exception {
+        try (AsyncLookupEngine lookupEngine = new AsyncLookupEngine(
+                new MemoizingCodeStatusProvider(newRemoteProvider(BatchMode.LOOKUP)), 4)) {
+            SpiaDistribution distribution = new SpiaDistribution(distributionFile.toFile(),
+                    lookupEngine, ucumService, false, null, null, true);
+            assertEquals(2, distribution.getRefset(DistributionEntry.PREFERRED_UNITS)
+                    .getRefsetEntries().size());
+            assertEquals(0, server.getRequestCount("$lookup"));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Refset>> results = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    results.add(executor.submit(
+                            () -> distribution.getRefset(DistributionEntry.CHEMICAL)));
+                }
+                Refset chemical = results.get(0).get();
+                for (Future<Refset> result : results) {
+                    assertSame(chemical, result.get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            int requests = server.getRequestCount("$lookup");
+            assertTrue(requests > 0);
+
+            assertEquals(4, countEntries(distribution, DistributionEntry.CHEMICAL));
+            assertEquals(requests, server.getRequestCount("$lookup"));
+            assertEntryCounts(distribution);
+        }
+    }
+
+    private SpiaDistribution parse(CodeStatusProvider remote) throws Exception {
+        return parse(remote, false);
+    }
+
+    private SpiaDistribution parse(CodeStatusProvider remote, boolean streaming)
+            throws Exception {
+        try (AsyncLookupEngine lookupEngine = new AsyncLookupEngine(
+                new MemoizingCodeStatusProvider(remote), 4)) {
+            return new SpiaDistribution(distributionFile.toFile(), lookupEngine, ucumService,
+                    streaming);
+        }
+    }
+
+    private SpiaDistribution parse(CodeStatusProvider remote, RefsetSnapshotStore store)
+            throws Exception {
+        try (AsyncLookupEngine lookupEngine = new AsyncLookupEngine(
+                new MemoizingCodeStatusProvider(remote), 4)) {
+            return new SpiaDistribution(distributionFile.toFile(), lookupEngine, ucumService,
+                    false, null, store);
+        }
+    }
+
+    private CodeStatusProvider newRemoteProvider(BatchMode batchMode) {
+        // Each test needs its own context, as the client factory remembers the server base.
+        TerminologyClient client = FhirContext.forR4().newRestfulClient(TerminologyClient.class,
+                serverUrl);
+        return new RemoteCodeStatusProvider(client, Collections.emptyMap(), batchMode);
+    }
+
+    private static void assertEntryCounts(SpiaDistribution distribution) {
+        // Inactive codes are excluded from each of the reference sets.
+        assertEquals(2, countEntries(distribution, DistributionEntry.REQUESTING));
+        assertEquals(4, countEntries(distribution, DistributionEntry.CHEMICAL));
+        assertEquals(3, countEntries(distribution, DistributionEntry.HAEMATOLOGY));
+        assertEquals(2, countEntries(distribution, DistributionEntry.IMMUNOPATHOLOGY));
+        assertEquals(2,
+                countEntries(distribution, DistributionEntry.MICROBIOLOGY_SEROLOGY_MOLECULAR));
+        assertEquals(2, countEntries(distribution, DistributionEntry.MICROBIOLOGY_ORGANISMS));
+        assertEquals(2, countEntries(distribution, DistributionEntry.PREFERRED_UNITS));
+        assertEquals(Arrays.asList(DistributionEntry.values()),
+                new ArrayList<>(distribution.getRefsets().keySet()));
+    }
+
+    private static int countEntries(SpiaDistribution distribution, DistributionEntry entry) {
+        return distribution.getRefsets().get(entry).getRefsetEntries().size();
+    }
+
+    private static SyntheticDistribution buildDistribution() {
+        return new SyntheticDistribution()
+                .addRow(DistributionEntry.REQUESTING, "Urea", "26604007", null)
+                .addRow(DistributionEntry.REQUESTING, "Liver function tests", "119297000", null)
+                .addRow(DistributionEntry.REQUESTING, "Withdrawn request", "165816005", null)
+                .addRow(DistributionEntry.CHEMICAL, "Creatinine", "14682-9", "umol/L")
+                .addRow(DistributionEntry.CHEMICAL, "Glucose", "2345-7", "mmol/L")
+                .addRow(DistributionEntry.CHEMICAL, "Sodium", "2951-2", "mmol/L")
+                .addRow(DistributionEntry.CHEMICAL, "Potassium", "2823-3", "mmol/L")
+                .addRow(DistributionEntry.CHEMICAL, "Deprecated test", "26924-1", "mmol/L")
+                .addRow(DistributionEntry.HAEMATOLOGY, "Haemoglobin", "718-7", "g/L")
+                .addRow(DistributionEntry.HAEMATOLOGY, "White cell count", "6690-2", "10*9/L")
+                .addRow(DistributionEntry.HAEMATOLOGY, "Red cell count", "789-8", "10*12/L")
+                .addRow(DistributionEntry.IMMUNOPATHOLOGY, "HBsAg", "5196-1", "No unit")
+                .addRow(DistributionEntry.IMMUNOPATHOLOGY, "HBc Ab", "13955-0", "No unit")
+                .addRow(DistributionEntry.IMMUNOPATHOLOGY, "Deprecated test", "7905-3", "No unit")
+                .addRow(DistributionEntry.MICROBIOLOGY_SEROLOGY_MOLECULAR, "HBs Ab", "5195-3",
+                        "No unit")
+                .addRow(DistributionEntry.MICROBIOLOGY_SEROLOGY_MOLECULAR, "HBsAg", "5196-1",
+                        "No unit")
+                .addRow(DistributionEntry.MICROBIOLOGY_ORGANISMS, "Staphylococcus aureus",
+                        "3092008 | Staphylococcus aureus |", null)
+                .addRow(DistributionEntry.MICROBIOLOGY_ORGANISMS, "Escherichia coli",
+                        "112283007", null)
+                .addRow(DistributionEntry.PREFERRED_UNITS, "millimole per litre", null, "mmol/L")
+                .addRow(DistributionEntry.PREFERRED_UNITS, "gram per litre", null, "g/L");
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+public class StreamingSheetSourceTest extends TestCase {
+
+    public void testRowsMatchWorkbook() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        workbook.createSheet("Other").createRow(0).createCell(0).setCellValue("Ignored");
+        Sheet sheet = workbook.createSheet("Terms");
+        Row header = sheet.createRow(0);
+        header.createCell(0).setCellValue("RCPA Preferred term");
+        header.createCell(1).setCellValue("LOINC");
+        Row first = sheet.createRow(1);
+        first.createCell(0).setCellValue(" Creatinine ");
+        first.createCell(1).setCellValue("14682-9");
+        first.createCell(3).setCellValue(42);
+        first.createCell(4).setCellValue(true);
+        first.createCell(5).setCellFormula("1+1");
+        first.createCell(6);
+        // Skip a row, to check that row numbers are preserved.
+        Row third = sheet.createRow(3);
+        XSSFRichTextString richText = new XSSFRichTextString("Sodium");
+        richText.applyFont(0, 3, workbook.createFont());
+        third.createCell(0).setCellValue(richText);
+        third.createCell(27).setCellValue("AB");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        workbook.write(output);
+
+        List<SheetRow> expected = readAll(new WorkbookSheetSource(workbook).getSheet("Terms"));
+        List<SheetRow> actual;
+        try (StreamingSheetSource source = new StreamingSheetSource(
+                new ByteArrayInputStream(output.toByteArray()))) {
+            assertNull(source.getSheet("Missing"));
+            actual = readAll(source.getSheet("Terms"));
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            SheetRow expectedRow = expected.get(i);
+            SheetRow actualRow = actual.get(i);
+            assertEquals(expectedRow.getRowNum(), actualRow.getRowNum());
+            int cellCount = Math.max(expectedRow.getCellCount(), actualRow.getCellCount());
+            for (int j = 0; j < cellCount; j++) {
+                assertEquals(expectedRow.getCellType(j), actualRow.getCellType(j));
+                assertEquals(expectedRow.getStringValue(j), actualRow.getStringValue(j));
+            }
+        }
+        assertEquals(3, actual.get(2).getRowNum());
+        assertEquals("AB", actual.get(2).getStringValue(27));
+    }
+
+    public void testColumnIndex() {
+        assertEquals(0, StreamingSheetSource.getColumnIndex("A1"));
+        assertEquals(25, StreamingSheetSource.getColumnIndex("Z10"));
+        assertEquals(27, StreamingSheetSource.getColumnIndex("AB3"));
+    }
+
+    private static List<SheetRow> readAll(Iterable<SheetRow> rows) {
+        List<SheetRow> result = new ArrayList<>();
+        rows.forEach(result::add);
+        return result;
+    }
+
+}
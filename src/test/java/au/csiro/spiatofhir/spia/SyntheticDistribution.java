@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.spia;
+
+import au.csiro.spiatofhir.spia.SpiaDistribution.DistributionEntry;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Builds a synthetic SPIA distribution ZIP file, with a workbook for each reference set that has
+ * the expected file name, sheet name and headers, followed by the rows supplied by the test.
+ */
+public class SyntheticDistribution {
+
+    private static final Map<DistributionEntry, String[]> headers = new EnumMap<>(
+            DistributionEntry.class);
+    private static final Map<DistributionEntry, Integer> unitColumns = new EnumMap<>(
+            DistributionEntry.class);
+
+    static {
+        headers.put(DistributionEntry.REQUESTING, RequestingRefset.expectedHeaders);
+        headers.put(DistributionEntry.CHEMICAL, ChemicalPathologyRefset.expectedHeaders);
+        headers.put(DistributionEntry.HAEMATOLOGY, HaematologyRefset.expectedHeaders);
+        headers.put(DistributionEntry.IMMUNOPATHOLOGY, ImmunopathologyRefset.expectedHeaders);
+        headers.put(DistributionEntry.MICROBIOLOGY_SEROLOGY_MOLECULAR,
+                MicrobiologySerologyMolecularRefset.expectedHeaders);
+        headers.put(DistributionEntry.MICROBIOLOGY_ORGANISMS,
+                MicrobiologySubsetOfOrganismsRefset.expectedHeaders);
+        headers.put(DistributionEntry.PREFERRED_UNITS, PreferredUnitsRefset.expectedHeaders);
+        unitColumns.put(DistributionEntry.CHEMICAL, 8);
+        unitColumns.put(DistributionEntry.HAEMATOLOGY, 8);
+        unitColumns.put(DistributionEntry.IMMUNOPATHOLOGY, 8);
+        unitColumns.put(DistributionEntry.MICROBIOLOGY_SEROLOGY_MOLECULAR, 9);
+        unitColumns.put(DistributionEntry.PREFERRED_UNITS, 2);
+    }
+
+    private final Map<DistributionEntry, List<String[]>> rows = new EnumMap<>(
+            DistributionEntry.class);
+    private final Map<DistributionEntry, Map<Integer, String>> renamedColumns = new EnumMap<>(
+            DistributionEntry.class);
+
+    /**
+     * Adds a row to a reference set. The code is ignored for the Preferred Units table, and the
+     * unit is ignored for reference sets that do not have one.
+     */
+    public SyntheticDistribution addRow(DistributionEntry entry, String preferredTerm, String code,
+            String unit) {
+        rows.computeIfAbsent(entry, e -> new ArrayList<>())
+                .add(new String[]{preferredTerm, code, unit});
+        return this;
+    }
+
+    /**
+     * Replaces the header of a column within a reference set, so that the reference set fails
+     * validation.
+     */
+    public SyntheticDistribution renameColumn(DistributionEntry entry, int column, String header) {
+        renamedColumns.computeIfAbsent(entry, e -> new HashMap<>()).put(column, header);
+        return this;
+    }
+
+    public void write(Path zipFile) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (DistributionEntry entry : DistributionEntry.values()) {
+                zip.putNextEntry(new ZipEntry(SpiaDistribution.expectedEntries.get(entry)));
+                try (XSSFWorkbook workbook = buildWorkbook(entry)) {
+                    workbook.write(new NonClosingOutputStream(zip));
+                }
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private XSSFWorkbook buildWorkbook(DistributionEntry entry) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        String sheetName = entry.getSheetName();
+        if (entry == DistributionEntry.PREFERRED_UNITS) {
+            sheetName = PreferredUnitsRefset.SHEET_NAME;
+        }
+        Sheet sheet = workbook.createSheet(sheetName);
+        Row headerRow = sheet.createRow(0);
+        String[] entryHeaders = headers.get(entry).clone();
+        renamedColumns.getOrDefault(entry, Collections.emptyMap())
+                .forEach((column, header) -> entryHeaders[column] = header);
+        for (int i = 0; i < entryHeaders.length; i++) {
+            headerRow.createCell(i).setCellValue(entryHeaders[i]);
+        }
+        // The Immunopathology reference set has a subgroup heading in its second row.
+        int rowNumber = entry == DistributionEntry.IMMUNOPATHOLOGY ? 2 : 1;
+        for (String[] values : rows.getOrDefault(entry, Collections.emptyList())) {
+            Row row = sheet.createRow(rowNumber++);
+            if (entry == DistributionEntry.PREFERRED_UNITS) {
+                row.createCell(1).setCellValue(values[0]);
+            } else {
+                row.createCell(0).setCellValue(values[0]);
+                row.createCell(entry.getCodeColumn()).setCellValue(values[1]);
+            }
+            Integer unitColumn = unitColumns.get(entry);
+            if (unitColumn != null && values[2] != null) {
+                row.createCell(unitColumn).setCellValue(values[2]);
+            }
+        }
+        return workbook;
+    }
+
+    /**
+     * Prevents the workbook from closing the ZIP stream once it has been written.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        private NonClosingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+}
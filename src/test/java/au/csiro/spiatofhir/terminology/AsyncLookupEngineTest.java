@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class AsyncLookupEngineTest extends TestCase {
+
+    public void testConcurrencyIsBounded() {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CodeStatusProvider slow = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                active.decrementAndGet();
+                return true;
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        try (AsyncLookupEngine engine = new AsyncLookupEngine(slow, 2, 3)) {
+            for (int i = 0; i < 20; i++) {
+                results.add(engine.checkActiveAsync("http://loinc.org", Integer.toString(i)));
+            }
+            results.forEach(result -> assertTrue(result.join()));
+        }
+        assertTrue("Concurrency limit exceeded: " + maxActive.get(), maxActive.get() <= 2);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
+
+public class BatchLookupTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private final List<String> singleLookups = new ArrayList<>();
+
+    public void testFailedEntriesAreLookedUpIndividually() {
+        BatchLookup batchLookup = new BatchLookup(client("500 Internal Server Error", false));
+        Map<String, Boolean> results = batchLookup.checkActive(SYSTEM, null,
+                Arrays.asList("14682-9", "26924-1", "2345-7"));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get("14682-9"));
+        // The second entry failed within the batch, and was resolved by a single lookup.
+        assertFalse(results.get("26924-1"));
+        assertTrue(results.get("2345-7"));
+        assertEquals(Arrays.asList("26924-1"), singleLookups);
+    }
+
+    public void testFailedSingleLookupIsThrown() {
+        BatchLookup batchLookup = new BatchLookup(client("404 Not Found", true));
+        try {
+            batchLookup.checkActive(SYSTEM, null, Arrays.asList("14682-9", "26924-1"));
+            fail("Expected the lookup to fail");
+        } catch (ResourceNotFoundException e) {
+            assertEquals(Arrays.asList("26924-1"), singleLookups);
+        }
+    }
+
+    /**
+     * Returns a client that answers every second entry within a batch with the specified status,
+     * and every other entry as active. Single lookups return an inactive result, or throw a 404
+     * if `notFound` is true.
+     */
+    private TerminologyClient client(String failureStatus, boolean notFound) {
+        return (TerminologyClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TerminologyClient.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "batch":
+                            Bundle request = (Bundle) args[0];
+                            Bundle response = new Bundle();
+                            for (int i = 0; i < request.getEntry().size(); i++) {
+                                BundleEntryComponent entry = response.addEntry();
+                                if (i % 2 == 1) {
+                                    entry.getResponse().setStatus(failureStatus);
+                                } else {
+                                    entry.getResponse().setStatus("200 OK");
+                                    entry.setResource(lookupResult(true));
+                                }
+                            }
+                            return response;
+                        case "lookup":
+                            singleLookups.add(((CodeType) args[1]).getValue());
+                            if (notFound) {
+                                throw new ResourceNotFoundException("Code not found");
+                            }
+                            return lookupResult(false);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static Parameters lookupResult(boolean active) {
+        Parameters result = new Parameters();
+        ParametersParameterComponent property = result.addParameter().setName("property");
+        property.addPart().setName("code").setValue(new CodeType("inactive"));
+        property.addPart().setName("value").setValue(new BooleanType(!active));
+        return result;
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import junit.framework.TestCase;
+
+public class CodeStatusProviderChainTest extends TestCase {
+
+    private static final String SYSTEM = "http://snomed.info/sct";
+    private final Function<String, Long> toKey = Long::parseLong;
+
+    public void testResultsAreWrittenBackUpTheChain() throws Exception {
+        CountingProvider remote = new CountingProvider();
+        CodeStatusIndex index = new CodeStatusIndex.Builder()
+                .add(302509004L, true)
+                .add(165816005L, false)
+                .build();
+        try (CodeStatusProviderChain chain = CodeStatusProviderChain.build(
+                Arrays.asList("memory", "disk", "index", "remote"), (name, next) -> {
+                    switch (name) {
+                        case "memory":
+                            return new MemoizingCodeStatusProvider(next);
+                        case "index":
+                            return new IndexedCodeStatusProvider(SYSTEM, index, toKey, next);
+                        case "remote":
+                            return remote;
+                        default:
+                            // Stages that are not configured are left out of the chain.
+                            return next;
+                    }
+                })) {
+            assertEquals(3, chain.getStages().size());
+            assertTrue(chain.checkActive(SYSTEM, "302509004"));
+            assertFalse(chain.checkActive(SYSTEM, "165816005"));
+            assertEquals(0, remote.calls);
+
+            assertTrue(chain.checkActive(SYSTEM, "119297000"));
+            assertTrue(chain.checkActive(SYSTEM, "119297000"));
+            assertEquals(1, remote.calls);
+        }
+    }
+
+    public void testEmptyChainIsRejected() throws Exception {
+        try {
+            CodeStatusProviderChain.build(Arrays.asList("disk"), (name, next) -> next);
+            fail("Expected an exception for a chain with no stages");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static class CountingProvider implements CodeStatusProvider {
+
+        private int calls = 0;
+
+        @Override
+        public boolean checkActive(String system, String code) {
+            calls++;
+            return true;
+        }
+
+        @Override
+        public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+            calls++;
+            Map<String, Boolean> results = new HashMap<>();
+            codes.forEach(code -> results.put(code, true));
+            return results;
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+public class ExpandLookupTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private final List<ValueSet> requests = new ArrayList<>();
+
+    public void testCodesMissingFromExpansionAreInactive() {
+        ExpandLookup expandLookup = new ExpandLookup(client("14682-9", "2345-7"));
+        Map<String, Boolean> results = expandLookup.checkActive(SYSTEM, "2.68",
+                Arrays.asList("14682-9", "26924-1", "2345-7", "14682-9"));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get("14682-9"));
+        assertFalse(results.get("26924-1"));
+        assertTrue(results.get("2345-7"));
+        assertEquals(1, requests.size());
+        ConceptSetComponent include = requests.get(0).getCompose().getIncludeFirstRep();
+        assertEquals(SYSTEM, include.getSystem());
+        assertEquals("2.68", include.getVersion());
+        assertEquals(3, include.getConcept().size());
+    }
+
+    public void testCodesAreChunked() {
+        ExpandLookup expandLookup = new ExpandLookup(client("14682-9", "2345-7"), 2);
+        Map<String, Boolean> results = expandLookup.checkActive(SYSTEM, null,
+                Arrays.asList("14682-9", "26924-1", "2345-7"));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get("2345-7"));
+        assertEquals(2, requests.size());
+        assertEquals(1, requests.get(1).getCompose().getIncludeFirstRep().getConcept().size());
+        assertFalse(requests.get(1).getCompose().getIncludeFirstRep().hasVersion());
+    }
+
+    /**
+     * Returns a client that expands the requested ValueSet to those of its codes that are within
+     * the specified set of active codes. Each active code is nested within a grouping entry, and a
+     * code with the same value from another system is also included, to check that these are
+     * handled correctly.
+     */
+    private TerminologyClient client(String... activeCodes) {
+        List<String> active = Arrays.asList(activeCodes);
+        return (TerminologyClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TerminologyClient.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("expand")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    ValueSet request = (ValueSet) args[0];
+                    requests.add(request);
+                    assertTrue(((BooleanType) args[1]).booleanValue());
+                    ConceptSetComponent include = request.getCompose().getIncludeFirstRep();
+                    assertEquals(include.getConcept().size(), (int) ((IntegerType) args[2])
+                            .getValue());
+                    ValueSet expansion = new ValueSet();
+                    ValueSetExpansionContainsComponent group = expansion.getExpansion()
+                            .addContains().setAbstract(true).setDisplay("Group");
+                    for (ConceptReferenceComponent concept : include.getConcept()) {
+                        if (active.contains(concept.getCode())) {
+                            group.addContains().setSystem(SYSTEM).setCode(concept.getCode());
+                        } else {
+                            expansion.getExpansion().addContains()
+                                    .setSystem("http://example.com/other")
+                                    .setCode(concept.getCode());
+                        }
+                    }
+                    return expansion;
+                });
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+public class HedgingCodeStatusProviderTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    // The latencies measured by the provider are taken from this clock, which each replica
+    // advances by its configured latency.
+    private final AtomicLong clock = new AtomicLong();
+    // When set, the next attempt blocks until it is cancelled.
+    private final AtomicBoolean blockNext = new AtomicBoolean();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    public void testSlowAttemptsAreHedgedAndCancelled() throws Exception {
+        StubReplica first = new StubReplica(null);
+        StubReplica second = new StubReplica(null);
+        HedgingCodeStatusProvider provider = newProvider(first, second);
+        try {
+            // Record some typical latencies, so that there is a percentile to hedge after.
+            for (int i = 0; i < 20; i++) {
+                assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+            }
+            assertEquals(MILLIS, provider.getHedgeDelay(false));
+            blockNext.set(true);
+            assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+            // The blocked attempt, and the hedged attempt that answered.
+            assertEquals(22, first.calls.get() + second.calls.get());
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testLatenciesAreTrackedForEachKindOfRequest() {
+        StubReplica first = new StubReplica(null);
+        StubReplica second = new StubReplica(null);
+        HedgingCodeStatusProvider provider = newProvider(first, second);
+        try {
+            for (int i = 0; i < 20; i++) {
+                provider.checkActive(SYSTEM, Collections.singletonList("14682-9"));
+            }
+            for (int i = 0; i < 20; i++) {
+                provider.checkActive(SYSTEM, "14682-9");
+            }
+            assertEquals(200 * MILLIS, provider.getHedgeDelay(true));
+            assertEquals(MILLIS, provider.getHedgeDelay(false));
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testFailedRequestsAreSentToAnotherReplica() {
+        StubReplica failing = new StubReplica(
+                () -> new FhirClientConnectionException("Connection refused"));
+        StubReplica working = new StubReplica(null);
+        HedgingCodeStatusProvider provider = newProvider(failing, working);
+        try {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+            }
+            assertEquals(4, working.calls.get());
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testClientErrorsAreNotSentToAnotherReplica() {
+        StubReplica first = new StubReplica(() -> new InvalidRequestException("Invalid code"));
+        StubReplica second = new StubReplica(() -> new InvalidRequestException("Invalid code"));
+        HedgingCodeStatusProvider provider = newProvider(first, second);
+        try {
+            provider.checkActive(SYSTEM, "bad");
+            fail("Expected the request to fail");
+        } catch (InvalidRequestException e) {
+            assertEquals(1, first.calls.get() + second.calls.get());
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testErrorsAreReported() throws Exception {
+        StubReplica first = new StubReplica(() -> new AssertionError("Broken replica"));
+        StubReplica second = new StubReplica(() -> new AssertionError("Broken replica"));
+        HedgingCodeStatusProvider provider = newProvider(first, second);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> provider.checkActive(SYSTEM, "14682-9"))
+                    .get(10, TimeUnit.SECONDS);
+            fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        } finally {
+            executor.shutdownNow();
+            provider.close();
+        }
+    }
+
+    private HedgingCodeStatusProvider newProvider(StubReplica... replicas) {
+        return new HedgingCodeStatusProvider(Arrays.asList(replicas), 90, 1, clock::get);
+    }
+
+    private interface ErrorSupplier {
+
+        Throwable get();
+
+    }
+
+    /**
+     * A replica that takes 1 ms to look up a single code and 200 ms to look up a collection of
+     * codes, according to the clock, and optionally fails with an error.
+     */
+    private class StubReplica implements CodeStatusProvider {
+
+        private final ErrorSupplier error;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private StubReplica(ErrorSupplier error) {
+            this.error = error;
+        }
+
+        @Override
+        public boolean checkActive(String system, String code) {
+            calls.incrementAndGet();
+            if (blockNext.compareAndSet(true, false)) {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                    throw new TerminologyUnavailableException("Cancelled", e);
+                }
+            }
+            clock.addAndGet(MILLIS);
+            if (error != null) {
+                Throwable thrown = error.get();
+                if (thrown instanceof Error) {
+                    throw (Error) thrown;
+                }
+                throw (RuntimeException) thrown;
+            }
+            return true;
+        }
+
+        @Override
+        public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+            calls.incrementAndGet();
+            clock.addAndGet(200 * MILLIS);
+            return Collections.singletonMap("14682-9", true);
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import junit.framework.TestCase;
+
+public class LookupResponsesTest extends TestCase {
+
+    public void testReadsInactiveProperty() throws Exception {
+        String inactive = "{\"resourceType\":\"Parameters\",\"parameter\":["
+                + "{\"name\":\"name\",\"valueString\":\"LOINC\"},"
+                + "{\"name\":\"display\",\"valueString\":\"Creatinine\"},"
+                + "{\"name\":\"property\",\"part\":["
+                + "{\"name\":\"code\",\"valueCode\":\"inactive\"},"
+                + "{\"name\":\"valueBoolean\",\"valueBoolean\":true}]}]}";
+        assertEquals(Boolean.FALSE, LookupResponses.readActive(toStream(inactive)));
+    }
+
+    public void testActiveWithoutInactiveProperty() throws Exception {
+        String active = "{\"resourceType\":\"Parameters\",\"parameter\":["
+                + "{\"name\":\"display\",\"valueString\":\"Creatinine\"},"
+                + "{\"name\":\"property\",\"part\":["
+                + "{\"name\":\"code\",\"valueCode\":\"inactive\"},"
+                + "{\"name\":\"valueBoolean\",\"valueBoolean\":false}]}]}";
+        assertEquals(Boolean.TRUE, LookupResponses.readActive(toStream(active)));
+    }
+
+    public void testUnexpectedShapeIsNotInterpreted() throws Exception {
+        String outcome = "{\"resourceType\":\"OperationOutcome\",\"issue\":[]}";
+        assertNull(LookupResponses.readActive(toStream(outcome)));
+        String malformed = "{\"resourceType\":\"Parameters\",\"parameter\":[\"property\"]}";
+        assertNull(LookupResponses.readActive(toStream(malformed)));
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
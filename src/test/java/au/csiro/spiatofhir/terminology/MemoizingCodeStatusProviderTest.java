@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class MemoizingCodeStatusProviderTest extends TestCase {
+
+    private static final String SYSTEM = "http://snomed.info/sct";
+
+    public void testConcurrentLookupsAreCollapsed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        CodeStatusProvider slow = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                calls.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        MemoizingCodeStatusProvider memo = new MemoizingCodeStatusProvider(slow);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> assertTrue(memo.checkActive(SYSTEM, "48176007")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(3, memo.getHits());
+        assertEquals(1, memo.getMisses());
+    }
+
+    public void testUnresolvedBatchCodesFallBackToIndividualLookup() {
+        AtomicInteger individualCalls = new AtomicInteger();
+        CodeStatusProvider partial = new CodeStatusProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                individualCalls.incrementAndGet();
+                return false;
+            }
+
+            @Override
+            public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+                Map<String, Boolean> results = new HashMap<>();
+                results.put("48176007", true);
+                return results;
+            }
+        };
+        MemoizingCodeStatusProvider memo = new MemoizingCodeStatusProvider(partial);
+        Map<String, Boolean> results = memo.checkActive(SYSTEM, Arrays.asList("48176007", "22298006"));
+        assertEquals(1, results.size());
+        assertTrue(memo.checkActive(SYSTEM, "48176007"));
+        assertFalse(memo.checkActive(SYSTEM, "22298006"));
+        assertEquals(1, individualCalls.get());
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class PersistentCodeStatusCacheTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private Path cacheFile;
+    private CountingProvider remote;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        cacheFile = Files.createTempDirectory("spia-cache").resolve("terminology-cache.bin");
+        remote = new CountingProvider();
+    }
+
+    public void testWarmRunMakesNoRemoteCalls() throws Exception {
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ofDays(1), Collections.emptyMap())) {
+            assertTrue(cache.checkActive(SYSTEM, "14682-9"));
+            assertEquals(2, cache.checkActive(SYSTEM, Arrays.asList("14682-9", "26924-1")).size());
+        }
+        assertEquals(2, remote.calls);
+
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ofDays(1), Collections.emptyMap())) {
+            assertTrue(cache.checkActive(SYSTEM, "14682-9"));
+            assertFalse(cache.checkActive(SYSTEM, "26924-1"));
+        }
+        assertEquals(2, remote.calls);
+    }
+
+    public void testEntriesArePartitionedByVersion() throws Exception {
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ofDays(1), Collections.singletonMap(SYSTEM, "2.68"))) {
+            cache.checkActive(SYSTEM, "14682-9");
+        }
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ofDays(1), Collections.singletonMap(SYSTEM, "2.69"))) {
+            cache.checkActive(SYSTEM, "14682-9");
+        }
+        assertEquals(2, remote.calls);
+    }
+
+    public void testExpiredEntriesAreRefreshed() throws Exception {
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ZERO, Collections.emptyMap())) {
+            cache.checkActive(SYSTEM, "14682-9");
+            Thread.sleep(5);
+            cache.checkActive(SYSTEM, "14682-9");
+        }
+        assertEquals(2, remote.calls);
+    }
+
+    public void testFallsBackToExpiredEntries() throws Exception {
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote, cacheFile,
+                Duration.ofDays(1), Collections.emptyMap(), true)) {
+            cache.checkActive(SYSTEM, "26924-1");
+        }
+        CodeStatusProvider unavailable = new CountingProvider() {
+            @Override
+            public boolean checkActive(String system, String code) {
+                throw new TerminologyUnavailableException("Terminology server is unavailable");
+            }
+        };
+        try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(unavailable,
+                cacheFile, Duration.ZERO, Collections.emptyMap(), true)) {
+            Thread.sleep(5);
+            assertFalse(cache.checkActive(SYSTEM, "26924-1"));
+            try {
+                cache.checkActive(SYSTEM, "14682-9");
+                fail("Expected an exception for a code with no expired entry");
+            } catch (TerminologyUnavailableException e) {
+                // Expected.
+            }
+        }
+    }
+
+    public void testCorruptCacheIsIgnored() throws Exception {
+        // The partition count, and the partition index of the first entry.
+        for (int[] corruption : new int[][]{{8, 0xFF}, {36, 0x7F}}) {
+            try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote,
+                    cacheFile, Duration.ofDays(1), Collections.emptyMap())) {
+                cache.checkActive(SYSTEM, "14682-9");
+            }
+            try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) corruption[1]}), corruption[0]);
+            }
+            int calls = remote.calls;
+            try (PersistentCodeStatusCache cache = new PersistentCodeStatusCache(remote,
+                    cacheFile, Duration.ofDays(1), Collections.emptyMap())) {
+                assertTrue(cache.checkActive(SYSTEM, "14682-9"));
+            }
+            assertEquals(calls + 1, remote.calls);
+        }
+    }
+
+    /**
+     * Reports every code as active, except for 26924-1.
+     */
+    private static class CountingProvider implements CodeStatusProvider {
+
+        private int calls = 0;
+
+        @Override
+        public boolean checkActive(String system, String code) {
+            calls++;
+            return !code.equals("26924-1");
+        }
+
+        @Override
+        public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+            calls++;
+            Map<String, Boolean> results = new HashMap<>();
+            codes.forEach(code -> results.put(code, !code.equals("26924-1")));
+            return results;
+        }
+
+    }
+
+}
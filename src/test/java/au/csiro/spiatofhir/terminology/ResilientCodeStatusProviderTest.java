@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class ResilientCodeStatusProviderTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+
+    public void testTransientFailuresAreRetried() {
+        FlakyProvider flaky = new FlakyProvider(2);
+        ResilientCodeStatusProvider provider = newProvider(flaky, Duration.ofMinutes(1));
+        assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+        assertEquals(3, flaky.calls);
+    }
+
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        FlakyProvider flaky = new FlakyProvider(Integer.MAX_VALUE);
+        ResilientCodeStatusProvider provider = newProvider(flaky, Duration.ofMinutes(1));
+        try {
+            provider.checkActive(SYSTEM, "14682-9");
+            fail("Expected the request to fail");
+        } catch (TerminologyUnavailableException e) {
+            // Expected.
+        }
+        // The circuit opened after the third failure, so the fourth attempt was not made.
+        assertEquals(3, flaky.calls);
+        try {
+            provider.checkActive(SYSTEM, "26924-1");
+            fail("Expected the request to fail fast");
+        } catch (TerminologyUnavailableException e) {
+            // Expected.
+        }
+        assertEquals(3, flaky.calls);
+    }
+
+    public void testTrialRequestClosesCircuit() throws Exception {
+        FlakyProvider flaky = new FlakyProvider(3);
+        ResilientCodeStatusProvider provider = newProvider(flaky, Duration.ofMillis(10));
+        try {
+            provider.checkActive(SYSTEM, "14682-9");
+            fail("Expected the request to fail");
+        } catch (TerminologyUnavailableException e) {
+            // Expected.
+        }
+        Thread.sleep(20);
+        assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+        assertEquals(4, flaky.calls);
+    }
+
+    public void testClientErrorsAreNotRetried() {
+        FlakyProvider flaky = new FlakyProvider(0);
+        ResilientCodeStatusProvider provider = newProvider(flaky, Duration.ofMinutes(1));
+        try {
+            provider.checkActive(SYSTEM, "bad");
+            fail("Expected the request to fail");
+        } catch (InvalidRequestException e) {
+            // Expected.
+        }
+        assertEquals(1, flaky.calls);
+    }
+
+    private static ResilientCodeStatusProvider newProvider(CodeStatusProvider delegate,
+            Duration openDuration) {
+        return new ResilientCodeStatusProvider(delegate, 4, Duration.ofMillis(1),
+                Duration.ofMillis(5), Duration.ofMinutes(1), 3, openDuration);
+    }
+
+    /**
+     * Times out for the specified number of calls, then succeeds. The code "bad" is always
+     * rejected as an invalid request.
+     */
+    private static class FlakyProvider implements CodeStatusProvider {
+
+        private final int failures;
+        private int calls = 0;
+
+        private FlakyProvider(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public boolean checkActive(String system, String code) {
+            calls++;
+            if (code.equals("bad")) {
+                throw new InvalidRequestException("Invalid code");
+            }
+            if (calls <= failures) {
+                throw new FhirClientConnectionException(
+                        new SocketTimeoutException("Read timed out"));
+            }
+            return true;
+        }
+
+        @Override
+        public Map<String, Boolean> checkActive(String system, Collection<String> codes) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
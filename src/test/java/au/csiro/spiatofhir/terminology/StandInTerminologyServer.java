@@ -0,0 +1,692 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CapabilityStatement.CapabilityStatementKind;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Enumerations.FHIRVersion;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionComponent;
+
+/**
+ * A lightweight, in-process stand-in for a FHIR terminology server, for use in tests and offline
+ * benchmarks.
+ * <p>
+ * Answers {@code CodeSystem/$lookup}, {@code CodeSystem/$validate-code} and
+ * {@code ValueSet/$expand} requests, as well as batch Bundles of these, from a set of fixtures.
+ * Each fixture records whether a code is active within its code system, and its display. Fixture
+ * files are tab-separated, with one code per line: system, code, active ({@code true} or
+ * {@code false}) and display.
+ * <p>
+ * In record mode, requests for codes without a fixture are forwarded to a real terminology server,
+ * and the responses are captured as new fixtures. Latency and errors can also be injected into the
+ * responses.
+ * <p>
+ * The server also stores resources that are published to it using transaction Bundles of
+ * {@code PUT} requests, honouring {@code If-Match} preconditions, and answers searches for them by
+ * {@code _id}. Search results are paged according to {@code _count}, up to a maximum page size,
+ * with a {@code next} link to each following page. Only {@code meta} is supported within
+ * {@code _elements}.
+ *
+ * @author John Grimes
+ */
+public class StandInTerminologyServer implements Closeable {
+
+    private static final String BASE_PATH = "/fhir";
+    private final FhirContext fhirContext = FhirContext.forR4();
+    private final Map<String, Fixture> fixtures = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+    private final Random random = new Random(0);
+    private HttpServer server;
+    private ExecutorService executor;
+    private long latency = 0;
+    private long jitter = 0;
+    private double errorRate = 0;
+    private int errorStatus = 503;
+    private int maxRequestSize = 0;
+    private int maxPageSize = 100;
+    private volatile Runnable beforeTransaction;
+    private String baseUrl;
+    private boolean nonFhirResponses = false;
+    private String upstreamUrl;
+
+    /**
+     * Runs a stand-in server from the command line, for benchmarking.
+     * <p>
+     * Arguments: fixture file, port, latency (ISO 8601 duration, optional).
+     */
+    public static void main(String[] args) throws IOException {
+        StandInTerminologyServer server = new StandInTerminologyServer()
+                .loadFixtures(Paths.get(args[0]));
+        if (args.length > 2) {
+            server.setLatency(Duration.parse(args[2]), Duration.ZERO);
+        }
+        System.out.println("Stand-in terminology server listening at: " + server
+                .start(Integer.parseInt(args[1])));
+    }
+
+    public StandInTerminologyServer addCode(String system, String code, boolean active,
+            String display) {
+        fixtures.put(key(system, code), new Fixture(system, code, active, display));
+        return this;
+    }
+
+    public StandInTerminologyServer loadFixtures(Path file) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", 4);
+            addCode(fields[0], fields[1], Boolean.parseBoolean(fields[2]),
+                    fields.length > 3 ? fields[3] : null);
+        }
+        return this;
+    }
+
+    public void saveFixtures(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        fixtures.values().forEach(fixture -> lines.add(
+                fixture.system + "\t" + fixture.code + "\t" + fixture.active + "\t" + (
+                        fixture.display == null ? "" : fixture.display)));
+        lines.sort(String::compareTo);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delays each response by the specified latency, plus a random amount up to the specified
+     * jitter.
+     */
+    public StandInTerminologyServer setLatency(Duration latency, Duration jitter) {
+        this.latency = latency.toMillis();
+        this.jitter = jitter.toMillis();
+        return this;
+    }
+
+    /**
+     * Fails the specified proportion of requests (other than those for the capability statement)
+     * with the specified HTTP status.
+     */
+    public StandInTerminologyServer setErrorRate(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * Answers requests (other than those for the capability statement) with an HTML page and a
+     * 200 status, as a misconfigured proxy might.
+     */
+    public StandInTerminologyServer setNonFhirResponses(boolean nonFhirResponses) {
+        this.nonFhirResponses = nonFhirResponses;
+        return this;
+    }
+
+    /**
+     * Rejects requests with a body larger than the specified number of bytes with a 413 status.
+     */
+    public StandInTerminologyServer setMaxRequestSize(int maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+        return this;
+    }
+
+    /**
+     * Limits the number of results within each page of search results, regardless of the
+     * {@code _count} that is requested.
+     */
+    public StandInTerminologyServer setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    /**
+     * Runs the hook before each transaction is applied, e.g. to simulate a concurrent update using
+     * {@link #putResource(Resource)}.
+     */
+    public StandInTerminologyServer setBeforeTransaction(Runnable beforeTransaction) {
+        this.beforeTransaction = beforeTransaction;
+        return this;
+    }
+
+    /**
+     * Forwards requests for codes without a fixture to the terminology server at the specified
+     * URL, and captures the results as fixtures. Use {@link #saveFixtures(Path)} to persist them.
+     */
+    public StandInTerminologyServer record(String upstreamUrl) {
+        this.upstreamUrl = upstreamUrl.endsWith("/") ? upstreamUrl
+                .substring(0, upstreamUrl.length() - 1) : upstreamUrl;
+        return this;
+    }
+
+    /**
+     * Starts the server on an ephemeral port, and returns its base URL.
+     */
+    public String start() throws IOException {
+        return start(0);
+    }
+
+    public String start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stand-in-terminology-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(BASE_PATH, this::handle);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+        return baseUrl;
+    }
+
+    /**
+     * Returns the number of HTTP requests received for an operation (e.g. `$lookup`), or for
+     * `batch`, `transaction`, `search` or `metadata`. Requests within a batch are counted against
+     * their operation as well.
+     */
+    public int getRequestCount(String operation) {
+        AtomicInteger count = requestCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns the largest number of requests (other than those for the capability statement) that
+     * were being handled at the same time.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxActiveRequests.get();
+    }
+
+    /**
+     * Returns the stored resource with the specified type and id, or null if there is none.
+     */
+    public Resource getResource(String type, String id) {
+        return resources.get(type + "/" + id);
+    }
+
+    /**
+     * Stores a new version of a resource, as if it had been updated by another client.
+     */
+    public synchronized void putResource(Resource resource) {
+        store(resource.fhirType() + "/" + resource.getIdElement().getIdPart(), resource);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+            byte[] body = readFully(exchange.getRequestBody());
+            if (path.equals("/metadata")) {
+                count("metadata");
+                respond(exchange, 200, capabilityStatement());
+                return;
+            }
+            maxActiveRequests.accumulateAndGet(activeRequests.incrementAndGet(), Math::max);
+            try {
+                injectLatency();
+                if (random.nextDouble() < errorRate) {
+                    respond(exchange, errorStatus,
+                            outcome(IssueType.TRANSIENT, "Injected error"));
+                    return;
+                }
+                if (nonFhirResponses) {
+                    respond(exchange, 200, "text/html;charset=UTF-8",
+                            "<html><body>Service temporarily unavailable</body></html>"
+                                    .getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (maxRequestSize > 0 && body.length > maxRequestSize) {
+                    respond(exchange, 413, outcome(IssueType.TOOLONG,
+                            "Request of " + body.length + " bytes exceeds limit"));
+                    return;
+                }
+                Response response;
+                if (path.isEmpty() || path.equals("/")) {
+                    Bundle bundle = (Bundle) parser()
+                            .parseResource(new ByteArrayInputStream(body));
+                    if (bundle.getType() == BundleType.TRANSACTION) {
+                        count("transaction");
+                        response = transaction(bundle);
+                    } else {
+                        count("batch");
+                        response = batch(bundle);
+                    }
+                } else {
+                    response = operation(path, exchange.getRequestURI().getRawQuery(), body);
+                }
+                respond(exchange, response.status, response.resource);
+            } finally {
+                activeRequests.decrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, outcome(IssueType.EXCEPTION, e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response operation(String path, String query, byte[] body) throws IOException {
+        Map<String, String> params = parseQuery(query);
+        Parameters parameters = null;
+        if (body.length > 0) {
+            parameters = (Parameters) parser().parseResource(new ByteArrayInputStream(body));
+            for (ParametersParameterComponent parameter : parameters.getParameter()) {
+                if (parameter.getValue() instanceof PrimitiveType) {
+                    params.put(parameter.getName(),
+                            ((PrimitiveType<?>) parameter.getValue()).getValueAsString());
+                }
+            }
+        }
+        switch (path) {
+            case "/CodeSystem/$lookup":
+                count("$lookup");
+                return lookup(params);
+            case "/CodeSystem/$validate-code":
+                count("$validate-code");
+                return validateCode(params);
+            case "/ValueSet/$expand":
+                count("$expand");
+                ValueSet valueSet = parameters == null ? null : (ValueSet) parameters
+                        .getParameter().stream()
+                        .filter(p -> p.getName().equals("valueSet"))
+                        .map(ParametersParameterComponent::getResource)
+                        .findFirst()
+                        .orElse(null);
+                if (valueSet == null) {
+                    return new Response(400,
+                            outcome(IssueType.REQUIRED, "Inline valueSet is required"));
+                }
+                return expand(valueSet, Boolean.parseBoolean(params.get("activeOnly")));
+            default:
+                if (path.matches("/[A-Z][A-Za-z]*") && params.containsKey("_id")) {
+                    count("search");
+                    return search(path.substring(1), params);
+                }
+                return new Response(404,
+                        outcome(IssueType.NOTSUPPORTED, "Unsupported path: " + path));
+        }
+    }
+
+    private Response lookup(Map<String, String> params) throws IOException {
+        Fixture fixture = getFixture(params.get("system"), params.get("code"));
+        if (fixture == null) {
+            return new Response(404, outcome(IssueType.NOTFOUND,
+                    "Code not found: " + params.get("system") + "|" + params.get("code")));
+        }
+        Parameters result = new Parameters();
+        result.addParameter("name", fixture.system);
+        if (fixture.display != null) {
+            result.addParameter("display", fixture.display);
+        }
+        ParametersParameterComponent property = result.addParameter().setName("property");
+        property.addPart().setName("code").setValue(new CodeType("inactive"));
+        property.addPart().setName("value").setValue(new BooleanType(!fixture.active));
+        return new Response(200, result);
+    }
+
+    private Response validateCode(Map<String, String> params) throws IOException {
+        Fixture fixture = getFixture(params.get("system"), params.get("code"));
+        Parameters result = new Parameters();
+        result.addParameter("result", fixture != null && fixture.active);
+        if (fixture == null) {
+            result.addParameter("message", "Code not found");
+        } else if (fixture.display != null) {
+            result.addParameter("display", fixture.display);
+        }
+        return new Response(200, result);
+    }
+
+    private Response expand(ValueSet valueSet, boolean activeOnly) throws IOException {
+        ValueSetExpansionComponent expansion = valueSet.getExpansion();
+        expansion.setTimestamp(new Date());
+        for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+            List<Fixture> included = new ArrayList<>();
+            if (include.hasConcept()) {
+                for (ConceptReferenceComponent concept : include.getConcept()) {
+                    Fixture fixture = getFixture(include.getSystem(), concept.getCode());
+                    if (fixture != null) {
+                        included.add(fixture);
+                    }
+                }
+            } else {
+                fixtures.values().stream()
+                        .filter(fixture -> fixture.system.equals(include.getSystem()))
+                        .forEach(included::add);
+            }
+            included.stream()
+                    .filter(fixture -> fixture.active || !activeOnly)
+                    .forEach(fixture -> expansion.addContains()
+                            .setSystem(fixture.system)
+                            .setCode(fixture.code)
+                            .setDisplay(fixture.display)
+                            .setInactive(!fixture.active));
+        }
+        expansion.setTotal(expansion.getContains().size());
+        valueSet.setStatus(PublicationStatus.ACTIVE);
+        return new Response(200, valueSet);
+    }
+
+    private Response batch(Bundle request) throws IOException {
+        Bundle response = new Bundle();
+        response.setType(BundleType.BATCHRESPONSE);
+        for (BundleEntryComponent entry : request.getEntry()) {
+            URI url = URI.create("/" + entry.getRequest().getUrl());
+            Response entryResponse = operation(url.getPath(), url.getRawQuery(), new byte[0]);
+            BundleEntryComponent responseEntry = response.addEntry();
+            responseEntry.setResource((Resource) entryResponse.resource);
+            responseEntry.getResponse().setStatus(entryResponse.status + " " + (
+                    entryResponse.status == 200 ? "OK" : "Error"));
+        }
+        return new Response(200, response);
+    }
+
+    private Response search(String type, Map<String, String> params)
+            throws UnsupportedEncodingException {
+        List<Resource> matches = new ArrayList<>();
+        for (String id : params.get("_id").split(",")) {
+            Resource resource = getResource(type, id);
+            if (resource != null) {
+                matches.add(resource);
+            }
+        }
+        int count = params.containsKey("_count")
+                ? Math.max(1, Math.min(Integer.parseInt(params.get("_count")), maxPageSize))
+                : maxPageSize;
+        int offset = Integer.parseInt(params.getOrDefault("_offset", "0"));
+        Bundle response = new Bundle();
+        response.setType(BundleType.SEARCHSET);
+        for (Resource resource : matches.subList(Math.min(offset, matches.size()),
+                Math.min(offset + count, matches.size()))) {
+            response.addEntry().setResource(
+                    "meta".equals(params.get("_elements")) ? subset(resource) : resource);
+        }
+        if (offset + count < matches.size()) {
+            StringBuilder next = new StringBuilder(baseUrl + "/" + type + "?_offset="
+                    + (offset + count));
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                if (!param.getKey().equals("_offset")) {
+                    next.append("&").append(encode(param.getKey())).append("=")
+                            .append(encode(param.getValue()));
+                }
+            }
+            response.addLink().setRelation(Bundle.LINK_NEXT).setUrl(next.toString());
+        }
+        response.setTotal(matches.size());
+        return new Response(200, response);
+    }
+
+    /**
+     * Returns a copy of the resource containing only its id and metadata, marked as subsetted.
+     */
+    private Resource subset(Resource resource) {
+        Resource subset = (Resource) fhirContext.getResourceDefinition(resource).newInstance();
+        subset.setIdElement(resource.getIdElement().copy());
+        subset.setMeta(resource.getMeta().copy());
+        subset.getMeta().addTag("http://terminology.hl7.org/CodeSystem/v3-ObservationValue",
+                "SUBSETTED", null);
+        return subset;
+    }
+
+    /**
+     * Applies the {@code PUT} requests within a transaction, or none of them if any of their
+     * {@code If-Match} preconditions fail.
+     */
+    private synchronized Response transaction(Bundle request) {
+        if (beforeTransaction != null) {
+            beforeTransaction.run();
+        }
+        for (BundleEntryComponent entry : request.getEntry()) {
+            if (entry.getRequest().getMethod() != HTTPVerb.PUT) {
+                return new Response(400, outcome(IssueType.NOTSUPPORTED,
+                        "Unsupported method: " + entry.getRequest().getMethod()));
+            }
+            Resource existing = resources.get(entry.getRequest().getUrl());
+            String ifMatch = entry.getRequest().getIfMatch();
+            if (ifMatch != null && (existing == null || !ifMatch.replaceAll("^W/|\"", "")
+                    .equals(existing.getMeta().getVersionId()))) {
+                return new Response(412, outcome(IssueType.CONFLICT,
+                        "Version conflict: " + entry.getRequest().getUrl()));
+            }
+        }
+        Bundle response = new Bundle();
+        response.setType(BundleType.TRANSACTIONRESPONSE);
+        for (BundleEntryComponent entry : request.getEntry()) {
+            String url = entry.getRequest().getUrl();
+            boolean created = !resources.containsKey(url);
+            String versionId = store(url, entry.getResource());
+            response.addEntry().getResponse()
+                    .setStatus(created ? "201 Created" : "200 OK")
+                    .setLocation(url + "/_history/" + versionId)
+                    .setEtag("W/\"" + versionId + "\"");
+        }
+        return new Response(200, response);
+    }
+
+    /**
+     * Stores a copy of the resource as the next version at the URL, and returns its version id.
+     */
+    private String store(String url, Resource resource) {
+        Resource existing = resources.get(url);
+        Resource stored = resource.copy();
+        String versionId = existing == null ? "1"
+                : Integer.toString(Integer.parseInt(existing.getMeta().getVersionId()) + 1);
+        stored.setId(url);
+        stored.getMeta().setVersionId(versionId).setLastUpdated(new Date());
+        resources.put(url, stored);
+        return versionId;
+    }
+
+    /**
+     * Returns the fixture for a code, or in record mode, captures a new one from the upstream
+     * server if there is no fixture. Returns null if the code is unknown.
+     */
+    private Fixture getFixture(String system, String code) throws IOException {
+        Fixture fixture = fixtures.get(key(system, code));
+        if (fixture != null || upstreamUrl == null || system == null || code == null) {
+            return fixture;
+        }
+        URL url = new URL(upstreamUrl + "/CodeSystem/$lookup?system=" + encode(system) + "&code="
+                + encode(code) + "&property=inactive");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Accept", "application/fhir+json");
+        try {
+            if (connection.getResponseCode() != 200) {
+                return null;
+            }
+            Parameters result;
+            try (InputStream response = connection.getInputStream()) {
+                result = (Parameters) parser().parseResource(response);
+            }
+            StringType display = (StringType) result.getParameter("display");
+            fixture = new Fixture(system, code, LookupResponses.isActive(result),
+                    display == null ? null : display.getValue());
+            fixtures.put(key(system, code), fixture);
+            return fixture;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void injectLatency() {
+        long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, IBaseResource resource)
+            throws IOException {
+        respond(exchange, status, "application/fhir+json;charset=UTF-8",
+                parser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType,
+            byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private CapabilityStatement capabilityStatement() {
+        CapabilityStatement capabilityStatement = new CapabilityStatement();
+        capabilityStatement.setStatus(PublicationStatus.ACTIVE);
+        capabilityStatement.setFhirVersion(FHIRVersion._4_0_1);
+        capabilityStatement.setKind(CapabilityStatementKind.INSTANCE);
+        capabilityStatement.addFormat("json");
+        return capabilityStatement;
+    }
+
+    private static OperationOutcome outcome(IssueType type, String message) {
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(type).setDiagnostics(message);
+        return outcome;
+    }
+
+    private IParser parser() {
+        return fhirContext.newJsonParser();
+    }
+
+    private void count(String operation) {
+        requestCounts.computeIfAbsent(operation, o -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static Map<String, String> parseQuery(String query)
+            throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            String[] parts = pair.split("=", 2);
+            params.put(URLDecoder.decode(parts[0], "UTF-8"),
+                    parts.length > 1 ? URLDecoder.decode(parts[1], "UTF-8") : "");
+        }
+        return params;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static String key(String system, String code) {
+        return system + "|" + code;
+    }
+
+    private static class Fixture {
+
+        private final String system;
+        private final String code;
+        private final boolean active;
+        private final String display;
+
+        private Fixture(String system, String code, boolean active, String display) {
+            this.system = system;
+            this.code = code;
+            this.active = active;
+            this.display = display;
+        }
+
+    }
+
+    private static class Response {
+
+        private final int status;
+        private final IBaseResource resource;
+
+        private Response(int status, IBaseResource resource) {
+            this.status = status;
+            this.resource = resource;
+        }
+
+    }
+
+}
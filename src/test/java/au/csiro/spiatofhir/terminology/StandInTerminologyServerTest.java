@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+
+public class StandInTerminologyServerTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private StandInTerminologyServer upstream;
+    private StandInTerminologyServer recorder;
+    private StandInTerminologyServer replay;
+
+    @Override
+    protected void setUp() throws Exception {
+        upstream = new StandInTerminologyServer()
+                .addCode(SYSTEM, "14682-9", true, "Creatinine [Moles/volume] in Serum or Plasma")
+                .addCode(SYSTEM, "2344-0", false, null);
+        recorder = new StandInTerminologyServer();
+        replay = new StandInTerminologyServer();
+    }
+
+    @Override
+    protected void tearDown() {
+        upstream.close();
+        recorder.close();
+        replay.close();
+    }
+
+    public void testRecordedFixturesCanBeReplayed() throws Exception {
+        recorder.record(upstream.start());
+        IGenericClient recorderClient = client(recorder.start());
+        assertTrue(LookupResponses.isActive(lookup(recorderClient, "14682-9")));
+        assertFalse(LookupResponses.isActive(lookup(recorderClient, "2344-0")));
+        try {
+            lookup(recorderClient, "99999-9");
+            fail("Expected the lookup to fail");
+        } catch (ResourceNotFoundException e) {
+            // Expected.
+        }
+        assertEquals(3, upstream.getRequestCount("$lookup"));
+        // Recorded codes are answered without consulting the upstream server again.
+        assertTrue(LookupResponses.isActive(lookup(recorderClient, "14682-9")));
+        assertEquals(3, upstream.getRequestCount("$lookup"));
+
+        Path fixtures = Files.createTempFile("stand-in", ".tsv");
+        recorder.saveFixtures(fixtures);
+        assertEquals(Arrays.asList(SYSTEM + "\t14682-9\ttrue\t"
+                        + "Creatinine [Moles/volume] in Serum or Plasma",
+                SYSTEM + "\t2344-0\tfalse\t"),
+                Files.readAllLines(fixtures, StandardCharsets.UTF_8));
+
+        IGenericClient replayClient = client(replay.loadFixtures(fixtures).start());
+        Parameters result = lookup(replayClient, "14682-9");
+        assertTrue(LookupResponses.isActive(result));
+        assertEquals("Creatinine [Moles/volume] in Serum or Plasma",
+                ((StringType) result.getParameter("display")).getValue());
+        assertFalse(LookupResponses.isActive(lookup(replayClient, "2344-0")));
+    }
+
+    public void testValidateCode() throws Exception {
+        IGenericClient client = client(upstream.start());
+        Parameters active = validateCode(client, "14682-9");
+        assertTrue(((BooleanType) active.getParameter("result")).booleanValue());
+        assertEquals("Creatinine [Moles/volume] in Serum or Plasma",
+                ((StringType) active.getParameter("display")).getValue());
+        assertFalse(((BooleanType) validateCode(client, "2344-0").getParameter("result"))
+                .booleanValue());
+        Parameters unknown = validateCode(client, "99999-9");
+        assertFalse(((BooleanType) unknown.getParameter("result")).booleanValue());
+        assertEquals("Code not found", ((StringType) unknown.getParameter("message")).getValue());
+        assertEquals(3, upstream.getRequestCount("$validate-code"));
+    }
+
+    private static IGenericClient client(String url) {
+        return FhirContext.forR4().newRestfulGenericClient(url);
+    }
+
+    private static Parameters lookup(IGenericClient client, String code) {
+        Parameters parameters = new Parameters();
+        parameters.addParameter().setName("system").setValue(new UriType(SYSTEM));
+        parameters.addParameter().setName("code").setValue(new CodeType(code));
+        parameters.addParameter().setName("property").setValue(new CodeType("inactive"));
+        return client.operation().onType(CodeSystem.class).named("$lookup")
+                .withParameters(parameters).useHttpGet().execute();
+    }
+
+    private static Parameters validateCode(IGenericClient client, String code) {
+        Parameters parameters = new Parameters();
+        parameters.addParameter().setName("url").setValue(new UriType(SYSTEM));
+        parameters.addParameter().setName("system").setValue(new UriType(SYSTEM));
+        parameters.addParameter().setName("code").setValue(new CodeType(code));
+        return client.operation().onType(CodeSystem.class).named("$validate-code")
+                .withParameters(parameters).execute();
+    }
+
+}
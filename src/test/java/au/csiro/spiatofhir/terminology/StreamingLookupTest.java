@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 Australian e-Health Research Centre, CSIRO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.csiro.spiatofhir.terminology;
+
+import au.csiro.spiatofhir.fhir.TerminologyClient;
+import au.csiro.spiatofhir.terminology.RemoteCodeStatusProvider.BatchMode;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.exceptions.InvalidResponseException;
+import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class StreamingLookupTest extends TestCase {
+
+    private static final String SYSTEM = "http://loinc.org";
+    private final FhirContext fhirContext = FhirContext.forR4();
+    private StandInTerminologyServer server;
+    private TerminologyClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StandInTerminologyServer()
+                .addCode(SYSTEM, "14682-9", true, "Creatinine [Moles/volume] in Serum or Plasma")
+                .addCode(SYSTEM, "2344-0", false, "Glucose [Mass/volume] in Body fluid");
+        client = fhirContext.newRestfulClient(TerminologyClient.class, server.start());
+    }
+
+    @Override
+    protected void tearDown() {
+        server.close();
+    }
+
+    public void testReadsActiveStatus() {
+        StreamingLookup lookup = StreamingLookup.forClient(fhirContext, client);
+        assertTrue(lookup.checkActive(SYSTEM, "2.68", "14682-9"));
+        assertFalse(lookup.checkActive(SYSTEM, null, "2344-0"));
+        assertEquals(2, server.getRequestCount("$lookup"));
+    }
+
+    public void testUnknownCodeIsNotFound() {
+        StreamingLookup lookup = StreamingLookup.forClient(fhirContext, client);
+        try {
+            lookup.checkActive(SYSTEM, null, "99999-9");
+            fail("Expected the lookup to fail");
+        } catch (ResourceNotFoundException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+    }
+
+    public void testErrorStatusIsRetryable() {
+        server.setErrorRate(1, 503);
+        StreamingLookup lookup = StreamingLookup.forClient(fhirContext, client);
+        try {
+            lookup.checkActive(SYSTEM, null, "14682-9");
+            fail("Expected the lookup to fail");
+        } catch (BaseServerResponseException e) {
+            assertEquals(503, e.getStatusCode());
+            assertTrue(ResilientCodeStatusProvider.isRetryable(e));
+        }
+    }
+
+    public void testNonFhirResponseIsNotRetryable() {
+        server.setNonFhirResponses(true);
+        StreamingLookup lookup = StreamingLookup.forClient(fhirContext, client);
+        try {
+            lookup.checkActive(SYSTEM, null, "14682-9");
+            fail("Expected the lookup to fail");
+        } catch (InvalidResponseException e) {
+            assertFalse(ResilientCodeStatusProvider.isRetryable(e));
+        }
+    }
+
+    public void testNotUsedWithInterceptors() {
+        client.registerInterceptor(new LoggingInterceptor());
+        assertNull(StreamingLookup.forClient(fhirContext, client));
+    }
+
+    public void testRemoteProviderUsesStreamingLookupForSingleCodes() {
+        RemoteCodeStatusProvider provider = new RemoteCodeStatusProvider(client,
+                Collections.singletonMap(SYSTEM, "2.68"), BatchMode.LOOKUP,
+                StreamingLookup.forClient(fhirContext, client));
+        assertTrue(provider.checkActive(SYSTEM, "14682-9"));
+        assertEquals(1, server.getRequestCount("$lookup"));
+        assertEquals(0, server.getRequestCount("batch"));
+
+        Map<String, Boolean> results = provider.checkActive(SYSTEM,
+                Arrays.asList("14682-9", "2344-0"));
+        assertTrue(results.get("14682-9"));
+        assertFalse(results.get("2344-0"));
+        assertEquals(1, server.getRequestCount("batch"));
+    }
+
+}